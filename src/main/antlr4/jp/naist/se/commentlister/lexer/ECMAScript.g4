@@ -146,6 +146,15 @@ grammar ECMAScript;
         return next;
     }
 
+    /**
+     * Clear the recorded token so that the lexer can be reused for another input.
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        this.lastToken = null;
+    }
+
     /**
      * Returns {@code true} iff the lexer can match a regex literal.
      *
@@ -126,6 +126,19 @@ boolean CheckHeredocEnd(String text)
     String identifier = semi ? text.substring(0, text.length() - 1) : text;
     boolean result = identifier.equals(_heredocIdentifier);
     return result;
+}
+
+@Override
+public void reset()
+{
+    super.reset();
+    _scriptTag = false;
+    _styleTag = false;
+    _heredocIdentifier = null;
+    _prevTokenType = 0;
+    _htmlNameText = null;
+    _phpScript = false;
+    _insideString = false;
 }}
 
 SeaWhitespace:  [ \t\r\n]+ -> channel(HIDDEN);
@@ -123,6 +123,16 @@ tokens { INDENT, DEDENT }
   boolean atStartOfInput() {
     return super.getCharPositionInLine() == 0 && super.getLine() == 1;
   }
+
+  // Clear the state so that the lexer can be reused for another input.
+  @Override
+  public void reset() {
+    super.reset();
+    tokens.clear();
+    indents.clear();
+    opened = 0;
+    lastToken = null;
+  }
 }
 
 /*
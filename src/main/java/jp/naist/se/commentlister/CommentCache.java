@@ -0,0 +1,374 @@
+package jp.naist.se.commentlister;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+
+import jp.naist.se.commentlister.reader.FileType;
+
+
+/**
+ * A persistent cache of extracted comments.
+ * An entry is identified by a blob ObjectId and a FileType,
+ * so that a cache directory can be shared by multiple repositories.
+ *
+ * Entries are appended to a single record file in a cache directory.
+ * An in-memory index maps a key to the position of its record;
+ * the index is built by reading record headers when the cache is opened.
+ * When the total size of entries exceeds a limit, least recently used entries are removed from the index,
+ * and the live records are copied to a new file in the order of their last access.
+ * The order of records in the file is the initial access order of the next run.
+ *
+ * Processes sharing a directory append records under a file lock.
+ * A process reads records appended by other processes before it appends a record,
+ * and reloads the file if another process has replaced it by compaction.
+ * Compaction is detected by a generation number in the lock file, since a file key is unavailable on some platforms.
+ * If the file cannot be replaced (e.g. it is opened by another process on Windows), the old file is kept.
+ * An incomplete record left by an aborted process is ignored and overwritten.
+ * A process should open a directory by a single CommentCache object.
+ */
+public class CommentCache implements AutoCloseable {
+
+	/**
+	 * A file header.
+	 * The version should be updated when extracted comments or the record format change.
+	 */
+	private static final int MAGIC = 0x434C4306;
+	private static final int HEADER_SIZE = 4;
+
+	private static final String RECORD_FILE = "comments.cache";
+	private static final String LOCK_FILE = "comments.lock";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * Comments extracted by a scanner are stored separately from those extracted by a lexer
+	 */
+	private static final String SCANNER_SUFFIX = "-SCANNER";
+
+	/**
+	 * Eviction removes entries until the total size becomes this ratio of the limit
+	 */
+	private static final double EVICTION_RATIO = 0.9;
+
+	/**
+	 * A record is an object ID, the length of a key suffix, the length of data, the suffix and the data.
+	 */
+	private static final int RECORD_HEADER_SIZE = Constants.OBJECT_ID_LENGTH + 1 + 4;
+
+	/**
+	 * The position of a record in the file
+	 */
+	private static class Entry {
+		private long offset;
+		private int length;
+
+		public Entry(long offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private Path file;
+	private long maxBytes;
+	private FileChannel channel;
+	private FileChannel lockChannel;
+
+	/**
+	 * The generation of the record file, incremented by compaction
+	 */
+	private long generation;
+
+	/**
+	 * Entries in the order of access (least recently used first)
+	 */
+	private LinkedHashMap<String, Entry> index;
+
+	/**
+	 * The end of the last complete record
+	 */
+	private long end;
+	private long totalBytes;
+	private AtomicLong hits;
+	private AtomicLong misses;
+
+	/**
+	 * @param dir is a cache directory.  It is created if it does not exist.
+	 * @param maxBytes is the limit of the total size of entries.
+	 */
+	public CommentCache(File dir, long maxBytes) throws IOException {
+		this.maxBytes = maxBytes;
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException(dir.getAbsolutePath() + " is not a directory.");
+		}
+		this.file = new File(dir, RECORD_FILE).toPath();
+		this.lockChannel = FileChannel.open(new File(dir, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try (FileLock lock = lockChannel.lock()) {
+			open();
+			if (totalBytes > maxBytes) {
+				// The limit may be smaller than the previous run
+				evict();
+			}
+		}
+	}
+
+	/**
+	 * Open the record file and build the index.
+	 * The caller must hold the file lock.
+	 */
+	private void open() throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		generation = readGeneration();
+		index = new LinkedHashMap<>(1024, 0.75f, true);
+		totalBytes = 0;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if (channel.read(header, 0) == HEADER_SIZE && header.getInt(0) == MAGIC) {
+			end = HEADER_SIZE;
+			readNewRecords();
+		} else {
+			// A new file, or a file of another version
+			channel.truncate(0);
+			header.clear();
+			header.putInt(MAGIC).flip();
+			channel.write(header, 0);
+			end = HEADER_SIZE;
+		}
+	}
+
+	/**
+	 * Add records after the end of the known records to the index.
+	 */
+	private void readNewRecords() throws IOException {
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + 255);
+		while (end + RECORD_HEADER_SIZE <= size) {
+			header.clear();
+			channel.read(header, end);
+			header.flip();
+			if (header.remaining() < RECORD_HEADER_SIZE) return;
+			byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+			header.get(id);
+			int suffixLength = header.get() & 0xFF;
+			int dataLength = header.getInt();
+			long length = RECORD_HEADER_SIZE + suffixLength + (long)dataLength;
+			if (dataLength < 0 || header.remaining() < suffixLength || end + length > size) return;
+			byte[] suffix = new byte[suffixLength];
+			header.get(suffix);
+			String key = toKey(id, new String(suffix, StandardCharsets.US_ASCII));
+			addEntry(key, new Entry(end, (int)length));
+			end += length;
+		}
+	}
+
+	private void addEntry(String key, Entry e) {
+		Entry old = index.put(key, e);
+		if (old != null) totalBytes -= old.length;
+		totalBytes += e.length;
+	}
+
+	private static String getSuffix(FileType t) {
+		return FileType.isScannerEnabled(t) ? t.name() + SCANNER_SUFFIX : t.name();
+	}
+
+	private static String toKey(byte[] id, String suffix) {
+		StringBuilder b = new StringBuilder(Constants.OBJECT_ID_STRING_LENGTH + 1 + suffix.length());
+		for (byte v: id) {
+			b.append(Character.forDigit((v >> 4) & 0xF, 16));
+			b.append(Character.forDigit(v & 0xF, 16));
+		}
+		return b.append('-').append(suffix).toString();
+	}
+
+	/**
+	 * @return comments extracted from a blob.  null if the cache does not have the entry.
+	 */
+	public FileComments get(AnyObjectId obj, FileType t) {
+		String key = obj.name() + "-" + getSuffix(t);
+		Entry e;
+		FileChannel c;
+		synchronized (this) {
+			e = index.get(key);
+			c = channel;
+		}
+		if (e != null) {
+			try {
+				ByteBuffer buf = ByteBuffer.allocate(e.length);
+				while (buf.hasRemaining()) {
+					if (c.read(buf, e.offset + buf.position()) < 0) throw new IOException("Unexpected end of a record");
+				}
+				int suffixLength = buf.get(Constants.OBJECT_ID_LENGTH) & 0xFF;
+				int start = RECORD_HEADER_SIZE + suffixLength;
+				FileComments comments = FileComments.readFrom(new DataInputStream(new ByteArrayInputStream(buf.array(), start, e.length - start)));
+				hits.incrementAndGet();
+				return comments;
+			} catch (IOException ex) {
+				// A record being replaced by compaction is regarded as a miss
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Store comments extracted from a blob.
+	 * A failure of writing an entry is ignored, since the cache is optional.
+	 */
+	public void put(AnyObjectId obj, FileType t, FileComments comments) {
+		try {
+			String suffix = getSuffix(t);
+			byte[] suffixBytes = suffix.getBytes(StandardCharsets.US_ASCII);
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(buf);
+			byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+			obj.copyRawTo(id, 0);
+			out.write(id);
+			out.writeByte(suffixBytes.length);
+			out.writeInt(0);
+			out.write(suffixBytes);
+			comments.writeTo(out);
+			out.flush();
+			ByteBuffer record = ByteBuffer.wrap(buf.toByteArray());
+			record.putInt(Constants.OBJECT_ID_LENGTH + 1, record.limit() - RECORD_HEADER_SIZE - suffixBytes.length);
+			append(obj.name() + "-" + suffix, record);
+		} catch (IOException e) {
+			System.err.println("Warning: failed to write a cache entry to " + file + " (" + e.getMessage() + ")");
+		}
+	}
+
+	private synchronized void append(String key, ByteBuffer record) throws IOException {
+		try (FileLock lock = lockChannel.lock()) {
+			if (!isSameFile()) {
+				// Another process has compacted the file
+				channel.close();
+				open();
+			} else {
+				readNewRecords();
+			}
+			if (channel.size() > end) {
+				// An incomplete record of an aborted process
+				channel.truncate(end);
+			}
+			int length = record.limit();
+			while (record.hasRemaining()) {
+				channel.write(record, end + record.position());
+			}
+			addEntry(key, new Entry(end, length));
+			end += length;
+			if (totalBytes > maxBytes) {
+				evict();
+			}
+		}
+	}
+
+	private boolean isSameFile() throws IOException {
+		return Files.exists(file) && readGeneration() == generation;
+	}
+
+	/**
+	 * @return the generation recorded in the lock file.  0 if not recorded.
+	 * The caller must hold the file lock.
+	 */
+	private long readGeneration() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+		while (buf.hasRemaining()) {
+			if (lockChannel.read(buf, buf.position()) < 0) return 0;
+		}
+		return buf.getLong(0);
+	}
+
+	private void writeGeneration(long g) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(Long.BYTES);
+		buf.putLong(g).flip();
+		while (buf.hasRemaining()) {
+			lockChannel.write(buf, buf.position());
+		}
+	}
+
+	/**
+	 * Remove least recently used entries and write the other entries to a new file.
+	 * The caller must hold the file lock.
+	 */
+	private void evict() throws IOException {
+		long limit = (long)(maxBytes * EVICTION_RATIO);
+		Iterator<Map.Entry<String, Entry>> it = index.entrySet().iterator();
+		while (it.hasNext() && totalBytes > limit) {
+			totalBytes -= it.next().getValue().length;
+			it.remove();
+		}
+
+		Path temp = file.resolveSibling(RECORD_FILE + TEMP_SUFFIX);
+		LinkedHashMap<String, Entry> compacted = new LinkedHashMap<>(index.size() * 2, 0.75f, true);
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).flip();
+			out.write(header);
+			long pos = HEADER_SIZE;
+			for (Map.Entry<String, Entry> e: index.entrySet()) {
+				Entry old = e.getValue();
+				long copied = 0;
+				while (copied < old.length) {
+					copied += channel.transferTo(old.offset + copied, old.length - copied, out);
+				}
+				compacted.put(e.getKey(), new Entry(pos, old.length));
+				pos += old.length;
+			}
+			out.force(false);
+		}
+		// The file is closed before the move, since an open file cannot be replaced on Windows
+		channel.close();
+		try {
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// The old file is kept; removed entries remain in the file until the next compaction
+			Files.deleteIfExists(temp);
+			channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			return;
+		}
+		channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		generation = readGeneration() + 1;
+		writeGeneration(generation);
+		index = compacted;
+		end = channel.size();
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the total size of the entries in the index.
+	 */
+	synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+		lockChannel.close();
+	}
+
+}
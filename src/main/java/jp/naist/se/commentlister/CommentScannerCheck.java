@@ -0,0 +1,157 @@
+package jp.naist.se.commentlister;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumMap;
+
+import jp.naist.se.commentlister.reader.CommentReader;
+import jp.naist.se.commentlister.reader.FileType;
+import jp.naist.se.commentlister.scanner.CommentScanner;
+
+/**
+ * This main class compares comments extracted by hand-written scanners
+ * with those extracted by ANTLR lexers, for source files listed in command line arguments.
+ * Files having different comments (including end lines and offsets) are reported to the standard output,
+ * followed by the throughput of the two implementations for each file type.
+ */
+public class CommentScannerCheck {
+
+	/**
+	 * Statistics of a file type
+	 */
+	private static class Stat {
+		private int files;
+		private int mismatches;
+		private long bytes;
+		private long lexerNanos;
+		private long scannerNanos;
+	}
+
+	private EnumMap<FileType, Stat> stats = new EnumMap<>(FileType.class);
+
+	public static void main(String[] args) {
+		CommentScannerCheck check = new CommentScannerCheck();
+		for (String s: args) {
+			try {
+				check.processFile(new File(s).toPath());
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		check.printStatistics();
+	}
+
+	public void processFile(Path path) throws IOException {
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				FileType t = FileType.getFileType(file.toString());
+				if (CommentScanner.isSupported(t)) {
+					compare(file, t, Files.readAllBytes(file));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+				System.err.println(file.toString() + " is not readable");
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Extract comments using both implementations and compare the results.
+	 * @return true if the results are the same.
+	 * A file that is not encoded in UTF-8 is regarded as the same, since the scanner is not used.
+	 */
+	public boolean compare(Path file, FileType t, byte[] content) {
+		long start = System.nanoTime();
+		CommentReader scanner = CommentScanner.createCommentReader(t, content);
+		if (scanner == null) return true;
+		FileComments scanned = FileComments.read(scanner);
+		Stat stat = stats.computeIfAbsent(t, type -> new Stat());
+		stat.files++;
+		stat.bytes += content.length;
+		stat.scannerNanos += System.nanoTime() - start;
+
+		start = System.nanoTime();
+		FileComments lexed = FileComments.read(FileType.createCommentReader(t, content));
+		stat.lexerNanos += System.nanoTime() - start;
+
+		String diff = findDifference(lexed, scanned);
+		if (diff == null) {
+			diff = findLocationDifference(FileType.createCommentReader(t, content), CommentScanner.createCommentReader(t, content));
+		}
+		if (diff != null) {
+			stat.mismatches++;
+			System.out.println("Mismatch: " + file.toString() + " " + diff);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return a description of the first different comment.  null if the comments are the same.
+	 */
+	private static String findDifference(FileComments expected, FileComments actual) {
+		for (int i=0; i<Math.max(expected.size(), actual.size()); i++) {
+			if (i >= expected.size() || i >= actual.size() ||
+				!expected.getText(i).equals(actual.getText(i)) ||
+				expected.getLine(i) != actual.getLine(i) ||
+				expected.getCharPositionInLine(i) != actual.getCharPositionInLine(i)) {
+				String e = i < expected.size() ? describe(expected, i) : "(none)";
+				String a = i < actual.size() ? describe(actual, i) : "(none)";
+				return "comment " + i + ": lexer=" + e + " scanner=" + a;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compare end lines and offsets of comments.
+	 * @return a description of the first different comment.  null if the comments are the same.
+	 */
+	private static String findLocationDifference(CommentReader expected, CommentReader actual) {
+		int i = 0;
+		while (expected.next() && actual.next()) {
+			if (expected.getEndLine() != actual.getEndLine() ||
+				expected.getStartOffset() != actual.getStartOffset() ||
+				expected.getEndOffset() != actual.getEndOffset() ||
+				!actual.getTextSequence().toString().equals(actual.getText())) {
+				return "comment " + i + ": lexer=" + describeLocation(expected) + " scanner=" + describeLocation(actual);
+			}
+			i++;
+		}
+		return null;
+	}
+
+	private static String describeLocation(CommentReader r) {
+		return r.getLine() + "-" + r.getEndLine() + " [" + r.getStartOffset() + "," + r.getEndOffset() + ")";
+	}
+
+	private static String describe(FileComments c, int index) {
+		String text = c.getText(index);
+		if (text.length() > 40) text = text.substring(0, 40) + "...";
+		return c.getLine(index) + ":" + c.getCharPositionInLine(index) + " " + text.replace("\n", "\\n");
+	}
+
+	public void printStatistics() {
+		for (FileType t: stats.keySet()) {
+			Stat s = stats.get(t);
+			System.out.println(t.name() + ": files=" + s.files + ", mismatches=" + s.mismatches + ", bytes=" + s.bytes +
+					", lexer=" + getThroughput(s.bytes, s.lexerNanos) + " MB/s" +
+					", scanner=" + getThroughput(s.bytes, s.scannerNanos) + " MB/s");
+		}
+	}
+
+	private static String getThroughput(long bytes, long nanos) {
+		if (nanos == 0) return "-";
+		return String.format("%.1f", bytes * 1000.0 / nanos);
+	}
+
+}
@@ -0,0 +1,345 @@
+package jp.naist.se.commentlister;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.AndRevFilter;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+
+/**
+ * Commits analyzed by GitDiffAnalyzer.
+ * Commits are specified by either a file listing commit IDs (one commit per line)
+ * or revision ranges like git log: "A..B", "A...B", "B", "^A" and "--all" (HEAD if nothing is specified).
+ * "A...B" is the symmetric difference, i.e. commits reachable from either A or B but not from both.
+ * An unresolvable revision makes the range invalid.
+ * A single revision naming an existing file is regarded as a list file.
+ * Commits of revision ranges are enumerated by a RevWalk in the order of git log.
+ * The filters "--since=", "--until=", "--no-merges", "--min-parents=" and "--max-parents=" are applied in the walk.
+ * A date is written as "yyyy-MM-dd" (the start of the day in the local time zone) or an ISO-8601 date-time with an offset.
+ */
+public class CommitRange implements AutoCloseable {
+
+	public static final String ALL = "--all";
+	private static final String ARG_SINCE = "--since=";
+	private static final String ARG_UNTIL = "--until=";
+	private static final String ARG_NO_MERGES = "--no-merges";
+	private static final String ARG_MIN_PARENTS = "--min-parents=";
+	private static final String ARG_MAX_PARENTS = "--max-parents=";
+
+	private static final String RANGE = "..";
+	private static final String SYMMETRIC_RANGE = "...";
+
+	private File listFile;
+	private List<String> commits;
+	private ArrayList<String> revisions = new ArrayList<>();
+	private boolean all;
+	private Date since;
+	private Date until;
+	private int minParents = 0;
+	private int maxParents = -1;
+	private boolean valid = true;
+
+	private Repository repo;
+	private RevWalk walk;
+	private BufferedReader listReader;
+	private Iterator<String> list;
+
+	/**
+	 * Create an empty range.  Revisions and filters are added by parse.
+	 */
+	public CommitRange() {
+	}
+
+	/**
+	 * Create a range of commits listed in a file.
+	 */
+	public CommitRange(File listFile) {
+		this.listFile = listFile;
+	}
+
+	/**
+	 * Create a range of listed commits.
+	 * @param commits are commit IDs.
+	 */
+	public CommitRange(List<String> commits) {
+		this.commits = commits;
+	}
+
+	/**
+	 * @param arg is a revision, a range or a filter.
+	 * @return true if arg is a filter or "--all".  Otherwise, arg is added as a revision.
+	 */
+	public boolean parse(String arg) {
+		if (arg.equals(ALL)) {
+			all = true;
+		} else if (arg.startsWith(ARG_SINCE)) {
+			since = parseDate(arg.substring(ARG_SINCE.length()));
+		} else if (arg.startsWith(ARG_UNTIL)) {
+			until = parseDate(arg.substring(ARG_UNTIL.length()));
+		} else if (arg.equals(ARG_NO_MERGES)) {
+			maxParents = 1;
+		} else if (arg.startsWith(ARG_MIN_PARENTS)) {
+			minParents = parseCount(arg.substring(ARG_MIN_PARENTS.length()), minParents);
+		} else if (arg.startsWith(ARG_MAX_PARENTS)) {
+			maxParents = parseCount(arg.substring(ARG_MAX_PARENTS.length()), maxParents);
+		} else {
+			revisions.add(arg);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return false if an argument is invalid.
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * @return a list file if the range is a single revision naming an existing file.  Otherwise null.
+	 */
+	private File getListFile() {
+		if (listFile != null) return listFile;
+		if (revisions.size() == 1 && !all && since == null && until == null && minParents == 0 && maxParents < 0) {
+			File f = new File(revisions.get(0));
+			if (f.isFile()) return f;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number.  If s is not a number, the range is marked as invalid and the current value is returned.
+	 */
+	private int parseCount(String s, int current) {
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			System.err.println("Error: " + s + " is not a number.");
+			valid = false;
+			return current;
+		}
+	}
+
+	/**
+	 * @return a date, or null if the string is not a date.
+	 */
+	private Date parseDate(String s) {
+		try {
+			if (s.length() == "yyyy-MM-dd".length()) {
+				return Date.from(LocalDate.parse(s).atStartOfDay(ZoneId.systemDefault()).toInstant());
+			} else {
+				return Date.from(OffsetDateTime.parse(s).toInstant());
+			}
+		} catch (DateTimeParseException e) {
+			System.err.println("Error: " + s + " is not a date (yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss+hh:mm).");
+			valid = false;
+			return null;
+		}
+	}
+
+	/**
+	 * Start enumerating commits.
+	 * @param walk parses commits.  It must not be used by other threads until the enumeration finishes.
+	 * @return false if a revision is not resolved.  An error message is printed for the revision.
+	 */
+	public boolean start(Repository repo, RevWalk walk) throws IOException {
+		this.repo = repo;
+		this.walk = walk;
+		if (commits != null) {
+			list = commits.iterator();
+			return true;
+		}
+		File f = getListFile();
+		if (f != null) {
+			listReader = new BufferedReader(new FileReader(f));
+			list = listReader.lines().iterator();
+			return true;
+		}
+
+		ArrayList<String> starts = new ArrayList<>();
+		ArrayList<String> uninteresting = new ArrayList<>();
+		ArrayList<String[]> symmetric = new ArrayList<>();
+		for (String r: revisions) {
+			int symmetricRange = r.indexOf(SYMMETRIC_RANGE);
+			int range = r.indexOf(RANGE);
+			if (r.startsWith("^")) {
+				uninteresting.add(r.substring(1));
+			} else if (symmetricRange >= 0) {
+				String left = orHead(r.substring(0, symmetricRange));
+				String right = orHead(r.substring(symmetricRange + SYMMETRIC_RANGE.length()));
+				starts.add(left);
+				starts.add(right);
+				symmetric.add(new String[] { left, right });
+			} else if (range >= 0) {
+				uninteresting.add(orHead(r.substring(0, range)));
+				starts.add(orHead(r.substring(range + RANGE.length())));
+			} else {
+				starts.add(r);
+			}
+		}
+		if (all) {
+			for (Ref ref: repo.getRefDatabase().getRefs()) {
+				if (ref.getObjectId() == null) continue;
+				try {
+					walk.markStart(walk.parseCommit(ref.getObjectId()));
+				} catch (IncorrectObjectTypeException e) {
+					// A ref to a tree or a blob
+				}
+			}
+		} else if (starts.isEmpty()) {
+			starts.add("HEAD");
+		}
+
+		// All revisions are resolved before the walk, so that a typo does not silently widen the range
+		ArrayList<RevCommit> startCommits = resolveAll(starts);
+		ArrayList<RevCommit> uninterestingCommits = resolveAll(uninteresting);
+		if (startCommits == null || uninterestingCommits == null) {
+			return false;
+		}
+		for (String[] pair: symmetric) {
+			uninterestingCommits.addAll(findMergeBases(pair[0], pair[1]));
+		}
+		for (RevCommit c: uninterestingCommits) {
+			walk.markUninteresting(c);
+		}
+		for (RevCommit c: startCommits) {
+			walk.markStart(c);
+		}
+
+		ArrayList<RevFilter> filters = new ArrayList<>();
+		if (since != null) {
+			// The walk stops at the first commit older than the date
+			filters.add(CommitTimeRevFilter.after(since));
+		}
+		if (until != null) {
+			filters.add(CommitTimeRevFilter.before(until));
+		}
+		if (minParents > 0 || maxParents >= 0) {
+			filters.add(new ParentCountFilter(minParents, maxParents));
+		}
+		if (filters.size() == 1) {
+			walk.setRevFilter(filters.get(0));
+		} else if (filters.size() > 1) {
+			walk.setRevFilter(AndRevFilter.create(filters));
+		}
+		return true;
+	}
+
+	private static String orHead(String revision) {
+		return revision.isEmpty() ? "HEAD" : revision;
+	}
+
+	/**
+	 * @return commits of the revisions.  null if a revision is not resolved.
+	 */
+	private ArrayList<RevCommit> resolveAll(List<String> revisions) throws IOException {
+		ArrayList<RevCommit> result = new ArrayList<>();
+		boolean resolved = true;
+		for (String r: revisions) {
+			RevCommit c = GitAnalyzer.resolveCommit(repo, walk, r);
+			if (c != null) {
+				result.add(c);
+			} else {
+				resolved = false;
+			}
+		}
+		return resolved ? result : null;
+	}
+
+	/**
+	 * @return the merge bases of two resolved revisions, parsed by the walk.
+	 * The bases are computed by another walk, since a walk cannot change its filter after it started.
+	 */
+	private ArrayList<RevCommit> findMergeBases(String left, String right) throws IOException {
+		ArrayList<RevCommit> bases = new ArrayList<>();
+		try (RevWalk baseWalk = new RevWalk(repo)) {
+			baseWalk.setRevFilter(RevFilter.MERGE_BASE);
+			baseWalk.markStart(baseWalk.parseCommit(repo.resolve(left)));
+			baseWalk.markStart(baseWalk.parseCommit(repo.resolve(right)));
+			for (RevCommit c = baseWalk.next(); c != null; c = baseWalk.next()) {
+				bases.add(walk.parseCommit(c));
+			}
+		}
+		return bases;
+	}
+
+	/**
+	 * @return the next commit.  null if no more commits.
+	 * A parsed commit is shared with the walk; it can be read by other threads.
+	 */
+	public RevCommit next() throws IOException {
+		if (list == null) {
+			return walk.next();
+		}
+		try {
+			while (list.hasNext()) {
+				RevCommit c = GitAnalyzer.resolveCommit(repo, walk, list.next());
+				if (c != null) return c;
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (listReader != null) {
+			listReader.close();
+			listReader = null;
+		}
+	}
+
+	/**
+	 * A filter on the number of parents
+	 */
+	private static class ParentCountFilter extends RevFilter {
+
+		private int min;
+		private int max;
+
+		/**
+		 * @param max is the maximum number of parents.  A negative value means no limit.
+		 */
+		public ParentCountFilter(int min, int max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public boolean include(RevWalk walker, RevCommit c) {
+			int n = c.getParentCount();
+			return n >= min && (max < 0 || n <= max);
+		}
+
+		@Override
+		public boolean requiresCommitBody() {
+			return false;
+		}
+
+		@Override
+		public RevFilter clone() {
+			return this;
+		}
+	}
+
+}
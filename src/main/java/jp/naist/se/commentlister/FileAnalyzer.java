@@ -2,13 +2,30 @@ package jp.naist.se.commentlister;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 
 import jp.naist.se.commentlister.reader.CommentReader;
@@ -16,32 +33,165 @@ import jp.naist.se.commentlister.reader.FileType;
 
 /**
  * This main class extracts comments from source files listed in command line arguments.
+ * Files in a directory are written in the order of their paths.
  * @param args specify source files
  */
 public class FileAnalyzer {
 
+	private static final String ARG_THREADS = "-threads=";
+	private static final String ARG_MANIFEST = "-manifest=";
+
+	/**
+	 * The number of files processed by worker threads in advance of the output
+	 */
+	private static final int PENDING_FILES_PER_THREAD = 64;
+
 	public static void main(String[] args) {
-		try (JsonGenerator gen = new JsonFactory().createGenerator(System.out)) {
-			gen.useDefaultPrettyPrinter();
-			gen.writeStartObject();
-			gen.writeObjectFieldStart("Files");
-			for (String s: args) {
+		ArrayList<String> files = new ArrayList<>();
+		OutputFormat format = OutputFormat.JSON;
+		int threads = 1;
+		FileManifest manifest = null;
+		for (String arg: args) {
+			if (arg.startsWith(OutputFormat.ARG_FORMAT)) {
+				format = OutputFormat.getFormat(arg.substring(OutputFormat.ARG_FORMAT.length()));
+				if (format == OutputFormat.BINARY) {
+					System.err.println("Error: the binary format is available only for GitAnalyzer");
+					format = null;
+				}
+			} else if (arg.startsWith(ARG_THREADS)) {
+				threads = Integer.parseInt(arg.substring(ARG_THREADS.length()));
+			} else if (arg.startsWith(ARG_MANIFEST)) {
+				manifest = new FileManifest(new File(arg.substring(ARG_MANIFEST.length())));
+			} else {
+				files.add(arg);
+			}
+		}
+		if (format == null) {
+			System.err.println("Usage: [-format=json|ndjson] [-threads=N] [-manifest=file] files/directories ...");
+			return;
+		}
+		long startTime = System.currentTimeMillis();
+		ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+		try (JsonGenerator gen = format.createGenerator(System.out)) {
+			if (manifest != null) {
+				manifest.open();
+			}
+			int fileCount = 0;
+			if (format == OutputFormat.JSON) {
+				gen.writeStartObject();
+				gen.writeObjectFieldStart("Files");
+			}
+			for (String s: files) {
 				File f = new File(s);
-				processFile(gen, f.toPath());
+				fileCount += processFiles(gen, format, listFiles(f.toPath()), executor, threads * PENDING_FILES_PER_THREAD, manifest);
+			}
+			if (format == OutputFormat.JSON) {
+				gen.writeEndObject();
+			} else {
+				gen.writeStartObject();
+				gen.writeStringField("Record", "Summary");
+				gen.writeNumberField("FileCount", fileCount);
+				gen.writeNumberField("ElapsedTime", System.currentTimeMillis() - startTime);
+				gen.writeEndObject();
+				OutputFormat.endRecord(gen);
+			}
+			if (manifest != null) {
+				manifest.commit();
+				System.err.println("Info: manifest reused=" + manifest.getReusedCount() + ", extracted=" + manifest.getExtractedCount());
 			}
-			gen.writeEndObject();
 		} catch (IOException e) {
 			e.printStackTrace();
+		} finally {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			if (manifest != null) {
+				manifest.close();
+			}
 		}
 	}
-	
+
+	/**
+	 * Extract comments from a file or files in a directory.
+	 */
 	public static void processFile(JsonGenerator gen, Path path) throws IOException {
+		processFiles(gen, OutputFormat.JSON, listFiles(path), null, 1, null);
+	}
+
+	/**
+	 * Extract comments from files.
+	 * @param executor runs extraction.  If null, files are processed in the current thread.
+	 * @param maxPendingFiles is the number of files processed in advance of the output.
+	 * @param manifest provides comments of unchanged files and records the results.  It may be null.
+	 * @return the number of files written to the output.
+	 */
+	static int processFiles(JsonGenerator gen, OutputFormat format, ArrayList<Path> files, ExecutorService executor, int maxPendingFiles, FileManifest manifest) throws IOException {
+		int count = 0;
+		ArrayDeque<Future<FileManifest.Entry>> pending = new ArrayDeque<>();
+		try {
+			int next = 0;
+			for (Path file: files) {
+				FileType t = FileType.getFileType(file.toString());
+				if (executor == null) {
+					pending.add(CompletableFuture.completedFuture(readEntry(file, t, manifest)));
+				} else {
+					pending.add(executor.submit(() -> readEntry(file, t, manifest)));
+				}
+				if (pending.size() >= maxPendingFiles) {
+					if (writePendingFile(gen, format, pending.poll(), manifest)) count++;
+				}
+			}
+			while (!pending.isEmpty()) {
+				if (writePendingFile(gen, format, pending.poll(), manifest)) count++;
+			}
+		} finally {
+			for (Future<FileManifest.Entry> f: pending) {
+				f.cancel(false);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Wait for the result of a file and write it to the output and the manifest.
+	 * @return true if the file is written.
+	 */
+	private static boolean writePendingFile(JsonGenerator gen, OutputFormat format, Future<FileManifest.Entry> result, FileManifest manifest) throws IOException {
+		FileManifest.Entry entry;
+		try {
+			entry = result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			} else {
+				throw new IOException(e.getCause());
+			}
+		}
+		if (entry == null) return false;
+		writeFile(gen, format, entry.getPath(), entry.getFileType(), entry.getComments());
+		if (manifest != null) {
+			manifest.add(entry);
+		}
+		return true;
+	}
+
+	/**
+	 * List files of supported file types in a directory.
+	 * The file types are determined by file names, so that other files are not read.
+	 * @param path is a file or a directory.
+	 * @return files sorted by their paths.
+	 */
+	public static ArrayList<Path> listFiles(Path path) throws IOException {
+		ArrayList<Path> files = new ArrayList<>();
 		Files.walkFileTree(path, new FileVisitor<Path>() {
 			@Override
 			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-				String filename = file.toString();
-				FileType t = FileType.getFileType(filename);
-				extractComments(gen, file, filename, t);
+				if (FileType.isSupported(file.toString())) {
+					files.add(file);
+				}
 				return FileVisitResult.CONTINUE;
 			}
 			@Override
@@ -58,25 +208,173 @@ public class FileAnalyzer {
 				return FileVisitResult.CONTINUE;
 			}
 		});
+		files.sort(new Comparator<Path>() {
+			@Override
+			public int compare(Path o1, Path o2) {
+				return o1.toString().compareTo(o2.toString());
+			}
+		});
+		return files;
 	}
-	
+
+	/**
+	 * Write comments in a file.
+	 */
 	public static void extractComments(JsonGenerator gen, Path path, String filename, FileType t) throws IOException {
-		byte[] content = Files.readAllBytes(path);
-		CommentReader comments = FileType.createCommentReader(t, content);
-		if (comments == null) return;
-		gen.writeObjectFieldStart(filename);
+		if (!FileType.isSupported(t)) return;
+		FileManifest.Entry entry = readEntry(path, t, null);
+		if (entry != null) {
+			writeFile(gen, OutputFormat.JSON, filename, t, entry.getComments());
+		}
+	}
+
+	/**
+	 * Read comments in a file, or take them from a manifest if the file is unchanged.
+	 * A file larger than FileType.STREAM_FILE_SIZE is read through a memory-mapped buffer and lexed as a stream.
+	 * This method is called by worker threads.
+	 * @param manifest may be null.  The content hash of a file is computed only if a manifest is given.
+	 * @return an entry.  null if the file is not readable or the file type is not supported.
+	 */
+	private static FileManifest.Entry readEntry(Path path, FileType t, FileManifest manifest) {
+		String filename = path.toString();
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			// Metadata is read before the content, so that a change during the read is detected by the next run
+			BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+			long size = attrs.size();
+			long lastModified = attrs.lastModifiedTime().toMillis();
+			if (manifest != null) {
+				FileManifest.Entry old = manifest.getUnchanged(filename, t, size, lastModified);
+				if (old != null) return new FileManifest.Entry(old, size, lastModified);
+			}
+
+			ObjectId id = null;
+			ByteBuffer buf = null;
+			byte[] content = null;
+			if (size > Integer.MAX_VALUE) {
+				// A buffer cannot map the entire file
+				if (manifest != null) {
+					// The stream is not closed here, since closing it also closes the channel
+					id = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, size, Channels.newInputStream(channel));
+					channel.position(0);
+				}
+			} else if (size > FileType.STREAM_FILE_SIZE) {
+				buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if (manifest != null) {
+					id = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, buf.remaining(), new ByteBufferInputStream(buf.duplicate()));
+				}
+			} else {
+				content = readContent(channel, (int)size);
+				if (manifest != null) {
+					id = new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, content);
+				}
+			}
+			if (manifest != null) {
+				FileManifest.Entry old = manifest.getSameContent(filename, t, id);
+				if (old != null) return new FileManifest.Entry(old, size, lastModified);
+			}
+
+			CommentReader reader;
+			if (content != null) {
+				reader = FileType.createCommentReader(t, content);
+			} else if (buf != null) {
+				reader = FileType.createCommentReader(t, new ByteBufferInputStream(buf));
+			} else {
+				// The stream is closed with the channel after the comments are read
+				reader = FileType.createCommentReader(t, Channels.newInputStream(channel));
+			}
+			if (reader == null) return null;
+			return new FileManifest.Entry(filename, t, size, lastModified, id, FileComments.read(reader));
+		} catch (IOException e) {
+			System.err.println("Error: " + filename + " is not readable");
+			return null;
+		}
+	}
+
+	/**
+	 * Read the content of a small file through an open channel.
+	 * @param size is the expected size of the file.
+	 * @return the content.  It is shorter than size if the file is truncated during the read.
+	 */
+	private static byte[] readContent(FileChannel channel, int size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf) < 0) break;
+		}
+		if (buf.position() < size) {
+			return Arrays.copyOf(buf.array(), buf.position());
+		}
+		return buf.array();
+	}
+
+	/**
+	 * Write comments of a file to the output.
+	 */
+	private static void writeFile(JsonGenerator gen, OutputFormat format, String filename, FileType t, FileComments comments) throws IOException {
+		boolean ndjson = format == OutputFormat.NDJSON;
+		if (ndjson) {
+			gen.writeStartObject();
+			gen.writeStringField("Record", "File");
+			gen.writeStringField("Path", filename);
+		} else {
+			gen.writeObjectFieldStart(filename);
+		}
 		gen.writeStringField("FileType", t.name());
-		int commentCount = 0;
-		while (comments.next()) {
-			gen.writeObjectFieldStart(Integer.toString(commentCount++));
-			gen.writeObjectField("Text", comments.getText());
-			gen.writeObjectField("Line", comments.getLine());
-			gen.writeObjectField("CharPositionInLine", comments.getCharPositionInLine());
+		if (ndjson) {
+			gen.writeArrayFieldStart("Comments");
+		}
+		for (int i=0; i<comments.size(); i++) {
+			if (ndjson) {
+				gen.writeStartObject();
+			} else {
+				gen.writeObjectFieldStart(Integer.toString(i));
+			}
+			gen.writeObjectField("Text", comments.getText(i));
+			gen.writeObjectField("Line", comments.getLine(i));
+			gen.writeObjectField("CharPositionInLine", comments.getCharPositionInLine(i));
 			gen.writeEndObject();
 		}
-		gen.writeNumberField("CommentCount", commentCount);
+		if (ndjson) {
+			gen.writeEndArray();
+		}
+		if (!comments.isSuccess()) {
+			gen.writeStringField("Error", comments.getError());
+		}
+		gen.writeNumberField("CommentCount", comments.size());
 		gen.writeEndObject();
-		
+		if (ndjson) {
+			OutputFormat.endRecord(gen);
+		}
+	}
+
+	/**
+	 * A stream to read a memory-mapped file
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+
+		private ByteBuffer buf;
+
+		public ByteBufferInputStream(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		@Override
+		public int read() {
+			return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!buf.hasRemaining()) return -1;
+			int n = Math.min(len, buf.remaining());
+			buf.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buf.remaining();
+		}
 	}
 
 }
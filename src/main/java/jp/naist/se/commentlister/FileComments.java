@@ -0,0 +1,341 @@
+package jp.naist.se.commentlister;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jp.naist.se.commentlister.reader.CommentReader;
+import jp.naist.se.commentlister.reader.ErrorCollector;
+import jp.naist.se.commentlister.reader.StreamLimitException;
+
+
+/**
+ * Comments extracted from the content of a single file.
+ * An instance is independent from the file path,
+ * so that it can be created by a worker thread and written later.
+ */
+public class FileComments {
+
+	/**
+	 * Flags of a serialized record
+	 */
+	private static final int FLAG_ERROR = 1;
+	private static final int FLAG_ERRORLOG = 2;
+
+	/**
+	 * Internal object to record a comment
+	 */
+	private static class Comment {
+		private String text;
+		private int line;
+		private int charPositionInLine;
+
+		/**
+		 * The positions of parts of the text given by CommentReader.getPartPositions.  null if none.
+		 */
+		private int[] parts;
+
+		public Comment(String t, int l, int charpos, int[] parts) {
+			this.text = t;
+			this.line = l;
+			this.charPositionInLine = charpos;
+			this.parts = parts;
+		}
+	}
+
+	private ArrayList<Comment> comments;
+	private String error;
+	private String errorlog;
+	private int errorCount;
+
+	/**
+	 * Keywords found in each comment.  They are not serialized.
+	 */
+	private ArrayList<List<KeywordMatcher.Match>> keywordMatches;
+
+	/**
+	 * Create an empty list of comments.
+	 */
+	public FileComments() {
+		this.comments = new ArrayList<>();
+	}
+
+	/**
+	 * Read all comments from a reader.
+	 * @param reader is a comment reader.
+	 * If it is null, the object records a "CommentReadFail" error.
+	 * If the reader exceeds the memory limit of a large file, the object records a "StreamLimitExceeded" error. 
+	 */
+	public static FileComments read(CommentReader reader) {
+		return read(reader, null);
+	}
+
+	/**
+	 * Read all comments from a reader.
+	 * @param reader is a comment reader.
+	 * @param errors is a collector given to the reader.
+	 * Its messages are recorded as an error log.
+	 * If null, messages are printed to System.err.
+	 */
+	public static FileComments read(CommentReader reader, ErrorCollector errors) {
+		FileComments c = new FileComments();
+		if (reader != null) {
+			try {
+				while (reader.next()) {
+					c.add(reader.getText(), reader.getLine(), reader.getCharPositionInLine(), reader.getPartPositions());
+				}
+			} catch (StreamLimitException e) {
+				ErrorCollector.report(errors, "Error: " + e.getMessage());
+				c.setError("StreamLimitExceeded");
+			}
+		} else {
+			c.setError("CommentReadFail");
+		}
+		if (errors != null) {
+			c.errorlog = errors.getLog();
+			c.errorCount = errors.getCount();
+		}
+		return c;
+	}
+
+	/**
+	 * Create an object representing a failure.
+	 * @param error is an error message.
+	 */
+	public static FileComments failure(String error) {
+		FileComments c = new FileComments();
+		c.setError(error);
+		return c;
+	}
+
+	public void add(String text, int line, int charPositionInLine) {
+		add(text, line, charPositionInLine, null);
+	}
+
+	/**
+	 * @param parts is the positions of parts of the text given by CommentReader.getPartPositions.
+	 */
+	public void add(String text, int line, int charPositionInLine, int[] parts) {
+		comments.add(new Comment(text, line, charPositionInLine, parts));
+	}
+
+	/**
+	 * @return the number of comments.
+	 */
+	public int size() {
+		return comments.size();
+	}
+
+	public String getText(int index) {
+		return comments.get(index).text;
+	}
+
+	public int getLine(int index) {
+		return comments.get(index).line;
+	}
+
+	public int getCharPositionInLine(int index) {
+		return comments.get(index).charPositionInLine;
+	}
+
+	/**
+	 * @return the part including a character, i.e. the index of its position in parts.
+	 * -1 if the character is in the text before the first part.
+	 */
+	private static int findPart(Comment c, int textIndex) {
+		int part = -1;
+		if (c.parts != null) {
+			for (int i=0; i<c.parts.length && c.parts[i] <= textIndex; i+=3) {
+				part = i;
+			}
+		}
+		return part;
+	}
+
+	/**
+	 * @return the line of a character in a comment.
+	 * @param textIndex is the index of the character in the text.
+	 */
+	public int getLine(int index, int textIndex) {
+		Comment c = comments.get(index);
+		int part = findPart(c, textIndex);
+		int line = part < 0 ? c.line : c.parts[part + 1];
+		for (int i = part < 0 ? 0 : c.parts[part]; i<textIndex; i++) {
+			if (c.text.charAt(i) == '\n') line++;
+		}
+		return line;
+	}
+
+	/**
+	 * @return the character position in the line of a character in a comment.
+	 * A part of the text is translated by its own position, since the separator of merged comments may differ from the original gap.
+	 * @param textIndex is the index of the character in the text.
+	 */
+	public int getCharPositionInLine(int index, int textIndex) {
+		Comment c = comments.get(index);
+		int part = findPart(c, textIndex);
+		int partStart = part < 0 ? 0 : c.parts[part];
+		int lineStart = c.text.lastIndexOf('\n', textIndex - 1) + 1;
+		if (lineStart > partStart) {
+			// A line break inside a multi-line comment
+			return textIndex - lineStart;
+		}
+		return (part < 0 ? c.charPositionInLine : c.parts[part + 2]) + textIndex - partStart;
+	}
+
+	/**
+	 * Find keywords in all comments.
+	 * The results are available by getKeywordMatches.
+	 */
+	public void findKeywords(KeywordMatcher matcher) {
+		keywordMatches = new ArrayList<>(comments.size());
+		for (Comment c: comments) {
+			keywordMatches.add(matcher.find(c.text));
+		}
+	}
+
+	/**
+	 * @return keywords found in a comment.
+	 * The positions are relative to the comment text.
+	 * An empty list if findKeywords is not called.
+	 */
+	public List<KeywordMatcher.Match> getKeywordMatches(int index) {
+		if (keywordMatches == null) return Collections.emptyList();
+		return keywordMatches.get(index);
+	}
+
+	/**
+	 * @return true if comments are successfully extracted.
+	 */
+	public boolean isSuccess() {
+		return error == null;
+	}
+
+	/**
+	 * @return an error message if the extraction failed.
+	 * null if the extraction is successful.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	/**
+	 * @return messages reported by a reader during the extraction.
+	 * null if no messages are reported.
+	 */
+	public String getErrorlog() {
+		return errorlog;
+	}
+
+	/**
+	 * @return the number of messages in the error log.
+	 */
+	public int getErrorCount() {
+		return errorCount;
+	}
+
+	/**
+	 * Write the object in a compact binary format.
+	 * Numbers are written as variable-length integers and strings are encoded in UTF-8.
+	 * @param out is the destination.
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		int flags = 0;
+		if (error != null) flags |= FLAG_ERROR;
+		if (errorlog != null) flags |= FLAG_ERRORLOG;
+		out.writeByte(flags);
+		writeVarInt(out, comments.size());
+		for (Comment c: comments) {
+			writeVarInt(out, c.line);
+			writeVarInt(out, c.charPositionInLine);
+			writeString(out, c.text);
+			if (c.parts == null) {
+				writeVarInt(out, 0);
+			} else {
+				writeVarInt(out, c.parts.length);
+				for (int v: c.parts) {
+					writeVarInt(out, v);
+				}
+			}
+		}
+		if (error != null) writeString(out, error);
+		if (errorlog != null) {
+			writeString(out, errorlog);
+			writeVarInt(out, errorCount);
+		}
+	}
+
+	/**
+	 * Read an object written by writeTo.
+	 * @param in is the source.
+	 * @return the object.
+	 */
+	public static FileComments readFrom(DataInput in) throws IOException {
+		FileComments c = new FileComments();
+		int flags = in.readUnsignedByte();
+		int count = readVarInt(in);
+		c.comments.ensureCapacity(count);
+		for (int i=0; i<count; i++) {
+			int line = readVarInt(in);
+			int charPositionInLine = readVarInt(in);
+			String text = readString(in);
+			int[] parts = null;
+			int length = readVarInt(in);
+			if (length > 0) {
+				parts = new int[length];
+				for (int j=0; j<length; j++) {
+					parts[j] = readVarInt(in);
+				}
+			}
+			c.add(text, line, charPositionInLine, parts);
+		}
+		if ((flags & FLAG_ERROR) != 0) c.error = readString(in);
+		if ((flags & FLAG_ERRORLOG) != 0) {
+			c.errorlog = readString(in);
+			c.errorCount = readVarInt(in);
+		}
+		return c;
+	}
+
+	private static void writeString(DataOutput out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, b.length);
+		out.write(b);
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		byte[] b = new byte[readVarInt(in)];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write a non-negative integer using 7 bits per byte.
+	 */
+	private static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed variable-length integer");
+	}
+
+}
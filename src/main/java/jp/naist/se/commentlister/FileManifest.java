@@ -0,0 +1,299 @@
+package jp.naist.se.commentlister;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import jp.naist.se.commentlister.reader.FileType;
+
+
+/**
+ * A manifest records the size, the last modified time and the content hash (a git blob id)
+ * of source files with their extracted comments, so that a later run of FileAnalyzer
+ * extracts comments only from changed files.
+ *
+ * A file is regarded as unchanged if its size and last modified time are the same as the manifest,
+ * or if its content hash is the same.
+ * The modified time is not trusted for a file modified around the start of the previous run,
+ * since the file may have been changed after it was read within the resolution of the time stamp.
+ *
+ * A new manifest is written to a temporary file during a run and replaces the old one by commit,
+ * so that an aborted run keeps the old manifest.
+ * The new manifest includes only files processed in the run.
+ */
+public class FileManifest {
+
+	/**
+	 * A file header.
+	 * The version should be updated when extracted comments or the record format change
+	 * (the same as CommentCache).
+	 */
+	private static final int MAGIC = 0x434C4D02;
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * A modified time within this range of the start of the previous run requires a hash comparison.
+	 * It covers coarse time stamps of file systems such as FAT (2 seconds).
+	 */
+	private static final long RACY_MILLIS = 2000;
+
+	/**
+	 * Metadata and comments of a file
+	 */
+	public static class Entry {
+
+		private String path;
+		private FileType fileType;
+		private long size;
+		private long lastModified;
+		private ObjectId objectId;
+		private byte[] data;
+		private FileComments comments;
+		private boolean reused;
+
+		/**
+		 * Create an entry for comments extracted in this run.
+		 */
+		public Entry(String path, FileType t, long size, long lastModified, ObjectId objectId, FileComments comments) {
+			this.path = path;
+			this.fileType = t;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.objectId = objectId;
+			this.comments = comments;
+		}
+
+		/**
+		 * Create an entry reusing comments of an old entry.
+		 * The serialized comments are shared.
+		 */
+		public Entry(Entry old, long size, long lastModified) {
+			this.path = old.path;
+			this.fileType = old.fileType;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.objectId = old.objectId;
+			this.data = old.data;
+			this.comments = old.comments;
+			this.reused = true;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public FileType getFileType() {
+			return fileType;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public ObjectId getObjectId() {
+			return objectId;
+		}
+
+		/**
+		 * @return true if the comments are taken from the previous run.
+		 */
+		public boolean isReused() {
+			return reused;
+		}
+
+		/**
+		 * @return comments of the file.  Comments loaded from a manifest are decoded by this method.
+		 */
+		public FileComments getComments() throws IOException {
+			if (comments != null) return comments;
+			return FileComments.readFrom(new DataInputStream(new ByteArrayInputStream(data)));
+		}
+
+		/**
+		 * @return serialized comments.
+		 */
+		private byte[] getData() throws IOException {
+			if (data != null) return data;
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(buf);
+			comments.writeTo(out);
+			out.flush();
+			return buf.toByteArray();
+		}
+	}
+
+	private File file;
+	private HashMap<String, Entry> entries;
+	private long previousStartTime;
+	private long startTime;
+
+	private File temp;
+	private DataOutputStream out;
+	private int reused;
+	private int extracted;
+
+	/**
+	 * Load a manifest.
+	 * If the file does not exist or is broken, the manifest is empty.
+	 * @param file is a manifest file.  It is overwritten by commit.
+	 */
+	public FileManifest(File file) {
+		this.file = file;
+		this.entries = new HashMap<>();
+		this.startTime = System.currentTimeMillis();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				System.err.println("Warning: " + file.getAbsolutePath() + " is not a manifest of this version.  All files are analyzed.");
+				return;
+			}
+			previousStartTime = in.readLong();
+			while (in.readBoolean()) {
+				Entry e = readEntry(in);
+				entries.put(e.path, e);
+			}
+		} catch (FileNotFoundException e) {
+			// The first run
+		} catch (IOException|IllegalArgumentException e) {
+			System.err.println("Warning: " + file.getAbsolutePath() + " is broken (" + e + ").  All files are analyzed.");
+			entries.clear();
+		}
+	}
+
+	private static Entry readEntry(DataInputStream in) throws IOException {
+		String path = in.readUTF();
+		FileType t = FileType.valueOf(in.readUTF());
+		long size = in.readLong();
+		long lastModified = in.readLong();
+		byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+		in.readFully(id);
+		Entry e = new Entry(path, t, size, lastModified, ObjectId.fromRaw(id), null);
+		int length = in.readInt();
+		if (length < 0) throw new EOFException();
+		e.data = new byte[length];
+		in.readFully(e.data);
+		return e;
+	}
+
+	/**
+	 * @return an entry of the previous run whose size and last modified time are the same as the arguments.
+	 * null if the file may be changed.
+	 * This method can be called by multiple threads.
+	 */
+	public Entry getUnchanged(String path, FileType t, long size, long lastModified) {
+		Entry e = entries.get(path);
+		if (e != null && e.fileType == t && e.size == size && e.lastModified == lastModified &&
+			lastModified + RACY_MILLIS < previousStartTime) {
+			return e;
+		}
+		return null;
+	}
+
+	/**
+	 * @return an entry of the previous run having the same content.  null if the content is changed.
+	 * This method can be called by multiple threads.
+	 */
+	public Entry getSameContent(String path, FileType t, ObjectId objectId) {
+		Entry e = entries.get(path);
+		if (e != null && e.fileType == t && e.objectId.equals(objectId)) {
+			return e;
+		}
+		return null;
+	}
+
+	/**
+	 * Start writing a new manifest.
+	 */
+	public void open() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		temp = File.createTempFile(file.getName(), TEMP_SUFFIX, parent);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		out.writeInt(MAGIC);
+		out.writeLong(startTime);
+	}
+
+	/**
+	 * Add an entry to the new manifest.
+	 */
+	public void add(Entry e) throws IOException {
+		if (e.reused) {
+			reused++;
+		} else {
+			extracted++;
+		}
+		out.writeBoolean(true);
+		out.writeUTF(e.path);
+		out.writeUTF(e.fileType.name());
+		out.writeLong(e.size);
+		out.writeLong(e.lastModified);
+		byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+		e.objectId.copyRawTo(id, 0);
+		out.write(id);
+		byte[] data = e.getData();
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	/**
+	 * Replace the old manifest with the new one.
+	 */
+	public void commit() throws IOException {
+		out.writeBoolean(false);
+		out.close();
+		out = null;
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		temp = null;
+	}
+
+	/**
+	 * Discard the new manifest if it is not committed.
+	 */
+	public void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// Ignore, since the file is removed
+			}
+			out = null;
+		}
+		if (temp != null) {
+			temp.delete();
+			temp = null;
+		}
+	}
+
+	/**
+	 * @return the number of files whose comments are taken from the previous run.
+	 */
+	public int getReusedCount() {
+		return reused;
+	}
+
+	/**
+	 * @return the number of files whose comments are extracted in this run.
+	 */
+	public int getExtractedCount() {
+		return extracted;
+	}
+
+}
@@ -1,39 +1,54 @@
 package jp.naist.se.commentlister;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStream;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.errors.AmbiguousObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RevisionSyntaxException;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.Pack;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectDatabase;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.revwalk.filter.MaxCountRevFilter;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
-import org.eclipse.jgit.treewalk.filter.PathFilter;
-import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
-import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 
+import jp.naist.se.commentlister.binary.BinaryWriter;
 import jp.naist.se.commentlister.reader.CommentReader;
+import jp.naist.se.commentlister.reader.EmptyCommentReader;
+import jp.naist.se.commentlister.reader.ErrorCollector;
 import jp.naist.se.commentlister.reader.FileType;
+import jp.naist.se.commentlister.reader.LexerPool;
 
 
 /**
@@ -43,6 +58,25 @@ public class GitAnalyzer implements AutoCloseable {
 
 	private static final String ARG_TARGET = "-target=";
 	private static final String ARG_TYPE = "-type=";
+	private static final String ARG_THREADS = "-threads=";
+	public static final String ALL_TAGS = "--all-tags";
+	public static final String ALL_BRANCHES = "--all-branches";
+	private static final String ARG_PACK_ORDER = "-packorder";
+	private static final String ARG_STREAM_LIMIT = "-streamlimit=";
+	private static final String ARG_CACHE = "-cache=";
+	private static final String ARG_CACHE_SIZE = "-cachesize=";
+	private static final String ARG_SCANNER = "-scanner";
+	private static final String ARG_NO_LEXER_POOL = "-nolexerpool";
+	
+	/**
+	 * The default size limit of a cache directory in megabytes
+	 */
+	private static final long DEFAULT_CACHE_SIZE = 1024;
+	
+	/**
+	 * The number of files processed by worker threads in advance of the output 
+	 */
+	private static final int PENDING_FILES_PER_THREAD = 64;
 	
 	/**
 	 * Extract all comments from Git directories.
@@ -52,15 +86,10 @@ public class GitAnalyzer implements AutoCloseable {
 		
 		// Default configuration
 		File dir = null;
-		String target = "HEAD";
-		HashSet<FileType> types = FileType.getAllTypes();
+		Options options = new Options();
 		
 		for (String arg: args) {
-			if (arg.startsWith(ARG_TARGET)) {
-				target = arg.substring(ARG_TARGET.length());
-			} else if (arg.startsWith(ARG_TYPE)) {
-				types = FileType.getFileTypes(arg.substring(ARG_TYPE.length()).split(","));
-			} else {
+			if (!options.parse(arg)) {
 				try {
 					dir = new File(arg).getCanonicalFile();
 				} catch (IOException e) {
@@ -69,34 +98,250 @@ public class GitAnalyzer implements AutoCloseable {
 			}
 		}
 		
-		if (args.length == 0) {
-			System.err.println("Usage: path/to/.git [-type=A,B,...] [-target=tag/commitId]");
+		if (args.length == 0 || !options.isValid()) {
+			System.err.println("Usage: path/to/.git " + Options.USAGE);
 			return;
 		}
-		try (GitAnalyzer analyzer = new GitAnalyzer()) {
+		try (CommentCache cache = options.createCache(); GitAnalyzer analyzer = new GitAnalyzer(options.threads, options.format)) {
+			analyzer.setPackOrder(options.packOrder);
+			analyzer.setCache(cache);
+			analyzer.setKeywordMatcher(options.createKeywordMatcher());
 			File gitDir = ensureGitDir(dir);
 			if (gitDir != null) {
-				analyzer.parseGitRepository(gitDir, target, types);
+				analyzer.parseGitRepository(gitDir, options.getTargets(), options.types);
 			}
+			printStatistics(analyzer.cache, analyzer.getSkippedFileCount());
 		} catch (IOException e) {
 			 e.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Print statistics of the cache and the lexers to System.err.
+	 * @param cache may be null.
+	 * @param skippedFiles is the number of files skipped by CommentPrefilter.
+	 */
+	static void printStatistics(CommentCache cache, long skippedFiles) {
+		if (cache != null) {
+			System.err.println("Info: cache hits=" + cache.getHitCount() + ", misses=" + cache.getMissCount());
+		}
+		System.err.println("Info: " + skippedFiles + " files without comment markers were not lexed");
+		System.err.println("Info: lexers created=" + LexerPool.getCreatedCount() + ", reused=" + LexerPool.getReusedCount());
+	}
+	
+	/**
+	 * Command line options of the analysis.
+	 * Options of the lexers (e.g. -scanner) are applied to FileType and LexerPool when they are parsed.
+	 */
+	static class Options {
+		
+		static final String USAGE = "[-type=A,B,...] [-target=tag/commitId ...] [--all-tags] [--all-branches] [-threads=N] [-packorder] [-streamlimit=M] [-cache=dir] [-cachesize=MB] [-scanner] [-nolexerpool] [-format=json|ndjson|binary] [-keywords=file [-ignorecase]]";
+		
+		ArrayList<String> targets = new ArrayList<>();
+		HashSet<FileType> types = FileType.getAllTypes();
+		int threads = 1;
+		boolean packOrder = false;
+		File cacheDir = null;
+		long cacheSize = DEFAULT_CACHE_SIZE;
+		OutputFormat format = OutputFormat.JSON;
+		File keywordFile = null;
+		boolean ignoreCase = false;
+		
+		/**
+		 * @return false if arg is not an option.
+		 */
+		boolean parse(String arg) {
+			if (arg.startsWith(ARG_TARGET)) {
+				targets.add(arg.substring(ARG_TARGET.length()));
+			} else if (arg.equals(ALL_TAGS) || arg.equals(ALL_BRANCHES)) {
+				targets.add(arg);
+			} else if (arg.startsWith(ARG_TYPE)) {
+				types = FileType.getFileTypes(arg.substring(ARG_TYPE.length()).split(","));
+			} else if (arg.startsWith(ARG_THREADS)) {
+				threads = Integer.parseInt(arg.substring(ARG_THREADS.length()));
+			} else if (arg.equals(ARG_PACK_ORDER)) {
+				packOrder = true;
+			} else if (arg.startsWith(ARG_STREAM_LIMIT)) {
+				FileType.setStreamLimit(Integer.parseInt(arg.substring(ARG_STREAM_LIMIT.length())) * 1024 * 1024);
+			} else if (arg.startsWith(ARG_CACHE)) {
+				cacheDir = new File(arg.substring(ARG_CACHE.length()));
+			} else if (arg.startsWith(ARG_CACHE_SIZE)) {
+				cacheSize = Long.parseLong(arg.substring(ARG_CACHE_SIZE.length()));
+			} else if (arg.equals(ARG_SCANNER)) {
+				FileType.setScannerEnabled(true);
+			} else if (arg.equals(ARG_NO_LEXER_POOL)) {
+				LexerPool.setEnabled(false);
+			} else if (arg.startsWith(OutputFormat.ARG_FORMAT)) {
+				format = OutputFormat.getFormat(arg.substring(OutputFormat.ARG_FORMAT.length()));
+			} else if (arg.startsWith(KeywordMatcher.ARG_KEYWORDS)) {
+				keywordFile = new File(arg.substring(KeywordMatcher.ARG_KEYWORDS.length()));
+			} else if (arg.equals(KeywordMatcher.ARG_IGNORE_CASE)) {
+				ignoreCase = true;
+			} else {
+				return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * @return the specified revisions.  HEAD if no revisions are specified.
+		 */
+		List<String> getTargets() {
+			if (targets.isEmpty()) {
+				return Collections.singletonList("HEAD");
+			}
+			return targets;
+		}
+		
+		/**
+		 * @return a cache.  null if a cache directory is not specified.
+		 */
+		CommentCache createCache() throws IOException {
+			if (cacheDir == null) return null;
+			return new CommentCache(cacheDir, cacheSize * 1024 * 1024);
+		}
+		
+		/**
+		 * @return false if the options cannot be used together.
+		 */
+		boolean isValid() {
+			if (format == null) return false;
+			if (keywordFile != null && format == OutputFormat.BINARY) {
+				System.err.println("Error: -keywords is not available for the binary format.");
+				return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * @return a matcher of the keyword file.  null if a keyword file is not specified.
+		 */
+		KeywordMatcher createKeywordMatcher() throws IOException {
+			if (keywordFile == null) return null;
+			return KeywordMatcher.load(keywordFile, ignoreCase);
+		}
+	}
 
 	private JsonGenerator gen;
+	private OutputFormat format;
+	private BinaryWriter binary;
+	
+	/**
+	 * The revision written to the output
+	 */
+	private String currentRevision;
 	private HashMap<FileType, Counter> counters;
+	private HashMap<FileType, Counter> errorCounters;
+	private ExecutorService executor;
+	private boolean sharedExecutor;
+	private OutputStream out;
+	private int maxPendingFiles;
+	private CommentCache cache;
+	private boolean packOrder;
+	private KeywordMatcher keywords;
+	private AtomicLong skippedFiles = new AtomicLong();
 
 	public GitAnalyzer() throws IOException {
+		this(1);
+	}
+	
+	/**
+	 * @param threads specifies the number of worker threads to extract comments.
+	 * If it is 1 or less, files are processed in the main thread.
+	 */
+	public GitAnalyzer(int threads) throws IOException {
+		this(threads, OutputFormat.JSON);
+	}
+	
+	/**
+	 * @param threads specifies the number of worker threads to extract comments.
+	 * @param format specifies the output format.
+	 * NDJSON writes a record for each file and a summary record for each revision.
+	 * BINARY writes the results of all revisions when the analyzer is closed.
+	 */
+	public GitAnalyzer(int threads, OutputFormat format) throws IOException {
+		this(threads > 1 ? Executors.newFixedThreadPool(threads) : null, threads, format, System.out);
+		this.sharedExecutor = false;
+	}
+	
+	/**
+	 * Create an analyzer sharing worker threads with other analyzers.
+	 * @param executor runs extraction.  It is not shut down by close.
+	 * If it is null, files are processed in the current thread.
+	 * @param threads is the number of threads of the executor.
+	 * @param format specifies the output format.
+	 * @param out is the destination of the output.  
+	 */
+	public GitAnalyzer(ExecutorService executor, int threads, OutputFormat format, OutputStream out) throws IOException {
 		counters = new HashMap<>();
-		gen = new JsonFactory().createGenerator(System.out);
-		gen.useDefaultPrettyPrinter();
+		errorCounters = new HashMap<>();
+		this.format = format;
+		this.out = out;
+		if (format == OutputFormat.BINARY) {
+			binary = new BinaryWriter();
+		} else {
+			gen = format.createGenerator(out);
+		}
+		this.executor = executor;
+		this.sharedExecutor = true;
+		if (executor != null) {
+			maxPendingFiles = threads * PENDING_FILES_PER_THREAD;
+		} else {
+			maxPendingFiles = 1;
+		}
+	}
+	
+	/**
+	 * @param cache stores comments extracted from blobs.
+	 * Blobs in the cache are not read from the repository.
+	 */
+	public void setCache(CommentCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * @return the number of files that were not lexed since they have no comment-start sequences.
+	 */
+	public long getSkippedFileCount() {
+		return skippedFiles.get();
+	}
+	
+	/**
+	 * @param packOrder If true, blobs of a revision are read in the order of pack files.
+	 * The results of all files in a revision are kept in memory until they are written in the order of the tree.  
+	 */
+	public void setPackOrder(boolean packOrder) {
+		this.packOrder = packOrder;
+	}
+	
+	/**
+	 * @param keywords finds keywords in comments.
+	 * The keywords and their positions are written with each comment.  
+	 * If null, keywords are not searched.
+	 */
+	public void setKeywordMatcher(KeywordMatcher keywords) {
+		this.keywords = keywords;
 	}
 	
+	/**
+	 * Finish the output.
+	 * The JSON formats close the output stream; the binary format flushes it.
+	 * @throws IOException if the output is not written.
+	 */
 	@Override
-	public void close() {
-		try {
+	public void close() throws IOException {
+		if (executor != null && !sharedExecutor) {
+			executor.shutdownNow();
+		}
+		if (binary != null) {
+			try {
+				binary.writeTo(out);
+				out.flush();
+			} finally {
+				binary.close();
+			}
+		} else {
 			gen.close();
-		} catch (IOException e) {
 		}
 	}
 	
@@ -147,71 +392,230 @@ public class GitAnalyzer implements AutoCloseable {
 	 * @param target is a revision.
 	 */
 	public void parseGitRepository(File gitDir, String target, HashSet<FileType> types) {
+		parseGitRepository(gitDir, Collections.singletonList(target), types);
+	}
+
+	/**
+	 * Extract comments from multiple revisions.
+	 * A result object is written for each revision.
+	 * A blob included in multiple paths or revisions is analyzed only once.
+	 * @param gitDir is a .git directory.
+	 * @param targets is a list of revisions.
+	 * ALL_TAGS and ALL_BRANCHES are replaced with all tags and branches in the repository.
+	 * @return false if the repository is not readable, a target is not resolved,
+	 * or a revision is not completely analyzed.  The other revisions are written even if false is returned.
+	 */
+	public boolean parseGitRepository(File gitDir, List<String> targets, HashSet<FileType> types) {
 		File dir = ensureGitDir(gitDir);
-		if (dir == null) return;
+		if (dir == null) return false;
 
-		long startTime = System.currentTimeMillis();
 		FileRepositoryBuilder b = new FileRepositoryBuilder();
 		b.setGitDir(gitDir);
 		try (Repository repo = b.build()) {
 			try (RevWalk rev = new RevWalk(repo)) {
-				AnyObjectId objId = repo.resolve(target);
-				if (objId != null) {
-					RevCommit commit = rev.parseCommit(objId);
-					gen.writeStartObject();
-					gen.writeStringField("Repository", makeRepoName(gitDir));
-					gen.writeStringField("Revision", target);
-					gen.writeStringField("ObjectId", commit.getId().name());
-					gen.writeStringField("CommitTime", epochToISO(commit.getCommitTime()));
-					gen.writeObjectFieldStart("Files");
-					RevTree tree = commit.getTree();
-					
-					try (RevWalk revForLastModified = new RevWalk(repo)) { // Reuse a single walk object for performance
-						try (TreeWalk walk = new TreeWalk(repo)) {
-							walk.addTree(tree);
-							walk.setRecursive(true);
-							while (walk.next()) {
-								String path = new String(walk.getRawPath());
-								FileType t = FileType.getFileType(path);
-								if (types.contains(t)) {
-									int lastModified =  lastModified(revForLastModified, repo, objId, path);
-									processFile(repo, path, t, walk.getObjectId(0), lastModified);
-								}
-							}
-						} catch (IOException e) {
-							e.printStackTrace();
-						} finally {
-							gen.writeEndObject();
+				boolean success = true;
+				ArrayList<String> names = new ArrayList<>();
+				ArrayList<RevCommit> commits = new ArrayList<>();
+				for (String target: expandTargets(repo, targets)) {
+					RevCommit commit = resolveCommit(repo, rev, target);
+					if (commit != null) {
+						names.add(target);
+						commits.add(commit);
+					} else {
+						success = false;
+					}
+				}
+				
+				SharedBlobs blobs = new SharedBlobs();
+				if (commits.size() > 1) {
+					for (int i=0; i<commits.size(); i++) {
+						for (TargetFile f: listFiles(repo, commits.get(i).getTree(), types)) {
+							blobs.addUse(f.key, i);
 						}
 					}
-					gen.writeObjectFieldStart("FileTypes");
-					
-					ArrayList<FileType> keys = getSortedFileTypes();
-					for (FileType key: keys) {
-						gen.writeNumberField(key.name(), counters.get(key).getCount());
+				}
+				
+				LastModifiedFinder finder = new LastModifiedFinder(repo);
+				try (ReaderPool readers = new ReaderPool(repo)) {
+					for (int i=0; i<commits.size(); i++) {
+						if (!parseRevision(repo, readers, gitDir, names.get(i), commits.get(i), types, finder, blobs, i)) {
+							success = false;
+						}
 					}
-					gen.writeEndObject();
-					gen.writeNumberField("ElapsedTime", System.currentTimeMillis() - startTime);
-					gen.writeEndObject();
-				} else {
-					System.err.println("Error: " + target + " is not a commit ID.");
 				}
-			} catch (IncorrectObjectTypeException e) {
-				System.err.println("Error: " + target + " is not a revision.");
-			} catch (AmbiguousObjectException e) {
-				System.err.println("Error: " + target + " is not unique in the repository.");
-			} catch (RevisionSyntaxException e) {
-				System.err.println("Error: " + target + " is not a valid revision.");
+				return success;
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * @return a list of revisions in which ALL_TAGS and ALL_BRANCHES are replaced with ref names.
+	 */
+	private static ArrayList<String> expandTargets(Repository repo, List<String> targets) throws IOException {
+		ArrayList<String> result = new ArrayList<>();
+		for (String target: targets) {
+			if (target.equals(ALL_TAGS) || target.equals(ALL_BRANCHES)) {
+				String prefix = target.equals(ALL_TAGS) ? Constants.R_TAGS : Constants.R_HEADS;
+				ArrayList<String> refs = new ArrayList<>();
+				for (Ref ref: repo.getRefDatabase().getRefsByPrefix(prefix)) {
+					refs.add(ref.getName());
+				}
+				Collections.sort(refs);
+				result.addAll(refs);
+			} else {
+				result.add(target);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * @return a commit specified by a revision string.  
+	 * null if the revision is not a commit.
+	 */
+	static RevCommit resolveCommit(Repository repo, RevWalk rev, String target) throws IOException {
+		try {
+			AnyObjectId objId = repo.resolve(target);
+			if (objId != null) {
+				return rev.parseCommit(objId);
+			} else {
+				System.err.println("Error: " + target + " is not a commit ID.");
+			}
+		} catch (IncorrectObjectTypeException e) {
+			System.err.println("Error: " + target + " is not a revision.");
+		} catch (AmbiguousObjectException e) {
+			System.err.println("Error: " + target + " is not unique in the repository.");
+		} catch (RevisionSyntaxException e) {
+			System.err.println("Error: " + target + " is not a valid revision.");
 		}
+		return null;
+	}
+	
+	/**
+	 * Write a result object for a revision.
+	 * If files cannot be read, the object is closed without the remaining files.
+	 * @param revision is the index of the revision in SharedBlobs.
+	 * @return false if the files of the revision are not completely written.
+	 */
+	private boolean parseRevision(Repository repo, ReaderPool readers, File gitDir, String target, RevCommit commit, HashSet<FileType> types, LastModifiedFinder finder, SharedBlobs blobs, int revision) throws IOException {
+		long startTime = System.currentTimeMillis();
+		counters = new HashMap<>();
+		errorCounters = new HashMap<>();
+		currentRevision = target;
+		if (format == OutputFormat.JSON) {
+			gen.writeStartObject();
+			writeRevision(gitDir, target, commit);
+			gen.writeObjectFieldStart("Files");
+		} else if (format == OutputFormat.BINARY) {
+			binary.startRevision(makeRepoName(gitDir), target, commit.getId().name(), epochToISO(commit.getCommitTime()));
+		}
+		RevTree tree = commit.getTree();
+		boolean complete = true;
+		
+		try {
+			ArrayList<TargetFile> files = listFiles(repo, tree, types);
+			ArrayList<String> paths = new ArrayList<>(files.size());
+			for (TargetFile f: files) {
+				paths.add(f.path);
+			}
+			HashMap<String, Integer> lastModified = finder.find(commit, paths);
+			
+			for (TargetFile f: files) {
+				f.lastModified = lastModified.get(f.path);
+			}
+			
+			if (packOrder) {
+				// Blobs are read in the order of pack files, and then the results are written in the order of the tree
+				ArrayList<TargetFile> schedule = new ArrayList<>(files);
+				sortByPackPosition(repo, schedule);
+				for (TargetFile f: schedule) {
+					startExtraction(readers, f, blobs, revision);
+				}
+				for (TargetFile f: files) {
+					writePendingFile(f);
+				}
+			} else {
+				// Files being processed by worker threads, in the order of the tree
+				ArrayDeque<TargetFile> pending = new ArrayDeque<>();
+				for (TargetFile f: files) {
+					startExtraction(readers, f, blobs, revision);
+					pending.add(f);
+					if (pending.size() >= maxPendingFiles) {
+						writePendingFile(pending.poll());
+					}
+				}
+				while (!pending.isEmpty()) {
+					writePendingFile(pending.poll());
+				}
+			}
+			for (TargetFile f: files) {
+				blobs.release(f.key, revision);
+			}
+		} catch (IOException e) {
+			System.err.println("Error: " + target + " is not completely analyzed.");
+			e.printStackTrace();
+			complete = false;
+		} finally {
+			if (format == OutputFormat.JSON) {
+				gen.writeEndObject();
+			}
+		}
+		if (format == OutputFormat.BINARY) {
+			binary.endRevision(getCounts(counters), getCounts(errorCounters), System.currentTimeMillis() - startTime);
+			return complete;
+		} else if (format == OutputFormat.NDJSON) {
+			gen.writeStartObject();
+			gen.writeStringField("Record", "Summary");
+			writeRevision(gitDir, target, commit);
+		}
+		gen.writeObjectFieldStart("FileTypes");
+		
+		ArrayList<FileType> keys = getSortedFileTypes(counters);
+		for (FileType key: keys) {
+			gen.writeNumberField(key.name(), counters.get(key).getCount());
+		}
+		gen.writeEndObject();
+		gen.writeObjectFieldStart("ErrorCounts");
+		for (FileType key: getSortedFileTypes(errorCounters)) {
+			gen.writeNumberField(key.name(), errorCounters.get(key).getCount());
+		}
+		gen.writeEndObject();
+		gen.writeNumberField("ElapsedTime", System.currentTimeMillis() - startTime);
+		gen.writeEndObject();
+		if (format == OutputFormat.NDJSON) {
+			OutputFormat.endRecord(gen);
+		}
+		return complete;
+	}
+	
+	/**
+	 * Write attributes of a revision.
+	 */
+	private void writeRevision(File gitDir, String target, RevCommit commit) throws IOException {
+		gen.writeStringField("Repository", makeRepoName(gitDir));
+		gen.writeStringField("Revision", target);
+		gen.writeStringField("ObjectId", commit.getId().name());
+		gen.writeStringField("CommitTime", epochToISO(commit.getCommitTime()));
 	}
 	
+	/**
+	 * @return numbers in counters keyed by the names of file types in the order of file types.
+	 */
+	private static LinkedHashMap<String, Integer> getCounts(HashMap<FileType, Counter> counters) {
+		LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+		for (FileType key: getSortedFileTypes(counters)) {
+			counts.put(key.name(), counters.get(key).getCount());
+		}
+		return counts;
+	}
+
 	/**
 	 * @return a sorted list of file types of counters
 	 */
-	private ArrayList<FileType> getSortedFileTypes() {
+	private static ArrayList<FileType> getSortedFileTypes(HashMap<FileType, Counter> counters) {
 		ArrayList<FileType> keys = new ArrayList<>(counters.keySet());
 		keys.sort(new Comparator<FileType>() {
 			@Override
@@ -223,24 +627,23 @@ public class GitAnalyzer implements AutoCloseable {
 	}
 
 	/**
-	 * Compute the last modified time of a given file path in a repository.
-	 * The implementation extracts the latest commit that modifies the specified file.  
-	 * @return the seconds from epoch time.  0 if the time is unavailable.
+	 * List files to be analyzed in a tree.
+	 * @return a list of files in the order of the tree.
 	 */
-	private int lastModified(RevWalk rev, Repository repo, AnyObjectId target, String path) {
-		try {
-			rev.reset();
-			rev.markStart(repo.parseCommit(target));
-			rev.setTreeFilter(AndTreeFilter.create(TreeFilter.ANY_DIFF, 
-					                               PathFilter.create(path)));
-			rev.setRevFilter(MaxCountRevFilter.create(1));
-			for (RevCommit c: rev) {
-				return c.getCommitTime();
-			}
-			return 0;
-		} catch (IOException e) {
-			return 0;
+	private ArrayList<TargetFile> listFiles(Repository repo, RevTree tree, HashSet<FileType> types) throws IOException {
+		ArrayList<TargetFile> files = new ArrayList<>();
+		try (TreeWalk walk = new TreeWalk(repo)) {
+			walk.addTree(tree);
+			walk.setRecursive(true);
+			while (walk.next()) {
+				String path = new String(walk.getRawPath());
+				FileType t = FileType.getFileType(path);
+				if (types.contains(t)) {
+					files.add(new TargetFile(path, t, walk.getObjectId(0)));
+				}
+			}
 		}
+		return files;
 	}
 	
 	/**
@@ -252,58 +655,376 @@ public class GitAnalyzer implements AutoCloseable {
 		return Instant.ofEpochSecond(epoch).toString();		
 	}
 	
+	/**
+	 * Extract comments from a file, or reuse the result of the same blob in another path or revision.
+	 * The extraction is executed by a worker thread if available.
+	 */
+	private void startExtraction(ReaderPool readers, TargetFile f, SharedBlobs blobs, int revision) throws IOException {
+		f.result = blobs.get(f.key);
+		if (f.result == null) {
+			if (executor == null) {
+				f.result = CompletableFuture.completedFuture(extractComments(readers, f.type, f.obj));
+			} else {
+				f.result = executor.submit(() -> extractComments(readers, f.type, f.obj));
+			}
+			blobs.put(f.key, f.result);
+		}
+	}
+	
+	/**
+	 * Sort files by the positions of their blobs in pack files.
+	 * Blobs in a pack file are read sequentially, 
+	 * and a delta base is likely to be cached when the deltas are read.
+	 * Blobs not in pack files (e.g. loose objects) are moved to the end.
+	 */
+	private static void sortByPackPosition(Repository repo, ArrayList<TargetFile> files) {
+		ObjectDatabase db = repo.getObjectDatabase();
+		if (!(db instanceof ObjectDirectory)) return;
+		
+		ArrayList<PackIndex> indexes = new ArrayList<>();
+		for (Pack pack: ((ObjectDirectory)db).getPacks()) {
+			try {
+				indexes.add(pack.getIndex());
+			} catch (IOException e) {
+				// The pack is ignored
+			}
+		}
+		for (TargetFile f: files) {
+			f.pack = indexes.size();
+			for (int i=0; i<indexes.size(); i++) {
+				long offset = indexes.get(i).findOffset(f.obj);
+				if (offset >= 0) {
+					f.pack = i;
+					f.offset = offset;
+					break;
+				}
+			}
+		}
+		files.sort(new Comparator<TargetFile>() {
+			@Override
+			public int compare(TargetFile o1, TargetFile o2) {
+				if (o1.pack != o2.pack) {
+					return Integer.compare(o1.pack, o2.pack);
+				}
+				return Long.compare(o1.offset, o2.offset);
+			}
+		});
+	}
+	
+	/**
+	 * Extract comments from a file and write them to the output.
+	 */
 	public void processFile(Repository repo, String path, FileType t, ObjectId obj, int lastModified) throws IOException {
-		PrintStream err = System.err;
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		PrintStream s = new PrintStream(buffer);
-		System.setErr(s);
+		try (ObjectReader reader = repo.newObjectReader()) {
+			writeFile(path, t, obj, lastModified, extractComments(reader, t, obj));
+		}
+	}
+	
+	/**
+	 * Wait for a worker thread and write the result to the output. 
+	 */
+	private void writePendingFile(TargetFile f) throws IOException {
+		FileComments comments;
+		try {
+			comments = f.result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			} else {
+				throw new IOException(e.getCause());
+			}
+		}
+		writeFile(f.path, f.type, f.obj, f.lastModified, comments);
+	}
+	
+	/**
+	 * Extract comments from a file content using a reader checked out from a pool.
+	 */
+	private FileComments extractComments(ReaderPool readers, FileType t, ObjectId obj) throws IOException {
+		ObjectReader reader = readers.get();
+		try {
+			return extractComments(reader, t, obj);
+		} finally {
+			readers.release(reader);
+		}
+	}
+	
+	/**
+	 * Extract comments from a file content.
+	 * This method is called by worker threads.
+	 * Messages reported by a reader during the extraction are recorded as an error log.  
+	 * @return extracted comments.
+	 */
+	private FileComments extractComments(ObjectReader repo, FileType t, ObjectId obj) throws IOException {
+		FileComments result = cache != null ? cache.get(obj, t) : null;
+		if (result == null) {
+			result = readComments(repo, t, obj);
+			// Errors depending on the repository and the configuration are not cached
+			if (cache != null && !"MissingObjectException".equals(result.getError()) && !"StreamLimitExceeded".equals(result.getError())) {
+				cache.put(obj, t, result);
+			}
+		}
+		if (keywords != null) {
+			result.findKeywords(keywords);
+		}
+		return result;
+	}
+	
+	/**
+	 * Read a blob and extract comments. 
+	 */
+	private FileComments readComments(ObjectReader repo, FileType t, ObjectId obj) throws IOException {
 		try {
-			gen.writeObjectFieldStart(path);
-			gen.writeStringField("ObjectId", obj.name());
-			gen.writeStringField("LastModified", epochToISO(lastModified));
-			gen.writeStringField("FileType", t.name());
-
 			// This may throw MissingObjectException
-			ObjectLoader reader = repo.newObjectReader().open(obj); 
+			ObjectLoader reader = repo.open(obj); 
+			ErrorCollector errors = new ErrorCollector();
 			CommentReader comments = null;
 			if (reader.isLarge()) {
-				comments = FileType.createCommentReader(t, reader.openStream());
+				comments = FileType.createCommentReader(t, reader.openStream(), errors);
 			} else {
 				byte[] content = reader.getCachedBytes();
-				comments = FileType.createCommentReader(t, content);
-			}
-			
-			if (comments != null) {
-				counters.computeIfAbsent(t, type -> new Counter()).increment();
-				int commentCount = 0;
-				while (comments.next()) {
-					gen.writeObjectFieldStart(Integer.toString(commentCount++));
-					gen.writeObjectField("Text", comments.getText());
-					gen.writeObjectField("Line", comments.getLine());
-					gen.writeObjectField("CharPositionInLine", comments.getCharPositionInLine());
-					gen.writeEndObject();
+				comments = FileType.createCommentReader(t, content, errors);
+				if (comments instanceof EmptyCommentReader) {
+					skippedFiles.incrementAndGet();
 				}
-				gen.writeNumberField("CommentCount", commentCount);
-			} else {
-				gen.writeStringField("Error", "CommentReadFail");
-				gen.writeNumberField("CommentCount", 0);
 			}
+			return FileComments.read(comments, errors);
 		} catch (MissingObjectException e) {
-			gen.writeStringField("Error", "MissingObjectException");
-			gen.writeNumberField("CommentCount", 0);
-		} finally {
-			s.close();
-			if (buffer.size() > 0) {
-				gen.writeStringField("Errorlog", buffer.toString());
+			return FileComments.failure("MissingObjectException");
+		}
+	}
+
+	/**
+	 * Write comments of a file to the output.
+	 */
+	private void writeFile(String path, FileType t, ObjectId obj, int lastModified, FileComments comments) throws IOException {
+		if (comments.isSuccess()) {
+			counters.computeIfAbsent(t, type -> new Counter()).increment();
+		}
+		if (comments.getErrorlog() != null) {
+			errorCounters.computeIfAbsent(t, type -> new Counter()).add(comments.getErrorCount());
+		}
+		if (format == OutputFormat.BINARY) {
+			binary.addFile(path, obj.name(), epochToISO(lastModified), t.name(), comments);
+			return;
+		}
+		boolean ndjson = format == OutputFormat.NDJSON;
+		if (ndjson) {
+			gen.writeStartObject();
+			gen.writeStringField("Record", "File");
+			if (currentRevision != null) {
+				gen.writeStringField("Revision", currentRevision);
+			}
+			gen.writeStringField("Path", path);
+		} else {
+			gen.writeObjectFieldStart(path);
+		}
+		gen.writeStringField("ObjectId", obj.name());
+		gen.writeStringField("LastModified", epochToISO(lastModified));
+		gen.writeStringField("FileType", t.name());
+		if (comments.isSuccess()) {
+			if (ndjson) {
+				gen.writeArrayFieldStart("Comments");
+			}
+			for (int i=0; i<comments.size(); i++) {
+				if (ndjson) {
+					gen.writeStartObject();
+				} else {
+					gen.writeObjectFieldStart(Integer.toString(i));
+				}
+				gen.writeObjectField("Text", comments.getText(i));
+				gen.writeObjectField("Line", comments.getLine(i));
+				gen.writeObjectField("CharPositionInLine", comments.getCharPositionInLine(i));
+				if (keywords != null) {
+					writeKeywords(comments, i);
+				}
+				gen.writeEndObject();
+			}
+			if (ndjson) {
+				gen.writeEndArray();
 			}
+			gen.writeNumberField("CommentCount", comments.size());
+		} else {
+			gen.writeStringField("Error", comments.getError());
+			gen.writeNumberField("CommentCount", 0);
+		}
+		if (comments.getErrorlog() != null) {
+			gen.writeStringField("Errorlog", comments.getErrorlog());
+		}
+		gen.writeEndObject();
+		if (ndjson) {
+			OutputFormat.endRecord(gen);
+		}
+	}
+	
+	/**
+	 * Write keywords found in a comment.
+	 * The positions are translated to the positions in the file.
+	 */
+	private void writeKeywords(FileComments comments, int index) throws IOException {
+		List<KeywordMatcher.Match> matches = comments.getKeywordMatches(index);
+		if (matches.isEmpty()) return;
+		gen.writeArrayFieldStart("Keywords");
+		for (KeywordMatcher.Match m: matches) {
+			gen.writeStartObject();
+			gen.writeStringField("Keyword", keywords.getKeyword(m.getKeyword()));
+			gen.writeNumberField("Line", comments.getLine(index, m.getStart()));
+			gen.writeNumberField("CharPositionInLine", comments.getCharPositionInLine(index, m.getStart()));
 			gen.writeEndObject();
-			System.setErr(err);
+		}
+		gen.writeEndArray();
+	}
+	
+	/**
+	 * A file to be analyzed
+	 */
+	private static class TargetFile {
+		
+		private String path;
+		private FileType type;
+		private ObjectId obj;
+		private BlobKey key;
+		private int lastModified;
+		
+		/**
+		 * The position of the blob for pack-order scheduling 
+		 */
+		private int pack;
+		private long offset;
+		
+		/**
+		 * A result of a worker thread 
+		 */
+		private Future<FileComments> result;
+		
+		public TargetFile(String path, FileType type, ObjectId obj) {
+			this.path = path;
+			this.type = type;
+			this.obj = obj;
+			this.key = new BlobKey(obj, type);
+		}
+	}
+	
+	/**
+	 * ObjectReaders for a run.
+	 * An ObjectReader is not thread-safe, but it can be reused to read many objects.
+	 * A thread checks out a reader for a file and returns it after the file, 
+	 * so that no reader remains in worker threads after the run.
+	 */
+	private static class ReaderPool implements AutoCloseable {
+		
+		private Repository repo;
+		private ArrayDeque<ObjectReader> idle = new ArrayDeque<>();
+		private ArrayList<ObjectReader> readers = new ArrayList<>();
+		
+		public ReaderPool(Repository repo) {
+			this.repo = repo;
+		}
+		
+		/**
+		 * @return an ObjectReader not used by other threads.  
+		 * It must be returned by release.
+		 */
+		public synchronized ObjectReader get() {
+			ObjectReader r = idle.poll();
+			if (r == null) {
+				r = repo.newObjectReader();
+				readers.add(r);
+			}
+			return r;
+		}
+		
+		public synchronized void release(ObjectReader r) {
+			idle.push(r);
+		}
+		
+		@Override
+		public synchronized void close() {
+			for (ObjectReader r: readers) {
+				r.close();
+			}
+			readers.clear();
+			idle.clear();
+		}
+	}
+	
+	/**
+	 * A blob analyzed as a file type
+	 */
+	private static class BlobKey {
+		
+		private ObjectId obj;
+		private FileType type;
+		
+		public BlobKey(ObjectId obj, FileType type) {
+			this.obj = obj;
+			this.type = type;
+		}
+		
+		@Override
+		public int hashCode() {
+			return obj.hashCode() * 31 + type.ordinal();
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof BlobKey) {
+				BlobKey another = (BlobKey)o;
+				return obj.equals(another.obj) && type == another.type;
+			}
+			return false;
 		}
 	}
 	
+	/**
+	 * Results of blobs shared by multiple paths and revisions.
+	 * A result is kept until the last revision using the blob is processed.
+	 */
+	private static class SharedBlobs {
+		
+		private HashMap<BlobKey, Integer> lastUse = new HashMap<>();
+		private HashMap<BlobKey, Future<FileComments>> results = new HashMap<>();
+		
+		/**
+		 * Record that a revision includes a blob.
+		 * Revisions must be added in the order of processing.
+		 * Uses are not necessary for a single revision.
+		 */
+		public void addUse(BlobKey key, int revision) {
+			lastUse.put(key, revision);
+		}
+		
+		/**
+		 * @return a result of a blob analyzed for another path or a previous revision. 
+		 */
+		public Future<FileComments> get(BlobKey key) {
+			return results.get(key);
+		}
+		
+		/**
+		 * Keep a result until the end of the last revision using the blob.
+		 */
+		public void put(BlobKey key, Future<FileComments> result) {
+			results.put(key, result);
+		}
+		
+		/**
+		 * Discard a result at the end of a revision if no later revisions use the blob.
+		 */
+		public void release(BlobKey key, int revision) {
+			Integer last = lastUse.get(key);
+			if (last == null || last <= revision) {
+				results.remove(key);
+				lastUse.remove(key);
+			}
+		}
+	}
 	
 	/**
-	 * Internal class to count the numbers of files
+	 * Internal class to count the numbers of files and errors
 	 */
 	private static class Counter {
 		
@@ -313,6 +1034,10 @@ public class GitAnalyzer implements AutoCloseable {
 			value++;
 		}
 		
+		public void add(int n) {
+			value += n;
+		}
+		
 		public int getCount() {
 			return value;
 		}
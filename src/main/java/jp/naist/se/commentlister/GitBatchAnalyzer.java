@@ -0,0 +1,301 @@
+package jp.naist.se.commentlister;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This main class analyzes many repositories in a single JVM.
+ * It takes a text file listing repository paths (one path per line) and
+ * writes the output of GitAnalyzer for each repository to an output directory.
+ *
+ * Repositories and their files are processed by a work-stealing pool.
+ * A thread analyzing a repository submits files to the pool and
+ * processes them by itself while it waits for the results;
+ * idle threads steal files from other repositories,
+ * so that a few large repositories at the end of a batch are processed in parallel.
+ * The number of repositories analyzed at the same time is limited to the number of threads.
+ *
+ * A finished repository is appended to a checkpoint log.
+ * A batch restarted with the same log skips the repositories recorded as finished.
+ */
+public class GitBatchAnalyzer {
+
+	private static final String ARG_OUTPUT = "-output=";
+	private static final String ARG_CHECKPOINT = "-checkpoint=";
+
+	/**
+	 * The default name of a checkpoint log in an output directory
+	 */
+	private static final String CHECKPOINT_FILE = "checkpoint.log";
+
+	/**
+	 * Status of a repository in a checkpoint log
+	 */
+	private static final String DONE = "Done";
+	private static final String FAILED = "Failed";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	public static void main(String[] args) {
+		File list = null;
+		File outputDir = null;
+		File checkpointFile = null;
+		GitAnalyzer.Options options = new GitAnalyzer.Options();
+		options.threads = Runtime.getRuntime().availableProcessors();
+		for (String arg: args) {
+			if (arg.startsWith(ARG_OUTPUT)) {
+				outputDir = new File(arg.substring(ARG_OUTPUT.length()));
+			} else if (arg.startsWith(ARG_CHECKPOINT)) {
+				checkpointFile = new File(arg.substring(ARG_CHECKPOINT.length()));
+			} else if (!options.parse(arg)) {
+				list = new File(arg);
+			}
+		}
+		if (list == null || outputDir == null || !options.isValid() || options.threads < 1) {
+			System.err.println("Usage: repositories.txt -output=dir [-checkpoint=file] " + GitAnalyzer.Options.USAGE);
+			return;
+		}
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			System.err.println("Error: " + outputDir.getAbsolutePath() + " is not a directory.");
+			return;
+		}
+		if (checkpointFile == null) {
+			checkpointFile = new File(outputDir, CHECKPOINT_FILE);
+		}
+
+		try (Checkpoint checkpoint = new Checkpoint(checkpointFile)) {
+			GitBatchAnalyzer batch = new GitBatchAnalyzer(outputDir, options, checkpoint);
+			try {
+				batch.run(readRepositories(list));
+				printStatistics(batch);
+			} finally {
+				if (batch.cache != null) batch.cache.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return repository paths in a list file.  Empty lines and lines starting with "#" are ignored.
+	 */
+	private static ArrayList<String> readRepositories(File list) throws IOException {
+		ArrayList<String> repositories = new ArrayList<>();
+		for (String line: Files.readAllLines(list.toPath(), StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				repositories.add(line);
+			}
+		}
+		return repositories;
+	}
+
+	private static void printStatistics(GitBatchAnalyzer batch) {
+		System.err.println("Info: repositories analyzed=" + batch.analyzed.get() + ", failed=" + batch.failed.get() + ", skipped=" + batch.skipped.get());
+		GitAnalyzer.printStatistics(batch.cache, batch.skippedFiles.get());
+	}
+
+	private File outputDir;
+	private GitAnalyzer.Options options;
+	private Checkpoint checkpoint;
+	private CommentCache cache;
+	private KeywordMatcher keywords;
+	private AtomicInteger analyzed;
+	private AtomicInteger failed;
+	private AtomicInteger skipped;
+	private AtomicLong skippedFiles;
+
+	/**
+	 * @param outputDir is a directory for output files.
+	 * @param options specifies the analysis of each repository.
+	 * The number of threads is shared by all repositories.
+	 * @param checkpoint records finished repositories.
+	 */
+	GitBatchAnalyzer(File outputDir, GitAnalyzer.Options options, Checkpoint checkpoint) throws IOException {
+		this.outputDir = outputDir;
+		this.options = options;
+		this.checkpoint = checkpoint;
+		this.cache = options.createCache();
+		this.keywords = options.createKeywordMatcher();
+		this.analyzed = new AtomicInteger();
+		this.failed = new AtomicInteger();
+		this.skipped = new AtomicInteger();
+		this.skippedFiles = new AtomicLong();
+	}
+
+	/**
+	 * Analyze repositories.  The method returns when all repositories are processed.
+	 * @param repositories is a list of repository paths.
+	 */
+	void run(ArrayList<String> repositories) {
+		int threads = options.threads;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Semaphore slots = new Semaphore(threads);
+		try {
+			for (String path: repositories) {
+				if (checkpoint.isDone(path)) {
+					skipped.incrementAndGet();
+					continue;
+				}
+				slots.acquire();
+				pool.execute(() -> {
+					try {
+						analyze(pool, path);
+					} finally {
+						slots.release();
+					}
+				});
+			}
+			// Wait for running repositories
+			slots.acquire(threads);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Analyze a repository and record the result in the checkpoint log.
+	 * The output is written to a temporary file and renamed when the analysis finishes,
+	 * so that an output file is always complete.
+	 */
+	private void analyze(ForkJoinPool pool, String path) {
+		boolean success = false;
+		File temp = null;
+		try {
+			File gitDir = GitAnalyzer.ensureGitDir(new File(path).getCanonicalFile());
+			if (gitDir == null) {
+				System.err.println("Error: " + path + " is not a directory.");
+			} else {
+				File output = new File(outputDir, getOutputName(path));
+				temp = new File(outputDir, output.getName() + TEMP_SUFFIX);
+				try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+					try (GitAnalyzer analyzer = new GitAnalyzer(pool, options.threads, options.format, out)) {
+						analyzer.setPackOrder(options.packOrder);
+						analyzer.setCache(cache);
+						analyzer.setKeywordMatcher(keywords);
+						success = analyzer.parseGitRepository(gitDir, options.getTargets(), options.types);
+						skippedFiles.addAndGet(analyzer.getSkippedFileCount());
+					}
+				}
+				if (success) {
+					Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					temp = null;
+				} else {
+					// An incomplete output is not kept, so that a restarted batch analyzes the repository again
+					System.err.println("Error: " + path + " is not completely analyzed.");
+				}
+			}
+		} catch (IOException|RuntimeException e) {
+			System.err.println("Error: " + path + " is not analyzed (" + e + ")");
+			success = false;
+		} finally {
+			if (temp != null) temp.delete();
+		}
+
+		try {
+			checkpoint.record(path, success ? DONE : FAILED);
+		} catch (IOException e) {
+			System.err.println("Error: failed to write a checkpoint for " + path + " (" + e.getMessage() + ")");
+		}
+		if (success) {
+			analyzed.incrementAndGet();
+		} else {
+			failed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return a file name for a repository path.
+	 * The path is encoded, so that different paths have different names.
+	 */
+	private String getOutputName(String path) throws UnsupportedEncodingException {
+		String extension;
+		if (options.format == OutputFormat.BINARY) {
+			extension = ".bin";
+		} else if (options.format == OutputFormat.NDJSON) {
+			extension = ".ndjson";
+		} else {
+			extension = ".json";
+		}
+		return URLEncoder.encode(path, "UTF-8") + extension;
+	}
+
+	/**
+	 * A log of finished repositories.
+	 * Each line is a repository path and its status separated by a tab.
+	 * A line is written and synchronized to the disk when a repository is finished,
+	 * so that the log is available after the batch is killed.
+	 * An incomplete line written by a killed process is ignored.
+	 */
+	private static class Checkpoint implements AutoCloseable {
+
+		private HashSet<String> done;
+		private FileOutputStream out;
+
+		/**
+		 * Load a log and open it for appending lines.
+		 * The file is created if it does not exist.
+		 */
+		public Checkpoint(File file) throws IOException {
+			done = new HashSet<>();
+			boolean terminated = true;
+			if (file.exists()) {
+				byte[] content = Files.readAllBytes(file.toPath());
+				String[] lines = new String(content, StandardCharsets.UTF_8).split("\n");
+				for (String line: lines) {
+					int tab = line.lastIndexOf('\t');
+					if (tab >= 0 && line.substring(tab + 1).equals(DONE)) {
+						done.add(line.substring(0, tab));
+					}
+				}
+				terminated = content.length == 0 || content[content.length - 1] == '\n';
+			}
+			out = new FileOutputStream(file, true);
+			if (!terminated) {
+				// Terminate an incomplete line
+				out.write('\n');
+			}
+		}
+
+		/**
+		 * @return true if a repository is recorded as finished.
+		 */
+		public synchronized boolean isDone(String path) {
+			return done.contains(path);
+		}
+
+		/**
+		 * Append the status of a repository.
+		 */
+		public synchronized void record(String path, String status) throws IOException {
+			out.write((path + "\t" + status + "\n").getBytes(StandardCharsets.UTF_8));
+			out.getFD().sync();
+			if (status.equals(DONE)) {
+				done.add(path);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+}
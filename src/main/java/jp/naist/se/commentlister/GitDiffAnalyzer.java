@@ -1,13 +1,23 @@
 package jp.naist.se.commentlister;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jgit.diff.DiffAlgorithm;
 import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
@@ -16,47 +26,133 @@ import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.Edit.Type;
 import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.errors.BinaryBlobException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
-import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.patch.FileHeader;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import com.fasterxml.jackson.core.JsonFactory;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import jp.naist.se.commentlister.reader.CommentReader;
+import jp.naist.se.commentlister.reader.EmptyCommentReader;
 import jp.naist.se.commentlister.reader.FileType;
+import jp.naist.se.commentlister.reader.LexerPool;
+import jp.naist.se.commentlister.reader.StreamLimitException;
 
 
 
 public class GitDiffAnalyzer implements AutoCloseable {
 
+	private static final String ARG_THREADS = "-threads=";
+	private static final String ARG_URL_CACHE = "-urlcache=";
+	private static final String ARG_SCANNER = "-scanner";
+	private static final String ARG_NO_LEXER_POOL = "-nolexerpool";
+	
+	/**
+	 * The default size of URLCache in megabytes
+	 */
+	private static final long DEFAULT_URL_CACHE_SIZE = 64;
+	
+	private static final String HTTP = "http";
+	
+	/**
+	 * Names of the output fields for URLs and keywords
+	 */
+	private static final String URL = "URL";
+	private static final String KEYWORD = "Keyword";
+	
+	/**
+	 * The number of context lines of a unified diff (the default of DiffFormatter)
+	 */
+	private static final int CONTEXT_LINES = 3;
+
+	/**
+	 * Files larger than this size are regarded as binary files (the default of DiffFormatter)
+	 */
+	private static final int BINARY_FILE_THRESHOLD = 50 * 1024 * 1024;
+
+	/**
+	 * The number of commits processed by worker threads in advance of the output 
+	 */
+	private static final int PENDING_COMMITS_PER_THREAD = 64;
+
 	/**
 	 * Extract modified comments including "http" from a Git repository.
-	 * @param args specify a directory, a programming language, and a list of commits (one commit id per line) to be analyzed.
+	 * @param args specify a directory, a programming language, and commits to be analyzed.
+	 * Commits are specified by a file listing commit IDs (one commit id per line) or by revision ranges and filters (see CommitRange).
+	 * An optional argument "-threads=N" specifies the number of worker threads.
+	 * An optional argument "-keywords=file" reports modified keywords listed in the file instead of URLs.
 	 */
 	public static void main(String[] args) { 
-		if (args.length != 3) {
-			System.err.println("Usage: path/to/.git lang COMMIT-LIST-FILE");
+		ArrayList<String> params = new ArrayList<>();
+		CommitRange range = new CommitRange();
+		int threads = 1;
+		long urlCacheSize = DEFAULT_URL_CACHE_SIZE;
+		OutputFormat format = OutputFormat.JSON;
+		File keywordFile = null;
+		boolean ignoreCase = false;
+		for (String arg: args) {
+			if (arg.startsWith(ARG_THREADS)) {
+				threads = Integer.parseInt(arg.substring(ARG_THREADS.length()));
+			} else if (arg.startsWith(ARG_URL_CACHE)) {
+				urlCacheSize = Long.parseLong(arg.substring(ARG_URL_CACHE.length()));
+			} else if (arg.equals(ARG_SCANNER)) {
+				FileType.setScannerEnabled(true);
+			} else if (arg.equals(ARG_NO_LEXER_POOL)) {
+				LexerPool.setEnabled(false);
+			} else if (arg.startsWith(KeywordMatcher.ARG_KEYWORDS)) {
+				keywordFile = new File(arg.substring(KeywordMatcher.ARG_KEYWORDS.length()));
+			} else if (arg.equals(KeywordMatcher.ARG_IGNORE_CASE)) {
+				ignoreCase = true;
+			} else if (arg.startsWith(OutputFormat.ARG_FORMAT)) {
+				format = OutputFormat.getFormat(arg.substring(OutputFormat.ARG_FORMAT.length()));
+				if (format == OutputFormat.BINARY) {
+					System.err.println("Error: the binary format is available only for GitAnalyzer");
+					format = null;
+				}
+			} else if (params.size() < 2) {
+				params.add(arg);
+			} else {
+				range.parse(arg);
+			}
+		}
+		if (params.size() != 2 || format == null || !range.isValid()) {
+			System.err.println("Usage: path/to/.git lang COMMIT-LIST-FILE [-threads=N] [-urlcache=MB] [-scanner] [-nolexerpool] [-format=json|ndjson] [-keywords=file [-ignorecase]]");
+			System.err.println("       path/to/.git lang [A..B | A...B | revision | ^revision ...] [--all] [--since=date] [--until=date] [--no-merges] [--min-parents=N] [--max-parents=N] [other options]");
 			return;
 		}
 		long t = System.currentTimeMillis();
-		try (GitDiffAnalyzer analyzer = new GitDiffAnalyzer(args[1])) {
-			File dir = new File(args[0]).getCanonicalFile();
-			ArrayList<String> targets = readTargetList(args[2]);
+		try (GitDiffAnalyzer analyzer = new GitDiffAnalyzer(params.get(1), threads, format)) {
+			analyzer.setURLCacheSize(urlCacheSize * 1024 * 1024);
+			if (keywordFile != null) {
+				analyzer.setKeywordMatcher(KeywordMatcher.load(keywordFile, ignoreCase));
+			}
+			File dir = new File(params.get(0)).getCanonicalFile();
 			
 			File gitDir = GitAnalyzer.ensureGitDir(dir);
 			if (gitDir != null) {
-				analyzer.parseGitRepository(gitDir, targets);
+				analyzer.parseGitRepository(gitDir, range);
 			}
+			if (analyzer.urlCache != null) {
+				System.err.println("Info: URL cache hits=" + analyzer.getURLCacheHitCount() + ", misses=" + analyzer.getURLCacheMissCount());
+			}
+			System.err.println("Info: blobs read=" + analyzer.getBlobReadCount());
+			System.err.println("Info: " + analyzer.getSkippedFileCount() + " files without comment markers were not lexed");
+			System.err.println("Info: lexers created=" + LexerPool.getCreatedCount() + ", reused=" + LexerPool.getReusedCount());
 		} catch (IOException e) {
 			 e.printStackTrace();
 		}
-		System.err.println(args[0] + "," + (System.currentTimeMillis() - t));
+		System.err.println(params.get(0) + "," + (System.currentTimeMillis() - t));
 	}
 	
 	public static ArrayList<String> readTargetList(String filename) {
@@ -72,16 +168,108 @@ public class GitDiffAnalyzer implements AutoCloseable {
 	}
 
 	private JsonGenerator gen;
+	private OutputFormat format;
 	private FileType targetLanguage;
+	private ExecutorService executor;
+	private int maxPendingCommits;
+	private URLCache urlCache;
+	private KeywordMatcher matcher;
+	private boolean keywordMode;
+	private String itemName;
+	private AtomicLong blobReads = new AtomicLong();
+	private AtomicLong skippedFiles = new AtomicLong();
 
 	public GitDiffAnalyzer(String lang) throws IOException {
+		this(lang, 1);
+	}
+	
+	/**
+	 * @param threads specifies the number of worker threads to analyze commits.
+	 * If it is 1 or less, commits are processed in the main thread.
+	 */
+	public GitDiffAnalyzer(String lang, int threads) throws IOException {
+		this(lang, threads, OutputFormat.JSON);
+	}
+	
+	/**
+	 * @param threads specifies the number of worker threads to analyze commits.
+	 * @param format specifies the output format.
+	 * NDJSON writes a record for each commit and a summary record at the end.
+	 */
+	public GitDiffAnalyzer(String lang, int threads, OutputFormat format) throws IOException {
+		this(lang, threads, format, System.out);
+	}
+	
+	/**
+	 * @param threads specifies the number of worker threads to analyze commits.
+	 * @param format specifies the output format.
+	 * @param out is the destination of the output.
+	 */
+	public GitDiffAnalyzer(String lang, int threads, OutputFormat format, OutputStream out) throws IOException {
 		this.targetLanguage = FileType.valueOf(lang.toUpperCase());
-		gen = new JsonFactory().createGenerator(System.out);
-		gen.useDefaultPrettyPrinter();
+		this.format = format;
+		gen = format.createGenerator(out);
+		if (threads > 1) {
+			executor = Executors.newFixedThreadPool(threads);
+			maxPendingCommits = threads * PENDING_COMMITS_PER_THREAD;
+		}
+		urlCache = new URLCache(DEFAULT_URL_CACHE_SIZE * 1024 * 1024);
+		setKeywordMatcher(null);
+	}
+	
+	/**
+	 * @param maxBytes specifies the approximate memory size to keep URLs extracted from blobs.
+	 * If it is 0 or less, the cache is disabled.
+	 */
+	public void setURLCacheSize(long maxBytes) {
+		urlCache = (maxBytes > 0) ? new URLCache(maxBytes) : null;
+	}
+	
+	/**
+	 * @param keywords specifies keywords reported instead of URLs.
+	 * A keyword is reported as a "Keyword" field at the position of a URL.
+	 * If null, URLs starting with "http" are reported.
+	 * This method must be called before the analysis.
+	 */
+	public void setKeywordMatcher(KeywordMatcher keywords) {
+		keywordMode = keywords != null;
+		matcher = keywordMode ? keywords : new KeywordMatcher(Collections.singletonList(HTTP), false);
+		itemName = keywordMode ? KEYWORD : URL;
+	}
+	
+	/**
+	 * @return the number of blobs whose URLs are reused.  0 if the cache is disabled.
+	 */
+	long getURLCacheHitCount() {
+		return urlCache != null ? urlCache.getHitCount() : 0;
+	}
+	
+	/**
+	 * @return the number of blobs whose URLs are extracted while the cache is enabled.
+	 */
+	long getURLCacheMissCount() {
+		return urlCache != null ? urlCache.getMissCount() : 0;
+	}
+	
+	/**
+	 * @return the number of files that were not lexed since they have no comment-start sequences.
+	 */
+	public long getSkippedFileCount() {
+		return skippedFiles.get();
+	}
+	
+	/**
+	 * @return the number of blobs read from the repository.
+	 */
+	long getBlobReadCount() {
+		return blobReads.get();
 	}
 	
 	@Override
 	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
 		try {
 			gen.close();
 		} catch (IOException e) {
@@ -91,126 +279,405 @@ public class GitDiffAnalyzer implements AutoCloseable {
 	
 	/**
 	 * @param gitDir is a .git directory.
-	 * @param target is a revision.
+	 * @param targets is a list of commit IDs.
+	 * @return false if the repository is not readable.
 	 */
-	public void parseGitRepository(File gitDir, ArrayList<String> targets) {
+	public boolean parseGitRepository(File gitDir, ArrayList<String> targets) {
+		return parseGitRepository(gitDir, new CommitRange(targets));
+	}
+	
+	/**
+	 * Analyze commits in the order of enumeration.
+	 * @param gitDir is a .git directory.
+	 * @param range specifies commits.
+	 * @return false if the repository is not readable or the range includes an unresolvable revision.
+	 * Nothing is written for an invalid range.
+	 */
+	public boolean parseGitRepository(File gitDir, CommitRange range) {
 		File dir = GitAnalyzer.ensureGitDir(gitDir);
-		if (dir == null) return;
+		if (dir == null) return false;
 
 		FileRepositoryBuilder b = new FileRepositoryBuilder();
 		b.setGitDir(gitDir);
-		try (Repository repo = b.build()) {
-			gen.writeStartObject();
-			
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			try (DiffFormatter diff = new DiffFormatter(out)) {
-				diff.setRepository(repo);
-				diff.setDiffAlgorithm(DiffAlgorithm.getAlgorithm(SupportedAlgorithm.HISTOGRAM));
-				diff.setDiffComparator(RawTextComparator.DEFAULT);
-				diff.setDetectRenames(true);
-				
-				for (String target: targets) {
-
-					AnyObjectId commitId = repo.resolve(target);
-					if (commitId != null) {
-						RevCommit commit = repo.parseCommit(commitId);
-						
-						RevCommit parent = null;
-						if (commit.getParentCount() > 0) {
-							parent = commit.getParent(0);
+		try (Repository repo = b.build(); RevWalk walk = new RevWalk(repo); CommitRange commits = range) {
+			long startTime = System.currentTimeMillis();
+			int commitCount = 0;
+			if (!commits.start(repo, walk)) {
+				return false;
+			}
+			if (format == OutputFormat.JSON) {
+				gen.writeStartObject();
+			}
+			if (executor == null) {
+				try (DiffWorker worker = new DiffWorker(repo, blobReads)) {
+					for (RevCommit commit = commits.next(); commit != null; commit = commits.next()) {
+						analyzeCommit(worker, commit, gen);
+						endCommit();
+						commitCount++;
+					}
+				}
+			} else {
+				commitCount = parseCommitsInParallel(repo, commits);
+			}
+			if (format == OutputFormat.JSON) {
+				gen.writeEndObject();
+			} else {
+				gen.writeStartObject();
+				gen.writeStringField("Record", "Summary");
+				gen.writeStringField("Repository", GitAnalyzer.makeRepoName(gitDir));
+				gen.writeNumberField("CommitCount", commitCount);
+				gen.writeNumberField("ElapsedTime", System.currentTimeMillis() - startTime);
+				gen.writeEndObject();
+				OutputFormat.endRecord(gen);
+			}
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Analyze commits using worker threads.
+	 * A worker thread checks out a DiffWorker for a commit and returns it after the commit, 
+	 * so that no DiffWorker remains in the threads after the run. 
+	 * The result of a commit is written to a buffer, 
+	 * and the buffers are copied to the output in the order of commits.
+	 * Commits are enumerated in the current thread.
+	 * @return the number of commits written to the output.
+	 */
+	private int parseCommitsInParallel(Repository repo, CommitRange commits) throws IOException {
+		ArrayList<DiffWorker> workers = new ArrayList<>();
+		ArrayDeque<DiffWorker> idle = new ArrayDeque<>();
+		ArrayDeque<Future<TokenBuffer>> pending = new ArrayDeque<>();
+		int commitCount = 0;
+		try {
+			for (RevCommit commit = commits.next(); commit != null; commit = commits.next()) {
+				RevCommit target = commit;
+				pending.add(executor.submit(() -> {
+					DiffWorker worker;
+					synchronized (workers) {
+						worker = idle.poll();
+						if (worker == null) {
+							worker = new DiffWorker(repo, blobReads);
+							workers.add(worker);
+						}
+					}
+					try {
+						TokenBuffer buffer = new TokenBuffer(null, false);
+						analyzeCommit(worker, target, buffer);
+						return buffer;
+					} finally {
+						synchronized (workers) {
+							idle.push(worker);
 						}
+					}
+				}));
+				if (pending.size() >= maxPendingCommits) {
+					writeBuffer(pending.poll());
+					commitCount++;
+				}
+			}
+			while (!pending.isEmpty()) {
+				writeBuffer(pending.poll());
+				commitCount++;
+			}
+		} finally {
+			for (Future<TokenBuffer> f: pending) {
+				f.cancel(false);
+			}
+			synchronized (workers) {
+				for (DiffWorker w: workers) {
+					w.close();
+				}
+			}
+		}
+		return commitCount;
+	}
+	
+	/**
+	 * Wait for a worker thread and copy the result to the output.
+	 */
+	private void writeBuffer(Future<TokenBuffer> result) throws IOException {
+		try {
+			TokenBuffer buffer = result.get();
+			buffer.serialize(gen);
+			endCommit();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			} else {
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+	
+	/**
+	 * Objects to compare revisions.
+	 * They are not thread-safe, so that each thread uses its own instance.
+	 * The formatter is used only to detect changed files; it never writes a patch.
+	 */
+	private static class DiffWorker implements AutoCloseable {
+		
+		private ObjectReader reader;
+		private DiffFormatter diff;
+		private DiffAlgorithm algorithm;
+		private AtomicLong blobReads;
+		
+		/**
+		 * @param blobReads counts blobs read by the worker.
+		 */
+		public DiffWorker(Repository repo, AtomicLong blobReads) {
+			reader = repo.newObjectReader();
+			algorithm = DiffAlgorithm.getAlgorithm(SupportedAlgorithm.HISTOGRAM);
+			diff = new DiffFormatter(DisabledOutputStream.INSTANCE);
+			diff.setReader(reader, repo.getConfig());
+			diff.setDiffAlgorithm(algorithm);
+			diff.setDiffComparator(RawTextComparator.DEFAULT);
+			diff.setDetectRenames(true);
+			this.blobReads = blobReads;
+		}
+		
+		@Override
+		public void close() {
+			diff.close();
+			reader.close();
+		}
+	}
+	
+	/**
+	 * A blob of a file in a commit.
+	 * The blob is read at most once for computing edits, the prefilter and the extraction.
+	 */
+	private static class Blob {
+		
+		private DiffWorker worker;
+		private ObjectId id;
+		private ObjectLoader loader;
+		
+		public Blob(DiffWorker worker, AbbreviatedObjectId id) {
+			this.worker = worker;
+			this.id = id.toObjectId();
+		}
+		
+		/**
+		 * @return a loader of the blob.  A small blob is loaded into memory.
+		 */
+		public ObjectLoader open() throws IOException {
+			if (loader == null) {
+				loader = worker.reader.open(id);
+				worker.blobReads.incrementAndGet();
+			}
+			return loader;
+		}
+		
+		/**
+		 * @return the content of the blob.  null if the blob is too large to be loaded.
+		 */
+		public byte[] getContent() throws IOException {
+			ObjectLoader l = open();
+			if (l.isLarge()) return null;
+			return l.getCachedBytes();
+		}
+	}
 
-						gen.writeObjectFieldStart(commit.getId().name());
-						gen.writeStringField("ShortMessage", commit.getShortMessage());
-						gen.writeStringField("CommitTime", epochToISO(commit.getCommitTime()));
-						
-						List<DiffEntry> entries = diff.scan(parent, commit);
-							
-						// For each modified file
-						for (DiffEntry entry: entries) {
-							
-							switch (entry.getChangeType()) {
-							case ADD:
-							{
-								FileType t = FileType.getFileType(entry.getNewPath());
-								if (isTargetLanguage(t)) {
-									analyzeAdd(entry.getNewPath(), repo, t, entry.getNewId());
-								}
-								break;
-							}
-							case DELETE:
-							{
-								FileType t = FileType.getFileType(entry.getOldPath());
-								if (isTargetLanguage(t)) {
-									analyzeDelete(entry.getOldPath(), repo, t, entry.getOldId());
-								}
-								break;
-							}											
-							case COPY:
-							{
-								FileType t = FileType.getFileType(entry.getNewPath());
-								if (isTargetLanguage(t)) {
-									analyzeAdd(entry.getNewPath(), repo, t, entry.getOldId());
-								}
-								break;
-							}	
-							case MODIFY:
-							{
-								FileType t = FileType.getFileType(entry.getNewPath());
-								if (isTargetLanguage(t)) {
-									out.reset();
-									diff.format(entry);
-									boolean inclusion = out.toString().contains("http");
-									if (!inclusion) {
-										continue;
-									}
+	/**
+	 * Terminate a record if the output is NDJSON.
+	 */
+	private void endCommit() throws IOException {
+		if (format == OutputFormat.NDJSON) {
+			OutputFormat.endRecord(gen);
+		}
+	}
 
-									FileHeader h = diff.toFileHeader(entry);
-									analyzeModify(entry.getNewPath(), repo, t, entry.getOldId(), entry.getNewId(), h.toEditList());
-								}
-								break;
-							}	
-							case RENAME: // Rename and modify
-								FileType t = FileType.getFileType(entry.getNewPath());
-								FileType told = FileType.getFileType(entry.getOldPath());
-								if (isTargetLanguage(t)) {
-									out.reset();
-									diff.format(entry);
-									boolean inclusion = out.toString().contains("http");
-									if (!inclusion) {
-										continue;
-									}
-									if (told == t) {
-										FileHeader h = diff.toFileHeader(entry);
-										analyzeModify(entry.getNewPath(), repo, t, entry.getOldId(), entry.getNewId(), h.toEditList());
-									} else {
-										if (isTargetLanguage(told)) {
-											// Delete an language file and add a new file
-											analyzeDelete(entry.getOldPath(), repo, told, entry.getOldId());
-											analyzeAdd(entry.getNewPath(), repo, t, entry.getNewId());
-										} else {
-											analyzeAdd(entry.getNewPath(), repo, t, entry.getNewId());
-										}
-									}
-								} else {
-									if (isTargetLanguage(told)) {
-										// Delete an language file and add a new file
-										analyzeDelete(entry.getOldPath(), repo, told, entry.getOldId());
-									}												
-								}
-								break;
-							}
-						}
-						gen.writeEndObject();
+	/**
+	 * Write modified URLs in a commit.
+	 * In NDJSON, a commit is written as a record including an array of files.
+	 * @param commit is a parsed commit.  Its parent is not necessarily parsed.
+	 * @param gen is the destination of the result.
+	 */
+	private void analyzeCommit(DiffWorker worker, RevCommit commit, JsonGenerator gen) throws IOException {
+		DiffFormatter diff = worker.diff;
+
+		RevCommit parent = null;
+		if (commit.getParentCount() > 0) {
+			parent = commit.getParent(0);
+		}
+
+		if (format == OutputFormat.NDJSON) {
+			gen.writeStartObject();
+			gen.writeStringField("Record", "Commit");
+			gen.writeStringField("ObjectId", commit.getId().name());
+		} else {
+			gen.writeObjectFieldStart(commit.getId().name());
+		}
+		gen.writeStringField("ShortMessage", commit.getShortMessage());
+		gen.writeStringField("CommitTime", epochToISO(commit.getCommitTime()));
+		if (format == OutputFormat.NDJSON) {
+			gen.writeArrayFieldStart("Files");
+		}
+		
+		List<DiffEntry> entries = diff.scan(parent, commit);
+			
+		// For each modified file
+		for (DiffEntry entry: entries) {
+			
+			switch (entry.getChangeType()) {
+			case ADD:
+			{
+				FileType t = FileType.getFileType(entry.getNewPath());
+				if (isTargetLanguage(t)) {
+					analyzeAdd(gen, entry.getNewPath(), t, new Blob(worker, entry.getNewId()));
+				}
+				break;
+			}
+			case DELETE:
+			{
+				FileType t = FileType.getFileType(entry.getOldPath());
+				if (isTargetLanguage(t)) {
+					analyzeDelete(gen, entry.getOldPath(), t, new Blob(worker, entry.getOldId()));
+				}
+				break;
+			}											
+			case COPY:
+			{
+				FileType t = FileType.getFileType(entry.getNewPath());
+				if (isTargetLanguage(t)) {
+					analyzeAdd(gen, entry.getNewPath(), t, new Blob(worker, entry.getOldId()));
+				}
+				break;
+			}	
+			case MODIFY:
+			{
+				FileType t = FileType.getFileType(entry.getNewPath());
+				if (isTargetLanguage(t)) {
+					Blob oldBlob = new Blob(worker, entry.getOldId());
+					Blob newBlob = new Blob(worker, entry.getNewId());
+					EditList edits = computeEdits(worker, entry, oldBlob, newBlob);
+					if (!isPatternInPatch(entry, edits, oldBlob, newBlob)) {
+						continue;
+					}
+					analyzeModify(gen, entry.getNewPath(), t, oldBlob, newBlob, edits);
+				}
+				break;
+			}	
+			case RENAME: // Rename and modify
+				FileType t = FileType.getFileType(entry.getNewPath());
+				FileType told = FileType.getFileType(entry.getOldPath());
+				if (isTargetLanguage(t)) {
+					// A blob renamed without modification is read once
+					Blob oldBlob = new Blob(worker, entry.getOldId());
+					Blob newBlob = entry.getNewId().equals(entry.getOldId()) ? oldBlob : new Blob(worker, entry.getNewId());
+					EditList edits = computeEdits(worker, entry, oldBlob, newBlob);
+					if (!isPatternInPatch(entry, edits, oldBlob, newBlob)) {
+						continue;
+					}
+					if (told == t) {
+						analyzeModify(gen, entry.getNewPath(), t, oldBlob, newBlob, edits);
 					} else {
-						System.err.println("Error: " + target + " is not a commit ID.");
+						if (isTargetLanguage(told)) {
+							// Delete an language file and add a new file
+							analyzeDelete(gen, entry.getOldPath(), told, oldBlob);
+							analyzeAdd(gen, entry.getNewPath(), t, newBlob);
+						} else {
+							analyzeAdd(gen, entry.getNewPath(), t, newBlob);
+						}
 					}
+				} else {
+					if (isTargetLanguage(told)) {
+						// Delete an language file and add a new file
+						analyzeDelete(gen, entry.getOldPath(), told, new Blob(worker, entry.getOldId()));
+					}												
 				}
+				break;
 			}
-			gen.writeEndObject();
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
+		if (format == OutputFormat.NDJSON) {
+			gen.writeEndArray();
+		}
+		gen.writeEndObject();
+	}
+	
+	/**
+	 * Compute the edits of a modified file in the same way as DiffFormatter.toFileHeader.
+	 * The blobs are loaded by Blob objects, so that the prefilter and the extraction reuse the contents.
+	 * A binary file has no edits.
+	 */
+	private static EditList computeEdits(DiffWorker worker, DiffEntry entry, Blob oldBlob, Blob newBlob) throws IOException {
+		if (entry.getOldMode().getObjectType() != Constants.OBJ_BLOB || entry.getNewMode().getObjectType() != Constants.OBJ_BLOB) {
+			// A submodule or a symbolic link
+			return worker.diff.toFileHeader(entry).toEditList();
+		}
+		try {
+			RawText a = RawText.load(oldBlob.open(), BINARY_FILE_THRESHOLD);
+			RawText b = RawText.load(newBlob.open(), BINARY_FILE_THRESHOLD);
+			return worker.algorithm.diff(RawTextComparator.DEFAULT, a, b);
+		} catch (BinaryBlobException e) {
+			return new EditList();
+		}
+	}
+	
+	/**
+	 * Check whether the unified diff of a file includes "http" or a keyword without formatting the diff.
+	 * The diff includes the file paths, the lines of edits,  
+	 * and the context lines around the edits taken from the old version. 
+	 * A binary file has no edits.
+	 */
+	private boolean isPatternInPatch(DiffEntry entry, EditList edits, Blob oldBlob, Blob newBlob) throws IOException {
+		if (isFoundIn(entry.getOldPath()) || isFoundIn(entry.getNewPath())) return true;
+		if (edits.isEmpty()) return false;
+		
+		byte[] oldContent = oldBlob.getContent();
+		if (oldContent == null || containsInLines(oldContent, edits, true)) return true;
+		byte[] newContent = newBlob.getContent();
+		return newContent == null || containsInLines(newContent, edits, false);
+	}
+	
+	private boolean isFoundIn(String path) {
+		byte[] b = path.getBytes(StandardCharsets.UTF_8);
+		return matcher.isFoundIn(b, 0, b.length);
+	}
+	
+	/**
+	 * Search "http" or keywords in the lines of edits.
+	 * @param oldVersion specifies the version of the content.
+	 * If true, deleted lines and context lines are checked. 
+	 * Otherwise, inserted lines are checked.
+	 */
+	private boolean containsInLines(byte[] content, EditList edits, boolean oldVersion) {
+		int line = 0;
+		int pos = 0;
+		for (Edit e: edits) {
+			int begin = oldVersion ? e.getBeginA() - CONTEXT_LINES : e.getBeginB();
+			int end = oldVersion ? e.getEndA() + CONTEXT_LINES : e.getEndB();
+			if (begin >= end) continue;
+			
+			// Lines before the current line are already checked for the previous edit 
+			while (line < begin && pos < content.length) {
+				pos = nextLine(content, pos);
+				line++;
+			}
+			int start = pos;
+			while (line < end && pos < content.length) {
+				pos = nextLine(content, pos);
+				line++;
+			}
+			if (matcher.isFoundIn(content, start, pos)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return the position of the next line.
+	 */
+	private static int nextLine(byte[] content, int pos) {
+		while (pos < content.length) {
+			if (content[pos++] == '\n') break;
+		}
+		return pos;
 	}
 	
 	private boolean isTargetLanguage(FileType t) {
@@ -218,31 +685,65 @@ public class GitDiffAnalyzer implements AutoCloseable {
 	}
 	
 	
-	private void analyzeAdd(String pathName, Repository repo, FileType t, AbbreviatedObjectId id) throws IOException {
-		analyzeFile(pathName, repo, t, id, "ADDED");
+	private void analyzeAdd(JsonGenerator gen, String pathName, FileType t, Blob blob) throws IOException {
+		analyzeFile(gen, pathName, t, blob, "ADDED");
 	}
 	
-	private void analyzeDelete(String pathName, Repository repo, FileType t, AbbreviatedObjectId id) throws IOException {
-		analyzeFile(pathName, repo, t, id, "DELETED");
+	private void analyzeDelete(JsonGenerator gen, String pathName, FileType t, Blob blob) throws IOException {
+		analyzeFile(gen, pathName, t, blob, "DELETED");
 	}
 	
-	private void analyzeFile(String pathName, Repository repo, FileType t, AbbreviatedObjectId id, String type) throws IOException {
-		List<URLInComment> urls = readURLsInComment(repo, t, id);
+	private void analyzeFile(JsonGenerator gen, String pathName, FileType t, Blob blob, String type) throws IOException {
+		List<URLInComment> urls = readURLsInComment(t, blob);
 		if (urls.size() == 0) return; 
 		int commentCount = 0;
-		gen.writeObjectFieldStart(pathName);
-		gen.writeStringField("FileEditType", type);
+		startFile(gen, pathName, type);
 		for (URLInComment url: urls) {
-			gen.writeObjectFieldStart(Integer.toString(commentCount++));
+			startURL(gen, commentCount++);
 			gen.writeStringField("Type", type);
-			gen.writeObjectField("URL", url.getURL());
-			gen.writeObjectField("Line", url.getLine());
-			gen.writeObjectField("CommentLine", url.getCommentStartLine());
+			gen.writeStringField(itemName, url.getURL());
+			gen.writeNumberField("Line", url.getLine());
+			gen.writeNumberField("CommentLine", url.getCommentStartLine());
 			gen.writeEndObject();
 		}
+		endFile(gen);
+	}
+	
+	/**
+	 * Start an object for a file.
+	 * In NDJSON, the object includes its path and an array of URLs (or keywords).
+	 */
+	private void startFile(JsonGenerator gen, String pathName, String type) throws IOException {
+		if (format == OutputFormat.NDJSON) {
+			gen.writeStartObject();
+			gen.writeStringField("Path", pathName);
+			gen.writeStringField("FileEditType", type);
+			gen.writeArrayFieldStart(itemName + "s");
+		} else {
+			gen.writeObjectFieldStart(pathName);
+			gen.writeStringField("FileEditType", type);
+		}
+	}
+	
+	private void endFile(JsonGenerator gen) throws IOException {
+		if (format == OutputFormat.NDJSON) {
+			gen.writeEndArray();
+		}
 		gen.writeEndObject();
 	}
 	
+	/**
+	 * Start an object for a URL.
+	 * @param index is used as the key of the object in JSON. 
+	 */
+	private void startURL(JsonGenerator gen, int index) throws IOException {
+		if (format == OutputFormat.NDJSON) {
+			gen.writeStartObject();
+		} else {
+			gen.writeObjectFieldStart(Integer.toString(index));
+		}
+	}
+	
 	private static class URLInComment {
 
 		private String url;
@@ -268,41 +769,134 @@ public class GitDiffAnalyzer implements AutoCloseable {
 		}
 	}
 	
-	private int getRelativeLinePos(String text, int index) {
-		int line = 0;
-		int endLineIndex = text.indexOf('\n');
-		while (endLineIndex >= 0 && endLineIndex < index) {
-			line++;
-			endLineIndex = text.indexOf('\n', endLineIndex+1);
+	/**
+	 * URLs in comments of recently analyzed blobs.
+	 * The new version of a file in a commit is often the old version in a later commit. 
+	 * Least recently used entries are removed when the estimated memory size exceeds a limit. 
+	 */
+	private static class URLCache {
+		
+		/**
+		 * Estimated memory size of an entry and a URL object
+		 */
+		private static final int ENTRY_WEIGHT = 96;
+		private static final int URL_WEIGHT = 64;
+		
+		private LinkedHashMap<ObjectId, List<URLInComment>> entries;
+		private long maxWeight;
+		private long weight;
+		private long hits;
+		private long misses;
+		
+		public URLCache(long maxWeight) {
+			this.entries = new LinkedHashMap<>(1024, 0.75f, true);
+			this.maxWeight = maxWeight;
 		}
-		return line;	}
+		
+		public synchronized List<URLInComment> get(ObjectId blob) {
+			List<URLInComment> urls = entries.get(blob);
+			if (urls != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+			return urls;
+		}
+		
+		public synchronized void put(ObjectId blob, List<URLInComment> urls) {
+			List<URLInComment> old = entries.put(blob, urls);
+			if (old != null) weight -= getWeight(old);
+			weight += getWeight(urls);
+			Iterator<List<URLInComment>> it = entries.values().iterator();
+			while (weight > maxWeight && it.hasNext()) {
+				weight -= getWeight(it.next());
+				it.remove();
+			}
+		}
+		
+		private static long getWeight(List<URLInComment> urls) {
+			long w = ENTRY_WEIGHT;
+			for (URLInComment url: urls) {
+				w += URL_WEIGHT + 2L * url.getURL().length();
+			}
+			return w;
+		}
+		
+		public synchronized long getHitCount() {
+			return hits;
+		}
+		
+		public synchronized long getMissCount() {
+			return misses;
+		}
+	}
+	
+	/**
+	 * @return the index of a character in a text from a position.  -1 if not found.
+	 */
+	private static int indexOf(CharSequence text, char c, int from) {
+		for (int i=Math.max(from, 0); i<text.length(); i++) {
+			if (text.charAt(i) == c) return i;
+		}
+		return -1;
+	}
 	
-	private List<URLInComment> readURLsInComment(Repository repo, FileType t, AbbreviatedObjectId id) {
+	/**
+	 * Extract URLs (or keywords) in comments of a blob.
+	 * The result is shared through URLCache, so that the list must not be modified.
+	 */
+	private List<URLInComment> readURLsInComment(FileType t, Blob blob) {
+		if (urlCache == null) {
+			return extractURLsInComment(t, blob);
+		}
+		List<URLInComment> urls = urlCache.get(blob.id);
+		if (urls == null) {
+			urls = extractURLsInComment(t, blob);
+			urlCache.put(blob.id, urls);
+		}
+		return urls;
+	}
+	
+	private List<URLInComment> extractURLsInComment(FileType t, Blob blob) {
 		ArrayList<URLInComment> urls = new ArrayList<>();
 		try {
 			// This may throw MissingObjectException
-			ObjectLoader reader = repo.newObjectReader().open(id.toObjectId()); 
+			ObjectLoader reader = blob.open(); 
 			CommentReader comments = null;
 			if (reader.isLarge()) {
 				comments = FileType.createCommentReader(t, reader.openStream());
 			} else {
 				byte[] content = reader.getCachedBytes();
-				if (!(new String(content).contains("http"))) return urls;
+				if (!matcher.isFoundIn(content, 0, content.length)) return urls;
 				comments = FileType.createCommentReader(t, content);
+				if (comments instanceof EmptyCommentReader) {
+					skippedFiles.incrementAndGet();
+				}
 			}
 				
 			if (comments != null) {
 				while (comments.next()) {
-					String text = comments.getText();
-					int httpindex = text.indexOf("http");
+					// Most comments do not include URLs; a String is created only for a URL 
+					CharSequence text = comments.getTextSequence();
+					List<KeywordMatcher.Match> matches = matcher.find(text);
+					if (keywordMode) {
+						for (KeywordMatcher.Match m: matches) {
+							urls.add(new URLInComment(matcher.getKeyword(m.getKeyword()), comments.getLine() + m.getLine(), comments.getLine()));
+						}
+						continue;
+					}
 					
-					while (httpindex >= 0) {
-						int endLineIndex = text.indexOf('\n', httpindex);
+					// A URL is taken from the first "http" in a line
+					int nextLineIndex = 0;
+					for (KeywordMatcher.Match m: matches) {
+						int httpindex = m.getStart();
+						if (httpindex < nextLineIndex) continue;
+						int endLineIndex = indexOf(text, '\n', httpindex);
 						if (endLineIndex < 0) endLineIndex = text.length();
 						
 						// Remove special symbols from the end of a http link.
 						// This code comes from a script that extracts http links from GitAnalyzer result. 
-						String line = text.substring(httpindex, endLineIndex);
+						String line = text.subSequence(httpindex, endLineIndex).toString();
 						if (line.endsWith("\r")) line = line.substring(0, line.length()-1);
 						int index = line.indexOf(' ');
 						if (index > 0) line = line.substring(0, index);
@@ -326,26 +920,29 @@ public class GitDiffAnalyzer implements AutoCloseable {
 						if (index > 0) line = line.substring(0, index);
 						if (line.endsWith(".")) line = line.substring(0, line.length()-1);
 						if (line.endsWith("\\")) line = line.substring(0, line.length()-1);
-						urls.add(new URLInComment(line, comments.getLine() + getRelativeLinePos(text, httpindex), comments.getLine()));
+						urls.add(new URLInComment(line, comments.getLine() + m.getLine(), comments.getLine()));
 						
-						httpindex = text.indexOf("http", endLineIndex+1);
+						nextLineIndex = endLineIndex+1;
 					}
 				}
 			}
 		} catch (MissingObjectException e) {
 		} catch (IOException e) {
+		} catch (StreamLimitException e) {
+			// URLs in a file exceeding the limit are not reported 
+			System.err.println("Error: " + blob.id.name() + " " + e.getMessage());
+			urls.clear();
 		}
 		return urls;
 	}
 	
-	private void analyzeModify(String pathName, Repository repo, FileType t, AbbreviatedObjectId oldVersion, AbbreviatedObjectId newVersion, EditList editlist) throws IOException {
-		List<URLInComment> oldURLs = readURLsInComment(repo, t, oldVersion);
-		List<URLInComment> newURLs = readURLsInComment(repo, t, newVersion);
+	private void analyzeModify(JsonGenerator gen, String pathName, FileType t, Blob oldVersion, Blob newVersion, EditList editlist) throws IOException {
+		List<URLInComment> oldURLs = readURLsInComment(t, oldVersion);
+		List<URLInComment> newURLs = readURLsInComment(t, newVersion);
 		if (oldURLs.size() == 0 && newURLs.size() == 0) return;
 		
 		int commentCount = 0;
-		gen.writeObjectFieldStart(pathName);
-		gen.writeStringField("FileEditType", "MODIFIED");
+		startFile(gen, pathName, "MODIFIED");
 		int oldIndex = 0;
 		int newIndex = 0;
 		for (Edit e: editlist) {
@@ -356,11 +953,11 @@ public class GitDiffAnalyzer implements AutoCloseable {
 					URLInComment url = newURLs.get(newIndex); 
 					if (e.getBeginB()+1 <= url.getLine() && url.getLine() < e.getEndB()+1) {
 						// Record the URL as ADDED
-						gen.writeObjectFieldStart(Integer.toString(commentCount++));
+						startURL(gen, commentCount++);
 						gen.writeStringField("Type", "ADDED");
-						gen.writeObjectField("NewURL", url.getURL());
-						gen.writeObjectField("NewLine", url.getLine());
-						gen.writeObjectField("NewCommentLine", url.getCommentStartLine());
+						gen.writeStringField("New" + itemName, url.getURL());
+						gen.writeNumberField("NewLine", url.getLine());
+						gen.writeNumberField("NewCommentLine", url.getCommentStartLine());
 						gen.writeEndObject();
 					} else if (url.getLine() >= e.getEndB()+1) {
 						// The URL should be checked for the next difference
@@ -373,11 +970,11 @@ public class GitDiffAnalyzer implements AutoCloseable {
 					URLInComment url = oldURLs.get(oldIndex); 
 					if (e.getBeginA()+1 <= url.getLine() && url.getLine() < e.getEndA()+1) {
 						// Record the URL as DELETED
-						gen.writeObjectFieldStart(Integer.toString(commentCount++));
+						startURL(gen, commentCount++);
 						gen.writeStringField("Type", "DELETED");
-						gen.writeObjectField("OldURL", url.getURL());
-						gen.writeObjectField("OldLine", url.getLine());
-						gen.writeObjectField("OldCommentLine", url.getCommentStartLine());
+						gen.writeStringField("Old" + itemName, url.getURL());
+						gen.writeNumberField("OldLine", url.getLine());
+						gen.writeNumberField("OldCommentLine", url.getCommentStartLine());
 						gen.writeEndObject();
 					} else if (url.getLine() >= e.getEndA()+1) {
 						// The URL should be checked for the next difference
@@ -411,20 +1008,20 @@ public class GitDiffAnalyzer implements AutoCloseable {
 				//
 				if (deleted.size() > 0 && added.size() == 0) { 
 					for (int i=0; i<deleted.size(); i++) {
-						gen.writeObjectFieldStart(Integer.toString(commentCount++));
+						startURL(gen, commentCount++);
 						gen.writeStringField("Type", "DELETED");
-						gen.writeObjectField("OldURL", deleted.get(i).getURL());
-						gen.writeObjectField("OldLine", deleted.get(i).getLine());
-						gen.writeObjectField("OldCommentLine", deleted.get(i).getCommentStartLine());
+						gen.writeStringField("Old" + itemName, deleted.get(i).getURL());
+						gen.writeNumberField("OldLine", deleted.get(i).getLine());
+						gen.writeNumberField("OldCommentLine", deleted.get(i).getCommentStartLine());
 						gen.writeEndObject();
 					}
 				} else if (deleted.size() == 0 && added.size() > 0) {
 					for (int i=0; i<added.size(); i++) {
-						gen.writeObjectFieldStart(Integer.toString(commentCount++));
+						startURL(gen, commentCount++);
 						gen.writeStringField("Type", "ADDED");
-						gen.writeObjectField("NewURL", added.get(i).getURL());
-						gen.writeObjectField("NewLine", added.get(i).getLine());
-						gen.writeObjectField("NewCommentLine", added.get(i).getCommentStartLine());
+						gen.writeStringField("New" + itemName, added.get(i).getURL());
+						gen.writeNumberField("NewLine", added.get(i).getLine());
+						gen.writeNumberField("NewCommentLine", added.get(i).getCommentStartLine());
 						gen.writeEndObject();
 					}
 				} else if (deleted.size() > 0 && added.size() > 0) {
@@ -441,19 +1038,19 @@ public class GitDiffAnalyzer implements AutoCloseable {
 						changed = true;
 					}
 					if (changed) {
-						gen.writeObjectFieldStart(Integer.toString(commentCount++));
+						startURL(gen, commentCount++);
 						gen.writeStringField("Type", "REPLACED");
-						gen.writeObjectField("OldURLCount", deleted.size());
-						gen.writeObjectField("NewURLCount", added.size());
+						gen.writeNumberField("Old" + itemName + "Count", deleted.size());
+						gen.writeNumberField("New" + itemName + "Count", added.size());
 						for (int i=0; i<deleted.size(); i++) {
-							gen.writeObjectField("OldURL" + (i+1), deleted.get(i).getURL());
-							gen.writeObjectField("OldLine" + (i+1), deleted.get(i).getLine());
-							gen.writeObjectField("OldCommentLine" + (i+1), deleted.get(i).getCommentStartLine());
+							gen.writeStringField("Old" + itemName + (i+1), deleted.get(i).getURL());
+							gen.writeNumberField("OldLine" + (i+1), deleted.get(i).getLine());
+							gen.writeNumberField("OldCommentLine" + (i+1), deleted.get(i).getCommentStartLine());
 						}
 						for (int i=0; i<added.size(); i++) {
-							gen.writeObjectField("NewURL" + (i+1), added.get(i).getURL());
-							gen.writeObjectField("NewLine" + (i+1), added.get(i).getLine());
-							gen.writeObjectField("NewCommentLine" + (i+1), added.get(i).getCommentStartLine());
+							gen.writeStringField("New" + itemName + (i+1), added.get(i).getURL());
+							gen.writeNumberField("NewLine" + (i+1), added.get(i).getLine());
+							gen.writeNumberField("NewCommentLine" + (i+1), added.get(i).getCommentStartLine());
 						}
 						gen.writeEndObject();
 					}
@@ -461,7 +1058,7 @@ public class GitDiffAnalyzer implements AutoCloseable {
 			}
 		}
 		
-		gen.writeEndObject();
+		endFile(gen);
 	}
 	
 	/**
@@ -229,7 +229,7 @@ public class GitFileCount implements AutoCloseable {
 		
 		public Counter(String pattern) {
 			this.pattern = pattern;
-			this.filter = new WildcardFileFilter(pattern);
+			this.filter = WildcardFileFilter.builder().setWildcards(pattern).get();
 		}
 		
 		public boolean accept(String filepath) {
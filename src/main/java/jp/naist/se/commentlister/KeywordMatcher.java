@@ -0,0 +1,299 @@
+package jp.naist.se.commentlister;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * An Aho-Corasick automaton to find multiple keywords in comments.
+ * A text is scanned once for all keywords; the time is proportional to the text length and the number of matches.
+ * Transitions for ASCII characters are stored in a table, so that a character is processed by an array access.
+ * Other characters follow failure links.
+ *
+ * If the case is ignored, letters are compared in lower case.
+ * A non-ASCII character is never regarded as an ASCII letter,
+ * so that a byte-level prefilter (isFoundIn) works for UTF-8 content.
+ */
+public class KeywordMatcher {
+
+	public static final String ARG_KEYWORDS = "-keywords=";
+	public static final String ARG_IGNORE_CASE = "-ignorecase";
+
+	private static final int ASCII = 128;
+
+	/**
+	 * A keyword found in a text
+	 */
+	public static class Match {
+
+		private int keyword;
+		private int start;
+		private int line;
+		private int column;
+
+		public Match(int keyword, int start, int line, int column) {
+			this.keyword = keyword;
+			this.start = start;
+			this.line = line;
+			this.column = column;
+		}
+
+		/**
+		 * @return the index of the keyword.
+		 */
+		public int getKeyword() {
+			return keyword;
+		}
+
+		/**
+		 * @return the index of the first character in the text.
+		 */
+		public int getStart() {
+			return start;
+		}
+
+		/**
+		 * @return the line in the text (0-origin).
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * @return the index of the first character in the line.
+		 */
+		public int getColumn() {
+			return column;
+		}
+	}
+
+	private ArrayList<String> keywords;
+	private boolean ignoreCase;
+	private boolean asciiOnly;
+
+	/**
+	 * The transition table for ASCII characters [state * ASCII + c]
+	 */
+	private int[] asciiNext;
+
+	/**
+	 * Transitions for non-ASCII characters of each state sorted by characters
+	 */
+	private char[][] keys;
+	private int[][] targets;
+
+	private int[] fail;
+
+	/**
+	 * A keyword recognized at a state.  -1 if none.
+	 */
+	private int[] keywordOf;
+
+	/**
+	 * The nearest state on the failure links recognizing a keyword.  -1 if none.
+	 */
+	private int[] outLink;
+
+	/**
+	 * Load keywords from a file.
+	 * Each line is a keyword.  Empty lines and lines starting with "#" are ignored.
+	 * Spaces around a keyword are removed.
+	 */
+	public static KeywordMatcher load(File file, boolean ignoreCase) throws IOException {
+		ArrayList<String> keywords = new ArrayList<>();
+		for (String line: Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				keywords.add(line);
+			}
+		}
+		return new KeywordMatcher(keywords, ignoreCase);
+	}
+
+	/**
+	 * Build an automaton.
+	 * @param keywords is a list of keywords.  Empty and duplicated keywords are ignored.
+	 * @param ignoreCase specifies whether the case of letters is ignored.
+	 */
+	public KeywordMatcher(List<String> keywords, boolean ignoreCase) {
+		this.keywords = new ArrayList<>();
+		this.ignoreCase = ignoreCase;
+		this.asciiOnly = true;
+
+		// Build a trie
+		ArrayList<TreeMap<Character, Integer>> children = new ArrayList<>();
+		ArrayList<Integer> terminal = new ArrayList<>();
+		children.add(new TreeMap<>());
+		terminal.add(-1);
+		for (String k: keywords) {
+			if (k.isEmpty()) continue;
+			int state = 0;
+			for (int i=0; i<k.length(); i++) {
+				char c = fold(k.charAt(i));
+				if (c >= ASCII) asciiOnly = false;
+				Integer next = children.get(state).get(c);
+				if (next == null) {
+					next = children.size();
+					children.add(new TreeMap<>());
+					terminal.add(-1);
+					children.get(state).put(c, next);
+				}
+				state = next;
+			}
+			if (terminal.get(state) < 0) {
+				terminal.set(state, this.keywords.size());
+				this.keywords.add(k);
+			}
+		}
+
+		int size = children.size();
+		asciiNext = new int[size * ASCII];
+		keys = new char[size][];
+		targets = new int[size][];
+		fail = new int[size];
+		keywordOf = new int[size];
+		outLink = new int[size];
+		for (int s=0; s<size; s++) {
+			keywordOf[s] = terminal.get(s);
+			ArrayList<Character> k = new ArrayList<>();
+			ArrayList<Integer> t = new ArrayList<>();
+			for (Map.Entry<Character, Integer> e: children.get(s).entrySet()) {
+				if (e.getKey() >= ASCII) {
+					k.add(e.getKey());
+					t.add(e.getValue());
+				}
+			}
+			keys[s] = new char[k.size()];
+			targets[s] = new int[t.size()];
+			for (int i=0; i<k.size(); i++) {
+				keys[s][i] = k.get(i);
+				targets[s][i] = t.get(i);
+			}
+		}
+
+		// Compute failure links in the breadth-first order,
+		// so that the transitions of a failure state are available
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		fail[0] = 0;
+		outLink[0] = -1;
+		for (int c=0; c<ASCII; c++) {
+			Integer child = children.get(0).get((char)c);
+			asciiNext[c] = child != null ? child : 0;
+		}
+		for (int child: children.get(0).values()) {
+			fail[child] = 0;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			int s = queue.poll();
+			outLink[s] = keywordOf[fail[s]] >= 0 ? fail[s] : outLink[fail[s]];
+			for (int c=0; c<ASCII; c++) {
+				Integer child = children.get(s).get((char)c);
+				asciiNext[s * ASCII + c] = child != null ? child : asciiNext[fail[s] * ASCII + c];
+			}
+			for (Map.Entry<Character, Integer> e: children.get(s).entrySet()) {
+				fail[e.getValue()] = next(fail[s], e.getKey());
+				queue.add(e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return a character compared with keywords.
+	 */
+	private char fold(char c) {
+		if (!ignoreCase) return c;
+		if (c < ASCII) {
+			return (c >= 'A' && c <= 'Z') ? (char)(c + ('a' - 'A')) : c;
+		}
+		char lower = Character.toLowerCase(c);
+		return lower < ASCII ? c : lower;
+	}
+
+	/**
+	 * @return the next state.  c must be folded.
+	 */
+	private int next(int state, char c) {
+		if (c < ASCII) return asciiNext[state * ASCII + c];
+		while (true) {
+			int i = Arrays.binarySearch(keys[state], c);
+			if (i >= 0) return targets[state][i];
+			if (state == 0) return 0;
+			state = fail[state];
+		}
+	}
+
+	/**
+	 * @return the number of keywords.
+	 */
+	public int getKeywordCount() {
+		return keywords.size();
+	}
+
+	/**
+	 * @return a keyword as written in the list.
+	 */
+	public String getKeyword(int index) {
+		return keywords.get(index);
+	}
+
+	/**
+	 * Find all occurrences of keywords.
+	 * @return matches in the order of their end positions.
+	 * Matches ending at the same position are ordered from the longest one.
+	 */
+	public List<Match> find(CharSequence text) {
+		List<Match> matches = Collections.emptyList();
+		int state = 0;
+		int line = 0;
+		int lineStart = 0;
+		for (int i=0; i<text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\n') {
+				line++;
+				lineStart = i + 1;
+			}
+			state = next(state, fold(c));
+			for (int s = keywordOf[state] >= 0 ? state : outLink[state]; s >= 0; s = outLink[s]) {
+				if (matches.isEmpty()) {
+					matches = new ArrayList<>();
+				}
+				int k = keywordOf[s];
+				int start = i - keywords.get(k).length() + 1;
+				matches.add(new Match(k, start, line, start - lineStart));
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Check whether bytes may include a keyword.
+	 * The bytes are regarded as ASCII or UTF-8 characters.
+	 * @return true if a keyword is found in content[start, end).
+	 * The method always returns true if a keyword includes a non-ASCII character.
+	 */
+	public boolean isFoundIn(byte[] content, int start, int end) {
+		if (!asciiOnly) return true;
+		int state = 0;
+		for (int i=start; i<end; i++) {
+			int c = content[i] & 0xFF;
+			if (c >= ASCII) {
+				state = 0;
+			} else {
+				state = asciiNext[state * ASCII + fold((char)c)];
+				if (keywordOf[state] >= 0 || outLink[state] >= 0) return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,314 @@
+package jp.naist.se.commentlister;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.storage.commitgraph.ChangedPathFilter;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphLoader;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectDatabase;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+
+/**
+ * This class computes the last modified time of all files in a revision
+ * using a single backward history walk.
+ *
+ * The result is the same as a path-limited RevWalk for each file:
+ * a file is traced back while its content is unchanged from a parent commit.
+ * At a merge commit, the file follows the first parent having the same content.
+ * The walk stops when the latest modifying commits of all files are found.
+ *
+ * If the repository has a commit-graph file with changed-path Bloom filters
+ * (written by "git commit-graph write --changed-paths"), 
+ * the filters are used to skip tree comparison of commits that do not touch the files.
+ * Both a single file and a chain of split commit-graph files ("--split") are loaded.
+ */
+public class LastModifiedFinder {
+
+	/**
+	 * If the number of files to be traced through a commit is smaller than this value,
+	 * the tree comparison is limited to the paths of the files, 
+	 * and changed-path Bloom filters are checked for the files.
+	 */
+	private static final int PATH_FILTER_LIMIT = 64;
+	
+	private static final String COMMIT_GRAPH_FILE = "info/commit-graph";
+	private static final String COMMIT_GRAPH_DIR = "info/commit-graphs";
+	private static final String COMMIT_GRAPH_CHAIN_FILE = "commit-graph-chain";
+
+	private Repository repo;
+	
+	/**
+	 * A single commit-graph or the layers of a commit-graph chain.
+	 * Each layer includes the commits added by the layer.
+	 */
+	private ArrayList<CommitGraph> commitGraphs;
+	private boolean changedPathFilterAvailable;
+	
+	/**
+	 * Raw bytes of paths to query Bloom filters.
+	 * A path including non-ASCII characters is mapped to null, 
+	 * since the hash values of such paths depend on the version of Git.
+	 */
+	private HashMap<String, byte[]> rawPaths;
+
+	public LastModifiedFinder(Repository repo) {
+		this.repo = repo;
+		this.commitGraphs = loadCommitGraphs(repo);
+		this.changedPathFilterAvailable = true;
+		this.rawPaths = new HashMap<>();
+	}
+	
+	/**
+	 * Load commit-graph files of a repository, including changed-path Bloom filters.
+	 * @return the commit-graphs.  
+	 * An empty list is returned if no commit-graph is available;
+	 * the last modified time is computed without the filters, and the fallback is reported once for the repository.
+	 */
+	private static ArrayList<CommitGraph> loadCommitGraphs(Repository repo) {
+		ArrayList<CommitGraph> graphs = new ArrayList<>();
+		ObjectDatabase db = repo.getObjectDatabase();
+		if (db instanceof ObjectDirectory) {
+			loadCommitGraphs(graphs, ((ObjectDirectory)db).getDirectory());
+		}
+		if (graphs.isEmpty()) {
+			System.err.println("Info: commit-graph is not found in " + repo.getDirectory() + ". Last modified time is computed without commit-graph.");
+		}
+		return graphs;
+	}
+
+	/**
+	 * Load a single commit-graph file and a commit-graph chain in an objects directory.
+	 */
+	private static void loadCommitGraphs(ArrayList<CommitGraph> graphs, File objects) {
+		
+		File single = new File(objects, COMMIT_GRAPH_FILE);
+		if (single.isFile()) {
+			addCommitGraph(graphs, single);
+		}
+		File dir = new File(objects, COMMIT_GRAPH_DIR);
+		File chain = new File(dir, COMMIT_GRAPH_CHAIN_FILE);
+		if (chain.isFile()) {
+			try {
+				for (String hash: Files.readAllLines(chain.toPath(), StandardCharsets.US_ASCII)) {
+					hash = hash.trim();
+					if (!hash.isEmpty()) {
+						addCommitGraph(graphs, new File(dir, "graph-" + hash + ".graph"));
+					}
+				}
+			} catch (IOException e) {
+				System.err.println("Warning: " + chain.getAbsolutePath() + " is not readable (" + e.getMessage() + "). Last modified time is computed without the chain.");
+			}
+		}
+	}
+	
+	/**
+	 * Load a commit-graph file.  An unreadable file is skipped with a warning.
+	 */
+	private static void addCommitGraph(ArrayList<CommitGraph> graphs, File f) {
+		try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
+			graphs.add(CommitGraphLoader.read(in, true));
+		} catch (IOException e) {
+			System.err.println("Warning: " + f.getAbsolutePath() + " is not readable (" + e.getMessage() + "). Last modified time is computed without the file.");
+		}
+	}
+
+	/**
+	 * @return the number of loaded commit-graph files.
+	 */
+	int getCommitGraphCount() {
+		return commitGraphs.size();
+	}
+
+	/**
+	 * Compute the last modified time of files.
+	 * @param target is a commit including the files.
+	 * @param paths is a collection of file paths in the commit.
+	 * @return a map from a path to the commit time (seconds from epoch) of the latest commit modifying the file.
+	 * The time is 0 if it is unavailable.
+	 */
+	public HashMap<String, Integer> find(AnyObjectId target, Collection<String> paths) {
+		HashMap<String, Integer> result = new HashMap<>(paths.size() * 2);
+		try (RevWalk rev = new RevWalk(repo)) {
+			try (TreeWalk walk = new TreeWalk(rev.getObjectReader())) {
+				walk.setRecursive(true);
+				Set<ObjectId> shallowCommits = rev.getObjectReader().getShallowCommits();
+
+				// Files are traced from newer commits to older commits
+				PriorityQueue<RevCommit> queue = new PriorityQueue<>(new Comparator<RevCommit>() {
+					@Override
+					public int compare(RevCommit o1, RevCommit o2) {
+						return Integer.compare(o2.getCommitTime(), o1.getCommitTime());
+					}
+				});
+				HashMap<RevCommit, HashSet<String>> pending = new HashMap<>();
+
+				RevCommit start = rev.parseCommit(target);
+				HashSet<String> files = new HashSet<>(paths);
+				int remaining = files.size();
+				moveTo(start, files, queue, pending);
+
+				while (remaining > 0 && !queue.isEmpty()) {
+					RevCommit c = queue.poll();
+					HashSet<String> tracing = pending.remove(c);
+					if (shallowCommits.contains(c) || c.getParentCount() == 0) {
+						// Files in a root commit are added by the commit
+						remaining -= settle(c, tracing, result);
+						continue;
+					}
+
+					// Files unchanged from the first parent are traced to the parent
+					RevCommit parent = c.getParent(0);
+					rev.parseHeaders(parent);
+					HashSet<String> changed = getChangedPaths(walk, parent.getTree(), c.getTree(), mayBeChanged(c, tracing));
+					tracing.removeAll(changed);
+					moveTo(parent, tracing, queue, pending);
+
+					// Files changed from the first parent may come from another parent of a merge
+					for (int i=1; i<c.getParentCount() && !changed.isEmpty(); i++) {
+						parent = c.getParent(i);
+						rev.parseHeaders(parent);
+						HashSet<String> changedFromParent = getChangedPaths(walk, parent.getTree(), c.getTree(), changed);
+						changed.removeAll(changedFromParent);
+						moveTo(parent, changed, queue, pending);
+						changed = changedFromParent;
+					}
+
+					// Files changed from all parents are modified by the commit
+					remaining -= settle(c, changed, result);
+				}
+			}
+		} catch (IOException e) {
+			// The time of files not settled is unavailable
+		}
+		for (String path: paths) {
+			result.putIfAbsent(path, 0);
+		}
+		return result;
+	}
+
+	/**
+	 * Select files that may be changed from the first parent using a changed-path Bloom filter.
+	 * @param c is a commit.
+	 * @param files is a set of files.
+	 * @return a subset of the files.  
+	 * The files themselves are returned if no filter is available.
+	 */
+	private HashSet<String> mayBeChanged(RevCommit c, HashSet<String> files) {
+		if (files.size() >= PATH_FILTER_LIMIT) return files;
+		
+		int pos = -1;
+		CommitGraph graph = null;
+		for (CommitGraph g: commitGraphs) {
+			pos = g.findGraphPosition(c);
+			if (pos >= 0) {
+				graph = g;
+				break;
+			}
+		}
+		if (graph == null) return files;
+		ChangedPathFilter filter = graph.getChangedPathFilter(pos);
+		if (filter == null) {
+			if (changedPathFilterAvailable) {
+				System.err.println("Info: commit-graph does not include changed-path Bloom filters. Last modified time is computed without the filters.");
+				changedPathFilterAvailable = false;
+			}
+			return files;
+		}
+		
+		HashSet<String> candidates = new HashSet<>();
+		for (String path: files) {
+			byte[] raw = rawPaths.computeIfAbsent(path, p -> toAsciiBytes(p));
+			if (raw == null || filter.maybeContains(raw)) {
+				candidates.add(path);
+			}
+		}
+		return candidates;
+	}
+	
+	/**
+	 * @return the bytes of a path.  null if the path includes a non-ASCII character.
+	 */
+	private static byte[] toAsciiBytes(String path) {
+		byte[] raw = path.getBytes();
+		for (byte b: raw) {
+			if (b < 0) return null;
+		}
+		return raw;
+	}
+
+	/**
+	 * Record a commit as the last modification of files.
+	 * @return the number of the files.
+	 */
+	private int settle(RevCommit c, HashSet<String> files, HashMap<String, Integer> result) {
+		for (String path: files) {
+			result.put(path, c.getCommitTime());
+		}
+		return files.size();
+	}
+
+	/**
+	 * Continue tracing files in a parent commit.
+	 * A commit may be reached from multiple children.
+	 */
+	private void moveTo(RevCommit c, HashSet<String> files, PriorityQueue<RevCommit> queue, HashMap<RevCommit, HashSet<String>> pending) {
+		if (files.isEmpty()) return;
+		HashSet<String> existing = pending.get(c);
+		if (existing == null) {
+			pending.put(c, files);
+			queue.add(c);
+		} else {
+			existing.addAll(files);
+		}
+	}
+
+	/**
+	 * Compare two trees.
+	 * @param oldTree
+	 * @param newTree
+	 * @param paths specifies files to be checked.
+	 * @return a set of paths whose modes or contents are different between the trees.
+	 */
+	private HashSet<String> getChangedPaths(TreeWalk walk, RevTree oldTree, RevTree newTree, HashSet<String> paths) throws IOException {
+		HashSet<String> changed = new HashSet<>();
+		if (paths.isEmpty()) return changed;
+		walk.reset(oldTree, newTree);
+		if (paths.size() < PATH_FILTER_LIMIT) {
+			walk.setFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(paths), TreeFilter.ANY_DIFF));
+		} else {
+			walk.setFilter(TreeFilter.ANY_DIFF);
+		}
+		while (walk.next()) {
+			String path = new String(walk.getRawPath());
+			if (paths.contains(path)) {
+				changed.add(path);
+			}
+		}
+		return changed;
+	}
+
+}
@@ -0,0 +1,61 @@
+package jp.naist.se.commentlister;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.core.util.Separators;
+
+/**
+ * Output formats of the analyzers.
+ * JSON writes a pretty-printed object for a run (or for each revision of GitAnalyzer).
+ * NDJSON writes one compact record per line and flushes each record,
+ * so that a downstream process can read records while the analysis is running.
+ * The last record of NDJSON is a summary.
+ * BINARY writes a columnar file at the end of a run (see BinaryWriter).
+ * It is available only for GitAnalyzer.
+ */
+public enum OutputFormat {
+
+	JSON, NDJSON, BINARY;
+
+	public static final String ARG_FORMAT = "-format=";
+
+	/**
+	 * @param name is a format name such as "json" and "ndjson".
+	 * @return a format.  null if the name is unknown.
+	 */
+	public static OutputFormat getFormat(String name) {
+		for (OutputFormat f: values()) {
+			if (f.name().equalsIgnoreCase(name)) return f;
+		}
+		System.err.println("Error: unknown format " + name);
+		return null;
+	}
+
+	/**
+	 * @return a generator writing to a stream in this format.
+	 * BINARY is regarded as JSON, since the format does not use a generator.
+	 */
+	public JsonGenerator createGenerator(OutputStream out) throws IOException {
+		JsonGenerator gen = new JsonFactory().createGenerator(out);
+		if (this != NDJSON) {
+			gen.setPrettyPrinter(new DefaultPrettyPrinter(new Separators().withRootSeparator(System.lineSeparator())));
+		} else {
+			// Records are separated by endRecord
+			gen.setRootValueSeparator(null);
+		}
+		return gen;
+	}
+
+	/**
+	 * Terminate an NDJSON record written as a root object, and flush it.
+	 */
+	public static void endRecord(JsonGenerator gen) throws IOException {
+		gen.writeRaw('\n');
+		gen.flush();
+	}
+
+}
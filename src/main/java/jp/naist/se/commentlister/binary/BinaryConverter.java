@@ -0,0 +1,236 @@
+package jp.naist.se.commentlister.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import jp.naist.se.commentlister.OutputFormat;
+
+/**
+ * This main class converts the JSON output of GitAnalyzer into the binary format and vice versa.
+ * It is intended to verify the binary format and to use existing JSON files.
+ */
+public class BinaryConverter {
+
+	private static final String ARG_TO_BINARY = "-tobinary";
+	private static final String ARG_TO_JSON = "-tojson";
+
+	public static void main(String[] args) {
+		if (args.length != 3 || !(args[0].equals(ARG_TO_BINARY) || args[0].equals(ARG_TO_JSON))) {
+			System.err.println("Usage: -tobinary input.json output.bin");
+			System.err.println("       -tojson input.bin output.json");
+			return;
+		}
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[2]))) {
+			if (args[0].equals(ARG_TO_BINARY)) {
+				toBinary(new File(args[1]), out);
+			} else {
+				toJSON(new BinaryReader(new File(args[1])), out);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Convert a JSON file written by GitAnalyzer (one or more revision objects).
+	 */
+	public static void toBinary(File json, OutputStream out) throws IOException {
+		try (BinaryWriter writer = new BinaryWriter(); JsonParser parser = new JsonFactory().createParser(json)) {
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				readRevision(parser, writer);
+			}
+			writer.writeTo(out);
+		}
+	}
+
+	/**
+	 * Read a revision object.  The parser is at the start of the object.
+	 */
+	private static void readRevision(JsonParser parser, BinaryWriter writer) throws IOException {
+		String repository = null;
+		String revision = null;
+		String objectId = null;
+		String commitTime = null;
+		LinkedHashMap<String, Integer> fileTypes = new LinkedHashMap<>();
+		LinkedHashMap<String, Integer> errorCounts = new LinkedHashMap<>();
+		long elapsedTime = 0;
+		boolean started = false;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			parser.nextToken();
+			if (name.equals("Repository")) {
+				repository = parser.getText();
+			} else if (name.equals("Revision")) {
+				revision = parser.getText();
+			} else if (name.equals("ObjectId")) {
+				objectId = parser.getText();
+			} else if (name.equals("CommitTime")) {
+				commitTime = parser.getText();
+			} else if (name.equals("Files")) {
+				if (started) {
+					throw new IOException("A revision object has multiple Files at " + parser.currentLocation());
+				}
+				writer.startRevision(repository, revision, objectId, commitTime);
+				started = true;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String path = parser.currentName();
+					parser.nextToken();
+					readFile(parser, writer, path);
+				}
+			} else if (name.equals("FileTypes")) {
+				readCounts(parser, fileTypes);
+			} else if (name.equals("ErrorCounts")) {
+				readCounts(parser, errorCounts);
+			} else if (name.equals("ElapsedTime")) {
+				elapsedTime = parser.getLongValue();
+			} else {
+				parser.skipChildren();
+			}
+		}
+		if (!started) {
+			// Revision columns would be misaligned without startRevision
+			throw new IOException("A revision object without Files at " + parser.currentLocation());
+		}
+		writer.endRevision(fileTypes, errorCounts, elapsedTime);
+	}
+
+	/**
+	 * Read a file object.  The parser is at the start of the object.
+	 * Comments are passed to the writer while they are read.
+	 */
+	private static void readFile(JsonParser parser, BinaryWriter writer, String path) throws IOException {
+		String objectId = null;
+		String lastModified = null;
+		String fileType = null;
+		String error = null;
+		String errorlog = null;
+		boolean started = false;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			parser.nextToken();
+			if (name.equals("ObjectId")) {
+				objectId = parser.getText();
+			} else if (name.equals("LastModified")) {
+				lastModified = parser.getText();
+			} else if (name.equals("FileType")) {
+				fileType = parser.getText();
+			} else if (name.equals("Error")) {
+				error = parser.getText();
+			} else if (name.equals("Errorlog")) {
+				errorlog = parser.getText();
+			} else if (parser.currentToken() == JsonToken.START_OBJECT) {
+				// A comment follows the attributes of the file
+				if (!started) {
+					writer.startFile(path, objectId, lastModified, fileType);
+					started = true;
+				}
+				String text = null;
+				int line = 0;
+				int charPositionInLine = 0;
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String attr = parser.currentName();
+					parser.nextToken();
+					if (attr.equals("Text")) {
+						text = parser.getText();
+					} else if (attr.equals("Line")) {
+						line = parser.getIntValue();
+					} else if (attr.equals("CharPositionInLine")) {
+						charPositionInLine = parser.getIntValue();
+					} else {
+						parser.skipChildren();
+					}
+				}
+				writer.addComment(text, line, charPositionInLine);
+			} else {
+				// CommentCount is the number of comments
+				parser.skipChildren();
+			}
+		}
+		if (!started) {
+			writer.startFile(path, objectId, lastModified, fileType);
+		}
+		writer.endFile(error, errorlog);
+	}
+
+	private static void readCounts(JsonParser parser, LinkedHashMap<String, Integer> counts) throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			parser.nextToken();
+			counts.put(name, parser.getIntValue());
+		}
+	}
+
+	/**
+	 * Write the content of a binary file in the JSON format of GitAnalyzer.
+	 */
+	public static void toJSON(BinaryReader reader, OutputStream out) throws IOException {
+		try (JsonGenerator gen = OutputFormat.JSON.createGenerator(out)) {
+			for (int r=0; r<reader.getRevisionCount(); r++) {
+				gen.writeStartObject();
+				gen.writeStringField("Repository", reader.getRepository(r));
+				gen.writeStringField("Revision", reader.getRevision(r));
+				gen.writeStringField("ObjectId", reader.getRevisionObjectId(r));
+				gen.writeStringField("CommitTime", reader.getCommitTime(r));
+				gen.writeObjectFieldStart("Files");
+				for (int f=reader.getFirstFile(r); f<reader.getFirstFile(r+1); f++) {
+					writeFile(gen, reader, f);
+				}
+				gen.writeEndObject();
+				gen.writeObjectFieldStart("FileTypes");
+				writeCounts(gen, reader, r, true);
+				gen.writeEndObject();
+				gen.writeObjectFieldStart("ErrorCounts");
+				writeCounts(gen, reader, r, false);
+				gen.writeEndObject();
+				gen.writeNumberField("ElapsedTime", reader.getElapsedTime(r));
+				gen.writeEndObject();
+			}
+		}
+	}
+
+	private static void writeFile(JsonGenerator gen, BinaryReader reader, int f) throws IOException {
+		gen.writeObjectFieldStart(reader.getPath(f));
+		gen.writeStringField("ObjectId", reader.getObjectId(f));
+		gen.writeStringField("LastModified", reader.getLastModified(f));
+		gen.writeStringField("FileType", reader.getFileType(f));
+		String error = reader.getError(f);
+		if (error == null) {
+			int first = reader.getFirstComment(f);
+			int count = reader.getCommentCount(f);
+			for (int i=0; i<count; i++) {
+				gen.writeObjectFieldStart(Integer.toString(i));
+				gen.writeStringField("Text", reader.getText(first + i));
+				gen.writeNumberField("Line", reader.getLine(first + i));
+				gen.writeNumberField("CharPositionInLine", reader.getCharPositionInLine(first + i));
+				gen.writeEndObject();
+			}
+			gen.writeNumberField("CommentCount", count);
+		} else {
+			gen.writeStringField("Error", error);
+			gen.writeNumberField("CommentCount", 0);
+		}
+		String errorlog = reader.getErrorlog(f);
+		if (errorlog != null) {
+			gen.writeStringField("Errorlog", errorlog);
+		}
+		gen.writeEndObject();
+	}
+
+	private static void writeCounts(JsonGenerator gen, BinaryReader reader, int r, boolean fileTypes) throws IOException {
+		for (int s=reader.getFirstSummary(r); s<reader.getFirstSummary(r+1); s++) {
+			if (reader.isFileTypeSummary(s) == fileTypes) {
+				gen.writeNumberField(reader.getSummaryFileType(s), reader.getSummaryCount(s));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,307 @@
+package jp.naist.se.commentlister.binary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This object reads a file written by BinaryWriter through memory-mapped buffers.
+ * Values are read on demand, so that comments of a file are accessible without reading the whole file.
+ * Revisions, files and comments are identified by their indices.
+ * An instance can be shared by multiple threads.
+ */
+public class BinaryReader {
+
+	/**
+	 * A file is mapped as segments of this size.
+	 * Adjacent segments overlap by 8 bytes, so that a number never crosses a segment boundary.
+	 */
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private MappedByteBuffer[] segments;
+	private long[] offsets;
+
+	private int stringCount;
+	private int revisionCount;
+	private int fileCount;
+	private int commentCount;
+
+	/**
+	 * Open a file.
+	 * @throws IOException if the file is not readable or not in the binary format.
+	 */
+	public BinaryReader(File file) throws IOException {
+		long size;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			size = channel.size();
+			if (size < Column.HEADER_SIZE) {
+				throw new IOException(file + " is not a binary comment file");
+			}
+			segments = new MappedByteBuffer[(int)((size - 1) >>> SEGMENT_BITS) + 1];
+			for (int i=0; i<segments.length; i++) {
+				long start = i * SEGMENT_SIZE;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, SEGMENT_SIZE + 8));
+			}
+		}
+		if (getInt(0) != Column.MAGIC || getInt(4) != Column.VERSION) {
+			throw new IOException(file + " is not a binary comment file");
+		}
+		int[] counts = new int[Column.Rows.TABLES];
+		for (int i=0; i<counts.length; i++) {
+			counts[i] = getInt(8 + 4L * i);
+		}
+		stringCount = counts[Column.Rows.STRINGS];
+		revisionCount = counts[Column.Rows.REVISIONS];
+		fileCount = counts[Column.Rows.FILES];
+		commentCount = counts[Column.Rows.COMMENTS];
+		offsets = new long[Column.values().length];
+		for (int i=0; i<offsets.length; i++) {
+			offsets[i] = getLong(28 + 8L * i);
+		}
+		checkColumns(file, size, counts);
+	}
+
+	/**
+	 * Check that the columns are consecutive and their sizes match the numbers of rows in the header,
+	 * so that an access to a truncated or corrupt file does not exceed the file.
+	 * @throws IOException if the file is corrupt.
+	 */
+	private void checkColumns(File file, long size, int[] counts) throws IOException {
+		for (int count: counts) {
+			if (count < 0) throw new IOException(file + " is corrupt (a negative number of rows)");
+		}
+		long expected = Column.HEADER_SIZE;
+		for (Column c: Column.values()) {
+			long start = offsets[c.ordinal()];
+			long length = c.getSize(counts);
+			if (c == Column.STRING_DATA) {
+				// The last element of STRING_OFFSET is the size of STRING_DATA
+				length = getLong(offsets[Column.STRING_OFFSET.ordinal()] + 8L * stringCount);
+			}
+			if (start != expected || length < 0 || start + length > size) {
+				throw new IOException(file + " is corrupt (column " + c + ")");
+			}
+			expected = start + length;
+		}
+	}
+
+	private int getInt(long pos) {
+		return segments[(int)(pos >>> SEGMENT_BITS)].getInt((int)(pos & SEGMENT_MASK));
+	}
+
+	private long getLong(long pos) {
+		return segments[(int)(pos >>> SEGMENT_BITS)].getLong((int)(pos & SEGMENT_MASK));
+	}
+
+	/**
+	 * @return the index-th element of a column.
+	 */
+	private int get(Column c, int index) {
+		return getInt(offsets[c.ordinal()] + 4L * index);
+	}
+
+	/**
+	 * @return a string referred by the index-th element of a column.
+	 */
+	private String getString(Column c, int index) {
+		return getString(get(c, index));
+	}
+
+	/**
+	 * @param id is an index of the string table.
+	 * @return the string.  null if id is -1.
+	 */
+	public String getString(int id) {
+		if (id < 0) return null;
+		long start = getLong(offsets[Column.STRING_OFFSET.ordinal()] + 8L * id);
+		long end = getLong(offsets[Column.STRING_OFFSET.ordinal()] + 8L * (id + 1));
+		byte[] b = new byte[(int)(end - start)];
+		long pos = offsets[Column.STRING_DATA.ordinal()] + start;
+		int copied = 0;
+		while (copied < b.length) {
+			// A string may cross a segment boundary
+			ByteBuffer segment = segments[(int)(pos >>> SEGMENT_BITS)].duplicate();
+			int offset = (int)(pos & SEGMENT_MASK);
+			int length = (int)Math.min(b.length - copied, SEGMENT_SIZE - offset);
+			segment.position(offset);
+			segment.get(b, copied, length);
+			copied += length;
+			pos += length;
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	public int getStringCount() {
+		return stringCount;
+	}
+
+	public int getRevisionCount() {
+		return revisionCount;
+	}
+
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	public int getCommentCount() {
+		return commentCount;
+	}
+
+	public String getRepository(int revision) {
+		return getString(Column.REVISION_REPOSITORY, revision);
+	}
+
+	public String getRevision(int revision) {
+		return getString(Column.REVISION_NAME, revision);
+	}
+
+	public String getRevisionObjectId(int revision) {
+		return getString(Column.REVISION_OBJECT_ID, revision);
+	}
+
+	public String getCommitTime(int revision) {
+		return getString(Column.REVISION_COMMIT_TIME, revision);
+	}
+
+	public long getElapsedTime(int revision) {
+		return getLong(offsets[Column.REVISION_ELAPSED_TIME.ordinal()] + 8L * revision);
+	}
+
+	/**
+	 * @return the first file of a revision.
+	 * Files of a revision are [getFirstFile(r), getFirstFile(r+1)).
+	 */
+	public int getFirstFile(int revision) {
+		return get(Column.REVISION_FIRST_FILE, revision);
+	}
+
+	/**
+	 * @return the first summary entry of a revision.
+	 * Entries of a revision are [getFirstSummary(r), getFirstSummary(r+1)).
+	 */
+	public int getFirstSummary(int revision) {
+		return get(Column.REVISION_FIRST_SUMMARY, revision);
+	}
+
+	/**
+	 * @return true if a summary entry is a number of files in "FileTypes".
+	 * false if it is a number of errors in "ErrorCounts".
+	 */
+	public boolean isFileTypeSummary(int summary) {
+		return get(Column.SUMMARY_KIND, summary) == Column.SUMMARY_FILE_TYPES;
+	}
+
+	public String getSummaryFileType(int summary) {
+		return getString(Column.SUMMARY_TYPE, summary);
+	}
+
+	public int getSummaryCount(int summary) {
+		return get(Column.SUMMARY_COUNT, summary);
+	}
+
+	/**
+	 * @return the revision including a file.
+	 */
+	public int getFileRevision(int file) {
+		return get(Column.FILE_REVISION, file);
+	}
+
+	public String getPath(int file) {
+		return getString(Column.FILE_PATH, file);
+	}
+
+	public String getObjectId(int file) {
+		return getString(Column.FILE_OBJECT_ID, file);
+	}
+
+	public String getLastModified(int file) {
+		return getString(Column.FILE_LAST_MODIFIED, file);
+	}
+
+	public String getFileType(int file) {
+		return getString(Column.FILE_TYPE, file);
+	}
+
+	/**
+	 * @return an error of the extraction.  null if the extraction is successful.
+	 */
+	public String getError(int file) {
+		return getString(Column.FILE_ERROR, file);
+	}
+
+	/**
+	 * @return messages reported during the extraction.  null if no messages are reported.
+	 */
+	public String getErrorlog(int file) {
+		return getString(Column.FILE_ERRORLOG, file);
+	}
+
+	/**
+	 * @return the first comment of a file.
+	 * Comments of a file are [getFirstComment(f), getFirstComment(f+1)).
+	 */
+	public int getFirstComment(int file) {
+		return get(Column.FILE_FIRST_COMMENT, file);
+	}
+
+	public int getCommentCount(int file) {
+		return get(Column.FILE_FIRST_COMMENT, file + 1) - get(Column.FILE_FIRST_COMMENT, file);
+	}
+
+	public String getText(int comment) {
+		return getString(Column.COMMENT_TEXT, comment);
+	}
+
+	public int getLine(int comment) {
+		return get(Column.COMMENT_LINE, comment);
+	}
+
+	public int getCharPositionInLine(int comment) {
+		return get(Column.COMMENT_CHAR_POSITION, comment);
+	}
+
+	/**
+	 * Find files by a path using the path index.
+	 * @return indices of files having the path in the order of revisions.
+	 * An empty array if no files have the path.
+	 */
+	public int[] findFiles(String path) {
+		// Binary search for the first entry of the path
+		int low = 0;
+		int high = fileCount;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getPath(get(Column.PATH_INDEX, mid)).compareTo(path) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		int end = low;
+		while (end < fileCount && getPath(get(Column.PATH_INDEX, end)).equals(path)) {
+			end++;
+		}
+		int[] result = new int[end - low];
+		for (int i=0; i<result.length; i++) {
+			result[i] = get(Column.PATH_INDEX, low + i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a file of a revision having the path.  -1 if not found.
+	 */
+	public int findFile(int revision, String path) {
+		for (int f: findFiles(path)) {
+			if (getFileRevision(f) == revision) return f;
+		}
+		return -1;
+	}
+
+}
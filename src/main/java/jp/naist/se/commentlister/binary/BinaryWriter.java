@@ -0,0 +1,282 @@
+package jp.naist.se.commentlister.binary;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jp.naist.se.commentlister.FileComments;
+
+/**
+ * This object collects the result of GitAnalyzer and writes it in a binary columnar format (see Column).
+ * Each column is appended to a temporary file while files are added,
+ * and writeTo concatenates the columns into the output.
+ * Strings such as paths and comments are stored in a string table.
+ * Recently used strings are shared by their references;
+ * a string evicted from the bounded dictionary is stored again when it appears next time.
+ * Only the dictionary and the paths for the path index are kept in memory.
+ */
+public class BinaryWriter implements AutoCloseable {
+
+	/**
+	 * The default maximum number of characters of strings in the dictionary
+	 */
+	private static final long DICTIONARY_CHARS = 16L * 1024 * 1024;
+
+	private long maxDictionaryChars;
+
+	/**
+	 * String IDs in the order of access (least recently used first)
+	 */
+	private LinkedHashMap<String, Integer> stringIds = new LinkedHashMap<>(1024, 0.75f, true);
+	private long dictionaryChars;
+	private int strings;
+	private long stringBytes;
+
+	/**
+	 * Files having each path in the order of file indices
+	 */
+	private HashMap<String, IntArray> pathFiles = new HashMap<>();
+
+	private File dir;
+	private ColumnFile[] columns;
+
+	private int revisions;
+	private int files;
+	private int comments;
+	private int summaries;
+
+	/**
+	 * Create temporary files for columns.
+	 */
+	public BinaryWriter() throws IOException {
+		this(DICTIONARY_CHARS);
+	}
+
+	/**
+	 * @param maxDictionaryChars is the maximum number of characters of strings in the dictionary.
+	 */
+	BinaryWriter(long maxDictionaryChars) throws IOException {
+		this.maxDictionaryChars = maxDictionaryChars;
+		dir = Files.createTempDirectory("commentlister").toFile();
+		columns = new ColumnFile[Column.values().length];
+		try {
+			for (Column c: Column.values()) {
+				columns[c.ordinal()] = new ColumnFile(new File(dir, c.name()));
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		columns[Column.STRING_OFFSET.ordinal()].out.writeLong(0);
+	}
+
+	/**
+	 * @return the index of a string in the string table.  -1 for null.
+	 */
+	private int getStringId(String s) throws IOException {
+		if (s == null) return -1;
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			columns[Column.STRING_DATA.ordinal()].out.write(bytes);
+			stringBytes += bytes.length;
+			columns[Column.STRING_OFFSET.ordinal()].out.writeLong(stringBytes);
+			id = strings++;
+			stringIds.put(s, id);
+			dictionaryChars += s.length();
+			Iterator<String> it = stringIds.keySet().iterator();
+			while (dictionaryChars > maxDictionaryChars && it.hasNext()) {
+				dictionaryChars -= it.next().length();
+				it.remove();
+			}
+		}
+		return id;
+	}
+
+	private void add(Column c, int value) throws IOException {
+		columns[c.ordinal()].out.writeInt(value);
+	}
+
+	private void addString(Column c, String value) throws IOException {
+		add(c, getStringId(value));
+	}
+
+	/**
+	 * Start a revision.  Files added after this call belong to the revision.
+	 */
+	public void startRevision(String repository, String revision, String objectId, String commitTime) throws IOException {
+		addString(Column.REVISION_REPOSITORY, repository);
+		addString(Column.REVISION_NAME, revision);
+		addString(Column.REVISION_OBJECT_ID, objectId);
+		addString(Column.REVISION_COMMIT_TIME, commitTime);
+		add(Column.REVISION_FIRST_FILE, files);
+		add(Column.REVISION_FIRST_SUMMARY, summaries);
+	}
+
+	/**
+	 * Add a file of the current revision.
+	 */
+	public void addFile(String path, String objectId, String lastModified, String fileType, FileComments c) throws IOException {
+		startFile(path, objectId, lastModified, fileType);
+		for (int i=0; i<c.size(); i++) {
+			addComment(c.getText(i), c.getLine(i), c.getCharPositionInLine(i));
+		}
+		endFile(c.getError(), c.getErrorlog());
+	}
+
+	/**
+	 * Start a file of the current revision.  Comments added after this call belong to the file.
+	 */
+	public void startFile(String path, String objectId, String lastModified, String fileType) throws IOException {
+		add(Column.FILE_REVISION, revisions);
+		addString(Column.FILE_PATH, path);
+		addString(Column.FILE_OBJECT_ID, objectId);
+		addString(Column.FILE_LAST_MODIFIED, lastModified);
+		addString(Column.FILE_TYPE, fileType);
+		add(Column.FILE_FIRST_COMMENT, comments);
+		pathFiles.computeIfAbsent(path, p -> new IntArray()).add(files);
+	}
+
+	public void addComment(String text, int line, int charPositionInLine) throws IOException {
+		add(Column.COMMENT_LINE, line);
+		add(Column.COMMENT_CHAR_POSITION, charPositionInLine);
+		addString(Column.COMMENT_TEXT, text);
+		comments++;
+	}
+
+	/**
+	 * Finish the current file.
+	 * @param error is an error of the extraction.  null if the extraction is successful.
+	 * @param errorlog is messages reported during the extraction.  null if no messages are reported.
+	 */
+	public void endFile(String error, String errorlog) throws IOException {
+		addString(Column.FILE_ERROR, error);
+		addString(Column.FILE_ERRORLOG, errorlog);
+		files++;
+	}
+
+	/**
+	 * Finish the current revision.
+	 * @param fileTypes is the number of files for each file type.
+	 * @param errorCounts is the number of error messages for each file type.
+	 * @param elapsed is the elapsed time in milliseconds.
+	 */
+	public void endRevision(Map<String, Integer> fileTypes, Map<String, Integer> errorCounts, long elapsed) throws IOException {
+		addSummary(Column.SUMMARY_FILE_TYPES, fileTypes);
+		addSummary(Column.SUMMARY_ERROR_COUNTS, errorCounts);
+		columns[Column.REVISION_ELAPSED_TIME.ordinal()].out.writeLong(elapsed);
+		revisions++;
+	}
+
+	private void addSummary(int kind, Map<String, Integer> counts) throws IOException {
+		for (Map.Entry<String, Integer> e: counts.entrySet()) {
+			add(Column.SUMMARY_KIND, kind);
+			addString(Column.SUMMARY_TYPE, e.getKey());
+			add(Column.SUMMARY_COUNT, e.getValue());
+			summaries++;
+		}
+	}
+
+	/**
+	 * Write the collected data.  The stream is not closed.
+	 * No data can be added after this call.
+	 */
+	public void writeTo(OutputStream stream) throws IOException {
+		// Terminate FIRST columns
+		add(Column.REVISION_FIRST_FILE, files);
+		add(Column.REVISION_FIRST_SUMMARY, summaries);
+		add(Column.FILE_FIRST_COMMENT, comments);
+		writePathIndex();
+		for (ColumnFile c: columns) {
+			c.out.close();
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+		out.writeInt(Column.MAGIC);
+		out.writeInt(Column.VERSION);
+		out.writeInt(strings);
+		out.writeInt(revisions);
+		out.writeInt(files);
+		out.writeInt(comments);
+		out.writeInt(summaries);
+		long offset = Column.HEADER_SIZE;
+		for (ColumnFile c: columns) {
+			out.writeLong(offset);
+			offset += c.file.length();
+		}
+		for (ColumnFile c: columns) {
+			Files.copy(c.file.toPath(), out);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Write file indices sorted by paths.  Files having the same path are sorted by their indices.
+	 */
+	private void writePathIndex() throws IOException {
+		ArrayList<String> paths = new ArrayList<>(pathFiles.keySet());
+		Collections.sort(paths);
+		for (String path: paths) {
+			IntArray index = pathFiles.get(path);
+			for (int i=0; i<index.size; i++) {
+				add(Column.PATH_INDEX, index.values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Remove the temporary files.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (ColumnFile c: columns) {
+			if (c != null) {
+				c.out.close();
+				Files.deleteIfExists(c.file.toPath());
+			}
+		}
+		Files.deleteIfExists(dir.toPath());
+	}
+
+	/**
+	 * A temporary file of a column
+	 */
+	private static class ColumnFile {
+
+		private File file;
+		private DataOutputStream out;
+
+		public ColumnFile(File file) throws IOException {
+			this.file = file;
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath()), 1 << 16));
+		}
+	}
+
+	/**
+	 * A growable array of file indices
+	 */
+	private static class IntArray {
+
+		private int[] values = new int[4];
+		private int size;
+
+		public void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+package jp.naist.se.commentlister.binary;
+
+/**
+ * Columns of the binary format in the order of the file.
+ * A file starts with a header:
+ * MAGIC, VERSION, the numbers of rows (strings, revisions, files, comments and summaries),
+ * and the offset of each column.
+ * Each column is an array of fixed-size big-endian values, except for STRING_DATA.
+ * A string is referred by its index in the string table; -1 represents null.
+ * A FIRST column has an extra element at the end, so that
+ * rows of an entity i are [FIRST[i], FIRST[i+1]) in a child table.
+ */
+enum Column {
+
+	/** Byte offsets of strings in STRING_DATA (strings + 1 elements) */
+	STRING_OFFSET(8, Rows.STRINGS, 1),
+	/** UTF-8 bytes of all strings */
+	STRING_DATA(1, Rows.BYTES, 0),
+
+	REVISION_REPOSITORY(4, Rows.REVISIONS, 0),
+	REVISION_NAME(4, Rows.REVISIONS, 0),
+	REVISION_OBJECT_ID(4, Rows.REVISIONS, 0),
+	REVISION_COMMIT_TIME(4, Rows.REVISIONS, 0),
+	REVISION_ELAPSED_TIME(8, Rows.REVISIONS, 0),
+	/** The first file of a revision (revisions + 1 elements) */
+	REVISION_FIRST_FILE(4, Rows.REVISIONS, 1),
+	/** The first summary of a revision (revisions + 1 elements) */
+	REVISION_FIRST_SUMMARY(4, Rows.REVISIONS, 1),
+
+	FILE_REVISION(4, Rows.FILES, 0),
+	FILE_PATH(4, Rows.FILES, 0),
+	FILE_OBJECT_ID(4, Rows.FILES, 0),
+	FILE_LAST_MODIFIED(4, Rows.FILES, 0),
+	FILE_TYPE(4, Rows.FILES, 0),
+	FILE_ERROR(4, Rows.FILES, 0),
+	FILE_ERRORLOG(4, Rows.FILES, 0),
+	/** The first comment of a file (files + 1 elements) */
+	FILE_FIRST_COMMENT(4, Rows.FILES, 1),
+
+	COMMENT_LINE(4, Rows.COMMENTS, 0),
+	COMMENT_CHAR_POSITION(4, Rows.COMMENTS, 0),
+	COMMENT_TEXT(4, Rows.COMMENTS, 0),
+
+	/** SUMMARY_FILE_TYPES or SUMMARY_ERROR_COUNTS */
+	SUMMARY_KIND(4, Rows.SUMMARIES, 0),
+	/** The name of a file type */
+	SUMMARY_TYPE(4, Rows.SUMMARIES, 0),
+	SUMMARY_COUNT(4, Rows.SUMMARIES, 0),
+
+	/** File indices sorted by their paths (files elements) */
+	PATH_INDEX(4, Rows.FILES, 0);
+
+	/**
+	 * Indices of the numbers of rows in the header
+	 */
+	static class Rows {
+		static final int STRINGS = 0;
+		static final int REVISIONS = 1;
+		static final int FILES = 2;
+		static final int COMMENTS = 3;
+		static final int SUMMARIES = 4;
+		/** The size is not determined by the header */
+		static final int BYTES = -1;
+		static final int TABLES = 5;
+	}
+
+	static final int MAGIC = 0x434C4231;
+	static final int VERSION = 1;
+
+	static final int SUMMARY_FILE_TYPES = 0;
+	static final int SUMMARY_ERROR_COUNTS = 1;
+
+	/**
+	 * The size of the header in bytes
+	 */
+	static final int HEADER_SIZE = 4 * 7 + 8 * values().length;
+
+	private final int width;
+	private final int table;
+	private final int extra;
+
+	/**
+	 * @param table is the index of the number of rows in the header, or Rows.BYTES.
+	 * @param extra is the number of elements following the rows.
+	 */
+	private Column(int width, int table, int extra) {
+		this.width = width;
+		this.table = table;
+		this.extra = extra;
+	}
+
+	/**
+	 * @param counts is the numbers of rows in the header (strings, revisions, files, comments and summaries).
+	 * @return the size of the column in bytes.  -1 for STRING_DATA, whose size is the last element of STRING_OFFSET.
+	 */
+	long getSize(int[] counts) {
+		if (table == Rows.BYTES) return -1;
+		return ((long)counts[table] + extra) * width;
+	}
+}
@@ -11,28 +11,55 @@ public class AntlrCommentReader implements CommentReader {
 	private Lexer lexer;
 	private Filter filter;
 	private Token current;
+	private String text;
+	private FileType pooledType;
 	
 	/**
 	 * @param lexer
 	 * @param filter defines a condition to select "comments" from lexer.
 	 */
 	public AntlrCommentReader(Lexer lexer, Filter filter) {
+		this(lexer, filter, null);
+	}
+	
+	/**
+	 * @param lexer
+	 * @param filter defines a condition to select "comments" from lexer.
+	 * @param pooledType specifies a file type if the lexer is returned to LexerPool at EOF.
+	 */
+	public AntlrCommentReader(Lexer lexer, Filter filter, FileType pooledType) {
 		this.lexer = lexer;
 		this.filter = filter;
+		this.pooledType = pooledType;
 	}
 	
 	@Override
 	public boolean next() {
+		if (lexer == null) return false;
+		text = null;
 		current = lexer.nextToken();
 		while (!filter.accept(current) && current.getType() != Lexer.EOF) {
 			current = lexer.nextToken();
 		}
-		return current.getType() != Lexer.EOF;
+		if (current.getType() == Lexer.EOF) {
+			if (pooledType != null) {
+				LexerPool.release(pooledType, lexer);
+			}
+			lexer = null;
+			return false;
+		}
+		return true;
 	}
 	
+	/**
+	 * A token creates a new string for each call, so that the text is kept until next().
+	 */
 	@Override
 	public String getText() {
-		return current.getText();
+		if (text == null) {
+			text = current.getText();
+		}
+		return text;
 	}
 	
 	@Override
@@ -45,6 +72,16 @@ public class AntlrCommentReader implements CommentReader {
 		return current.getCharPositionInLine();
 	}
 	
+	@Override
+	public int getStartOffset() {
+		return current.getStartIndex();
+	}
+	
+	@Override
+	public int getEndOffset() {
+		return current.getStopIndex() + 1;
+	}
+	
 	public static interface Filter {
 		/**
 		 * A method to classify a token to comment and non-comment. 
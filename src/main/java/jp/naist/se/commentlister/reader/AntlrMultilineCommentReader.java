@@ -1,94 +1,29 @@
 package jp.naist.se.commentlister.reader;
 
-import java.util.ArrayList;
-
 import org.antlr.v4.runtime.Lexer;
-import org.antlr.v4.runtime.Token;
 
 /**
  * Read multiple single-line comments in consecutive lines 
  * as a single multi-line comment. 
  */
-public class AntlrMultilineCommentReader implements CommentReader {
-
-	private static class Comment {
-		private String text;
-		private int line;
-		private int endLine;
-		private int charPositionInLine;
-		
-		public Comment(String t, int l, int charpos) {
-			this.text = t;
-			this.line = l;
-			this.endLine = l;
-			this.charPositionInLine = charpos;
-		}
-		
-		/**
-		 * A line comment is linked to the previous line comment 
-		 * if they are consecutive lines and start the same character position.
-		 * @param t 
-		 * @param l
-		 * @param charpos
-		 * @return
-		 */
-		public boolean isContinue(int l, int charpos) {
-			return (this.endLine == l) || (this.endLine + 1 == l && this.charPositionInLine == charpos);
-		}
-		
-		public void append(String t, int l) {
-			if (this.endLine == l) {
-				this.text = this.text + " " + t;
-			} else {
-				this.text = this.text + "\n" + t;
-				this.endLine = l;
-			}
-		}
-		
-		public String toString() {
-			return text + " (line=" + line + ", endLine=" + endLine + ", charPos=" + charPositionInLine+ ")"; 
-		}
-	}
+public class AntlrMultilineCommentReader extends MultilineCommentReader {
 
-	private ArrayList<Comment> comments;
-	private int index;
-	
+	/**
+	 * @param lexer
+	 * @param filter defines a condition to select "comments" from lexer.
+	 * Tokens are read when next() is called, so that comments are not buffered.
+	 */
 	public AntlrMultilineCommentReader(Lexer lexer, AntlrCommentReader.Filter filter) {
-		this.comments = new ArrayList<>();
-		this.index = -1;
-		
-		Comment lastComment = null;
-		for (Token t = lexer.nextToken(); t.getType() != Lexer.EOF; t = lexer.nextToken()) {
-			if (filter.accept(t)) {
-				if (lastComment != null && lastComment.isContinue(t.getLine(), t.getCharPositionInLine())) {
-					lastComment.append(t.getText(), t.getLine());
-				} else {
-					lastComment = new Comment(t.getText(), t.getLine(), t.getCharPositionInLine());
-					comments.add(lastComment);
-				}
-			}
-		}
-	}
-	
-	@Override
-	public boolean next() {
-		index++;
-		return index < comments.size();
-	}
-	
-	@Override
-	public String getText() {
-		return comments.get(index).text;
+		super(new AntlrCommentReader(lexer, filter));
 	}
 	
-	@Override
-	public int getLine() {
-		return comments.get(index).line;
+	/**
+	 * @param lexer
+	 * @param filter defines a condition to select "comments" from lexer.
+	 * @param pooledType specifies a file type if the lexer is returned to LexerPool at EOF.
+	 */
+	public AntlrMultilineCommentReader(Lexer lexer, AntlrCommentReader.Filter filter, FileType pooledType) {
+		super(new AntlrCommentReader(lexer, filter, pooledType));
 	}
 	
-	@Override
-	public int getCharPositionInLine() {
-		return comments.get(index).charPositionInLine;
-	}
-
 }
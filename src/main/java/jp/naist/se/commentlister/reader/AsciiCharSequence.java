@@ -0,0 +1,58 @@
+package jp.naist.se.commentlister.reader;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A CharSequence view of ASCII bytes in a buffer.
+ * The buffer must not be modified while the view is used.
+ */
+public class AsciiCharSequence implements CharSequence {
+
+	private final byte[] buf;
+	private final int start;
+	private final int end;
+
+	/**
+	 * @param buf includes only ASCII characters between start and end.
+	 * @param start is the first byte of the sequence.
+	 * @param end is the next of the last byte of the sequence.
+	 */
+	public AsciiCharSequence(byte[] buf, int start, int end) {
+		this.buf = buf;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @return true if the bytes between start and end are ASCII characters.
+	 */
+	public static boolean isAscii(byte[] buf, int start, int end) {
+		for (int i=start; i<end; i++) {
+			if (buf[i] < 0) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int length() {
+		return end - start;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= end - start) throw new IndexOutOfBoundsException(Integer.toString(index));
+		return (char)buf[start + index];
+	}
+
+	@Override
+	public CharSequence subSequence(int s, int e) {
+		if (s < 0 || e > end - start || s > e) throw new IndexOutOfBoundsException(s + "," + e);
+		return new AsciiCharSequence(buf, start + s, start + e);
+	}
+
+	@Override
+	public String toString() {
+		return new String(buf, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+
+}
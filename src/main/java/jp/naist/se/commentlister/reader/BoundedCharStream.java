@@ -0,0 +1,57 @@
+package jp.naist.se.commentlister.reader;
+
+import java.io.Reader;
+
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A CharStream for a large file.
+ * Unlike CharStreams.fromStream, it keeps only the characters of the current token in memory.
+ * A lexer reading this stream must copy the text of tokens (CommonTokenFactory with copyText=true),  
+ * because the characters are discarded after the token is created.
+ */
+public class BoundedCharStream extends UnbufferedCharStream {
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+	
+	private int limit;
+	
+	/**
+	 * @param input is the content of a file.
+	 * @param limit specifies the maximum number of characters kept in memory.
+	 */
+	public BoundedCharStream(Reader input, int limit) {
+		// The limit must be set before the first character is read
+		super(INITIAL_BUFFER_SIZE);
+		this.limit = limit;
+		this.input = input;
+		fill(1);
+	}
+	
+	/**
+	 * @throws StreamLimitException if a token is longer than the limit.
+	 */
+	@Override
+	protected void add(int c) {
+		if (n >= limit) {
+			throw new StreamLimitException("A token exceeds the limit of " + limit + " characters at index " + getBufferStartIndex());
+		}
+		super.add(c);
+	}
+	
+	/**
+	 * The text excludes EOF at the end of the buffer, 
+	 * as CodePointCharStream does for an interval including EOF.  
+	 */
+	@Override
+	public String getText(Interval interval) {
+		int last = getBufferStartIndex() + n - 1;
+		if (n > 0 && data[n-1] == IntStream.EOF && interval.b >= last) {
+			interval = Interval.of(interval.a, last - 1);
+		}
+		return super.getText(interval);
+	}
+
+}
@@ -0,0 +1,105 @@
+package jp.naist.se.commentlister.reader;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A conservative byte-level check to skip lexing files without comments.
+ * A comment always starts with a comment-start sequence of the language
+ * (e.g. "//" and "/*" for Java), so that a file without the sequences 
+ * cannot include comments.  The sequences may appear in string literals;
+ * such files are simply lexed as usual.
+ */
+public class CommentPrefilter {
+
+	private static final byte[][] C_FAMILY = markers("//", "/*");
+	private static final byte[][] PYTHON = markers("#", "\"\"\"");
+	private static final byte[][] PHP = markers("//", "/*", "#", "<!--");
+	private static final byte[][] RUBY = markers("#", "=begin");
+	private static final byte[][] HASH = markers("#");
+	private static final byte[][] XML = markers("<!--");
+	
+	private static byte[][] markers(String... sequences) {
+		byte[][] result = new byte[sequences.length][];
+		for (int i=0; i<sequences.length; i++) {
+			result[i] = sequences[i].getBytes(StandardCharsets.US_ASCII);
+		}
+		return result;
+	}
+	
+	/**
+	 * @return comment-start sequences of a file type.
+	 * null if the file type is not supported.
+	 */
+	private static byte[][] getMarkers(FileType t) {
+		switch (t) {
+		case CPP:
+		case CMAKESOURCE:
+		case JAVA:
+		case ECMASCRIPT:
+		case CSHARP:
+			return C_FAMILY;
+		case PYTHON:
+		case BAZEL:
+			return PYTHON;
+		case PHP:
+			return PHP;
+		case RUBY:
+			return RUBY;
+		case CMAKE:
+		case QMAKE:
+		case MAKEFILE:
+		case AUTOMAKE:
+			return HASH;
+		case ANT:
+		case MAVEN:
+			return XML;
+		default:
+			return null;
+		}
+	}
+	
+	/**
+	 * Check whether a file content may include comments.
+	 * @param t is the type of the file.
+	 * @param buf is the content.
+	 * @return false if the content has no comment-start sequences of the file type.  
+	 * True is returned if the content may include a comment, 
+	 * or the content is not an ASCII-compatible encoding (e.g. UTF-16). 
+	 */
+	public static boolean mayIncludeComments(FileType t, byte[] buf) {
+		byte[][] markers = getMarkers(t);
+		if (markers == null || !isAsciiCompatible(buf)) return true;
+		
+		for (int i=0; i<buf.length; i++) {
+			byte b = buf[i];
+			for (byte[] m: markers) {
+				if (b == m[0] && startsWith(buf, i, m)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	private static boolean startsWith(byte[] buf, int pos, byte[] marker) {
+		if (pos + marker.length > buf.length) return false;
+		for (int j=1; j<marker.length; j++) {
+			if (buf[pos+j] != marker[j]) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return false if the content may be encoded in UTF-16 or UTF-32,
+	 * where a comment-start sequence is not a sequence of ASCII bytes.
+	 */
+	private static boolean isAsciiCompatible(byte[] buf) {
+		if (buf.length >= 2) {
+			if (buf[0] == 0 || buf[1] == 0) return false;
+			if (buf[0] == (byte)0xFE && buf[1] == (byte)0xFF) return false;
+			if (buf[0] == (byte)0xFF && buf[1] == (byte)0xFE) return false;
+		}
+		return true;
+	}
+
+}
@@ -28,4 +28,55 @@ public interface CommentReader {
 	 */
 	public int getCharPositionInLine();
 
+	/**
+	 * @return the line number of the last character of the comment.
+	 * The default implementation counts line breaks in the text, excluding a trailing one.
+	 */
+	public default int getEndLine() {
+		CharSequence text = getTextSequence();
+		int lines = 0;
+		for (int i=0; i<text.length()-1; i++) {
+			if (text.charAt(i) == '\n') lines++;
+		}
+		return getLine() + lines;
+	}
+
+	/**
+	 * @return the index of the first character of the comment in the file (0-origin, in code points).
+	 * -1 if the reader does not know offsets.
+	 * Merged line comments start at the first comment.
+	 */
+	public default int getStartOffset() {
+		return -1;
+	}
+
+	/**
+	 * @return the index next to the last character of the comment in the file.
+	 * -1 if the reader does not know offsets.
+	 */
+	public default int getEndOffset() {
+		return -1;
+	}
+
+	/**
+	 * @return the positions of parts of the text in the file.
+	 * null if the text starts at getLine() and getCharPositionInLine() and is contiguous in the file.
+	 * Each part is represented by three numbers:
+	 * the index of its first character in the text, its line and its character position in the line.
+	 * Merged comments after the first are parts; a text without an opening delimiter starts with a part at index 0.
+	 */
+	public default int[] getPartPositions() {
+		return null;
+	}
+
+	/**
+	 * A reader may return a view of its buffer, so that a caller can search the text
+	 * without creating a String.
+	 * The sequence is immutable and remains valid after next() is called.
+	 * @return the text of the current comment.  The content is the same as getText().
+	 */
+	public default CharSequence getTextSequence() {
+		return getText();
+	}
+
 }
@@ -0,0 +1,28 @@
+package jp.naist.se.commentlister.reader;
+
+/**
+ * A reader for a file without comments
+ */
+public class EmptyCommentReader implements CommentReader {
+
+	@Override
+	public boolean next() {
+		return false;
+	}
+	
+	@Override
+	public String getText() {
+		throw new IllegalStateException("No comments");
+	}
+	
+	@Override
+	public int getLine() {
+		throw new IllegalStateException("No comments");
+	}
+	
+	@Override
+	public int getCharPositionInLine() {
+		throw new IllegalStateException("No comments");
+	}
+
+}
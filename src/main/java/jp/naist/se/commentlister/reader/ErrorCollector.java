@@ -0,0 +1,74 @@
+package jp.naist.se.commentlister.reader;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+
+/**
+ * This object collects diagnostic messages for a single file.
+ * It is attached to a lexer as an error listener instead of ConsoleErrorListener,
+ * and other readers record their messages directly.
+ * Lexer errors are recorded in the same format as ConsoleErrorListener ("line L:C message").
+ * An instance is not thread-safe; it is used by a thread reading the file.
+ */
+public class ErrorCollector extends BaseErrorListener {
+
+	private StringBuilder log;
+	private int count;
+
+	@Override
+	public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
+		add("line " + line + ":" + charPositionInLine + " " + msg);
+	}
+
+	/**
+	 * Record a message.
+	 * @param message is a single line without a line separator.
+	 */
+	public void add(String message) {
+		if (log == null) {
+			log = new StringBuilder();
+		}
+		log.append(message);
+		log.append('\n');
+		count++;
+	}
+
+	/**
+	 * @return the number of recorded messages.
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return recorded messages separated by "\n".
+	 * null if no message is recorded.
+	 */
+	public String getLog() {
+		return log != null ? log.toString() : null;
+	}
+
+	/**
+	 * Record a message to a collector, or print it to System.err if the collector is null.
+	 */
+	public static void report(ErrorCollector errors, String message) {
+		if (errors != null) {
+			errors.add(message);
+		} else {
+			System.err.println(message);
+		}
+	}
+
+	/**
+	 * Record an exception to a collector, or print its stack trace if the collector is null.
+	 */
+	public static void report(ErrorCollector errors, Throwable e) {
+		if (errors != null) {
+			errors.add(e.toString());
+		} else {
+			e.printStackTrace();
+		}
+	}
+
+}
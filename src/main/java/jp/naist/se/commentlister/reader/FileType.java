@@ -4,15 +4,24 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.HashSet;
 
 import org.antlr.v4.runtime.CaseChangingCharStream;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.apache.commons.io.ByteOrderMark;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BOMInputStream;
+import org.apache.commons.io.input.BoundedInputStream;
 
 import jp.naist.se.commentlister.lexer.CMakeLexer;
 import jp.naist.se.commentlister.lexer.CPP14Lexer;
@@ -23,6 +32,7 @@ import jp.naist.se.commentlister.lexer.MakefileCommentLexer;
 import jp.naist.se.commentlister.lexer.PhpLexer;
 import jp.naist.se.commentlister.lexer.Python3Lexer;
 import jp.naist.se.commentlister.ruby.RubyCommentReader;
+import jp.naist.se.commentlister.scanner.CommentScanner;
 
 
 /**
@@ -36,6 +46,25 @@ public enum FileType {
 	private static HashMap<String, FileType> specialFileNames = new HashMap<>();
 	private static HashMap<String, FileType> typeNames = new HashMap<>();
 
+	/**
+	 * The default limit of a stream for a large file (16M characters)
+	 */
+	public static final int DEFAULT_STREAM_LIMIT = 16 * 1024 * 1024;
+	
+	private static int streamLimit = DEFAULT_STREAM_LIMIT;
+	
+	/**
+	 * A file larger than this size (in bytes) is lexed as a stream
+	 */
+	public static final int STREAM_FILE_SIZE = 8 * 1024 * 1024;
+	
+	/**
+	 * Tokens read from a BoundedCharStream must have their own text
+	 */
+	private static final TokenFactory<?> COPY_TEXT_FACTORY = new CommonTokenFactory(true);
+	
+	private static boolean scannerEnabled = false;
+
 	/**
 	 * Create a map from file extensions to file types   
 	 */
@@ -177,155 +206,278 @@ public enum FileType {
 	}
 	
 	/**
-	 * Create a CommentReader instance for a given file type.
-	 * @param filetype specifies a file type.
-	 * @param stream is the content of a file.
-	 * @return an instance of CommentReader.
-	 * This method may return null if the language is not supported by this method.
+	 * Comments on the hidden channel (Java, C/C++)
+	 */
+	private static final AntlrCommentReader.Filter HIDDEN_CHANNEL_FILTER = new AntlrCommentReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return t.getChannel() == Java8Lexer.HIDDEN;
+		}
+	};
+
+	private static final AntlrCommentReader.Filter ECMASCRIPT_FILTER = new AntlrCommentReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return t.getChannel() == ECMAScriptLexer.HIDDEN &&
+					(t.getType() == ECMAScriptLexer.MultiLineComment ||
+					t.getType() == ECMAScriptLexer.SingleLineComment);
+		}
+	};
+
+	private static final AntlrCommentReader.Filter CSHARP_FILTER = new AntlrCommentReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return t.getChannel() == CSharpLexer.COMMENTS_CHANNEL;
+		}
+	};
+
+	private static final AntlrCommentReader.Filter PYTHON_FILTER = new AntlrCommentReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return (t.getChannel() == Python3Lexer.HIDDEN) ||
+				(t.getType() == Python3Lexer.STRING && t.getText().contains("\"\"\""));
+		}
+	};
+
+	private static final AntlrCommentReader.Filter PHP_FILTER = new AntlrCommentReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return t.getChannel() == PhpLexer.PhpComments;
+		}
+	};
+
+	private static final AntlrCommentReader.Filter MAKEFILE_FILTER = new AntlrCommentReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return t.getType() == MakefileCommentLexer.Line_comment;
+		}
+	};
+
+	private static final AntlrCommentReader.Filter CMAKE_FILTER = new AntlrCommentReader.Filter() {
+		@Override
+		public boolean accept(Token t) {
+			return (t.getType() == CMakeLexer.Bracket_comment ||
+					t.getType() == CMakeLexer.Line_comment);
+		}
+	};
+
+	/**
+	 * Create a new lexer instance for a given file type.
+	 * @return a lexer.  null if the language is not supported by ANTLR lexers.
 	 */
-	private static CommentReader createReader(FileType filetype, CharStream stream) {
+	private static Lexer createLexer(FileType filetype, CharStream stream) {
 		switch (filetype) {
 		case JAVA:
-		{
-			Java8Lexer lexer = new Java8Lexer(stream);
-			return new AntlrMultilineCommentReader(lexer, new AntlrCommentReader.Filter() {
-				@Override
-				public boolean accept(Token t) {
-					return t.getChannel() == Java8Lexer.HIDDEN;
-				}
-			});
-		}
+			return new Java8Lexer(stream);
 		case CPP:
 		case CMAKESOURCE:
-		{
-			CPP14Lexer lexer = new CPP14Lexer(stream);
-			//CommonTokenStream c = new CommonTokenStream(lexer, Java8Lexer.HIDDEN);
-			//System.out.println(c.size());
-			return new AntlrMultilineCommentReader(lexer, new AntlrCommentReader.Filter() {
-				@Override
-				public boolean accept(Token t) {
-					return t.getChannel() == Java8Lexer.HIDDEN;
-				}
-			});
-		}
+			return new CPP14Lexer(stream);
 		case ECMASCRIPT:
-		{
-			ECMAScriptLexer lexer = new ECMAScriptLexer(stream);
-			return new AntlrMultilineCommentReader(lexer, new AntlrCommentReader.Filter() {
-				@Override
-				public boolean accept(Token t) {
-					return t.getChannel() == ECMAScriptLexer.HIDDEN &&
-							(t.getType() == ECMAScriptLexer.MultiLineComment ||
-							t.getType() == ECMAScriptLexer.SingleLineComment);
-				}
-			});
-		}
+			return new ECMAScriptLexer(stream);
 		case CSHARP:
-		{
-			CSharpLexer lexer = new CSharpLexer(stream);
-			return new AntlrMultilineCommentReader(lexer, new AntlrCommentReader.Filter() {
-				@Override
-				public boolean accept(Token t) {
-					return t.getChannel() == CSharpLexer.COMMENTS_CHANNEL;
-				}
-			});
-		}
+			return new CSharpLexer(stream);
 		case PYTHON:
 		case BAZEL:
-		{
-			Python3Lexer lexer = new Python3Lexer(stream);
-			return new AntlrMultilineCommentReader(lexer, new AntlrCommentReader.Filter() {
-				@Override
-				public boolean accept(Token t) {
-					return (t.getChannel() == Python3Lexer.HIDDEN) ||
-						(t.getType() == Python3Lexer.STRING && t.getText().contains("\"\"\""));
-				}
-			});
-		}
+			return new Python3Lexer(stream);
 		case PHP:
-		{
-			PhpLexer lexer = new PhpLexer(new CaseChangingCharStream(stream, false));
-			return new AntlrMultilineCommentReader(lexer, new AntlrCommentReader.Filter() {
-				@Override
-				public boolean accept(Token t) {
-					return t.getChannel() == PhpLexer.PhpComments;
-				}
-			});
-		}
+			return new PhpLexer(stream);
 		case MAKEFILE:
 		case AUTOMAKE:
 		case QMAKE:
-		{
-			MakefileCommentLexer lexer = new MakefileCommentLexer(stream);
-			return new AntlrMultilineCommentReader(lexer, new AntlrCommentReader.Filter() {
-				@Override
-				public boolean accept(Token t) {
-					return t.getType() == MakefileCommentLexer.Line_comment;
-				}
-			});
-		}
+			return new MakefileCommentLexer(stream);
 		case CMAKE:
-		{
-			CMakeLexer lexer = new CMakeLexer(stream);
-			return new AntlrMultilineCommentReader(lexer, new AntlrCommentReader.Filter() {
-				@Override
-				public boolean accept(Token t) {
-					return (t.getType() == CMakeLexer.Bracket_comment ||
-							t.getType() == CMakeLexer.Line_comment);
-				}
-			});
-		}
-		case ANT:
-		case MAVEN:
-		case RUBY:
-		{
-			assert false: "Unsupported language for this method";
+			return new CMakeLexer(stream);
+		default:
+			return null;
 		}
+	}
+
+	/**
+	 * @return a filter selecting comment tokens of a file type.
+	 */
+	private static AntlrCommentReader.Filter getFilter(FileType filetype) {
+		switch (filetype) {
+		case JAVA:
+		case CPP:
+		case CMAKESOURCE:
+			return HIDDEN_CHANNEL_FILTER;
+		case ECMASCRIPT:
+			return ECMASCRIPT_FILTER;
+		case CSHARP:
+			return CSHARP_FILTER;
+		case PYTHON:
+		case BAZEL:
+			return PYTHON_FILTER;
+		case PHP:
+			return PHP_FILTER;
+		case MAKEFILE:
+		case AUTOMAKE:
+		case QMAKE:
+			return MAKEFILE_FILTER;
+		case CMAKE:
+			return CMAKE_FILTER;
 		default:
 			return null;
-		
 		}
 	}
 
+	/**
+	 * Create a CommentReader instance for a given file type.
+	 * A lexer is taken from LexerPool if available, and returned to the pool at EOF.
+	 * @param filetype specifies a file type.
+	 * @param stream is the content of a file.
+	 * @param factory creates tokens of a lexer.
+	 * @param errors receives lexer errors.  If null, errors are printed to System.err.
+	 * @return an instance of CommentReader.
+	 * This method may return null if the language is not supported by this method.
+	 */
+	private static CommentReader createReader(FileType filetype, CharStream stream, TokenFactory<?> factory, ErrorCollector errors) {
+		assert filetype != ANT && filetype != MAVEN && filetype != RUBY: "Unsupported language for this method";
+		if (filetype == PHP) {
+			stream = new CaseChangingCharStream(stream, false);
+		}
+		Lexer lexer = LexerPool.take(filetype);
+		if (lexer != null) {
+			lexer.setInputStream(stream);
+		} else {
+			lexer = createLexer(filetype, stream);
+			if (lexer == null) return null;
+			LexerPool.countCreated();
+		}
+		lexer.setTokenFactory(factory);
+		// A pooled lexer may have a listener of the previous file
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(errors != null ? errors : ConsoleErrorListener.INSTANCE);
+		return new AntlrMultilineCommentReader(lexer, getFilter(filetype), filetype);
+	}
+
+	/**
+	 * Create a stream for an ANTLR lexer to read a large file.
+	 * This method handles UTF-8/16 BOM.
+	 */
+	private static CharStream createLargeStream(InputStream stream) throws IOException {
+		BOMInputStream in = BOMInputStream.builder().setInputStream(stream).setByteOrderMarks(ByteOrderMark.UTF_8, ByteOrderMark.UTF_16BE, ByteOrderMark.UTF_16LE).get();
+		Charset charset = in.hasBOM() ? Charset.forName(in.getBOMCharsetName()) : StandardCharsets.UTF_8;
+		return new BoundedCharStream(new InputStreamReader(in, charset), streamLimit);
+	}
+	
+	/**
+	 * @param limit specifies the maximum number of characters of a token kept in memory 
+	 * when a large file is processed as a stream.
+	 * A Ruby file must fit in the limit as a whole.
+	 */
+	public static void setStreamLimit(int limit) {
+		streamLimit = limit;
+	}
+
+	/**
+	 * @param enabled specifies whether hand-written scanners (see CommentScanner) 
+	 * are used instead of ANTLR lexers for C/C++, Java, ECMAScript and C# files.
+	 * A scanner reads the content of a file as bytes; a large object read as a stream is still lexed by ANTLR.
+	 */
+	public static void setScannerEnabled(boolean enabled) {
+		scannerEnabled = enabled;
+	}
+	
+	/**
+	 * @return true if comments in a file type are extracted by a hand-written scanner.
+	 */
+	public static boolean isScannerEnabled(FileType filetype) {
+		return scannerEnabled && CommentScanner.isSupported(filetype);
+	}
+
 	/**
 	 * This method is prepared to handle "LargeObject" in a git repository.
+	 * The content is lexed as a stream, so that only the current token is kept in memory.
+	 * A CommentReader may throw StreamLimitException if a token exceeds the limit.
 	 * @param filetype specifies the file type
 	 * @param stream specifies the content of the file
 	 * @return a CommentReader instance.
 	 * This may return null if an error occured during the process. 
 	 */
 	public static CommentReader createCommentReader(FileType filetype, InputStream stream) {
+		return createCommentReader(filetype, stream, null);
+	}
+
+	/**
+	 * Create a CommentReader for a large object.
+	 * @param filetype specifies the file type
+	 * @param stream specifies the content of the file
+	 * @param errors receives diagnostic messages of the file.
+	 * If null, messages are printed to System.err.
+	 * @return a CommentReader instance.
+	 * This may return null if an error occured during the process. 
+	 */
+	public static CommentReader createCommentReader(FileType filetype, InputStream stream, ErrorCollector errors) {
 		try {
 			if (filetype == FileType.RUBY) {
-				return new RubyCommentReader(IOUtils.toByteArray(stream));
+				// The reader needs the entire content
+				byte[] buf = IOUtils.toByteArray(new BoundedInputStream(stream, streamLimit + 1L));
+				if (buf.length > streamLimit) {
+					// Reported as a StreamLimitExceeded error rather than a read failure, so that the result is not cached
+					String message = "The file exceeds the limit of " + streamLimit + " bytes";
+					return new EmptyCommentReader() {
+						@Override
+						public boolean next() {
+							throw new StreamLimitException(message);
+						}
+					};
+				}
+				return new RubyCommentReader(buf, errors);
 			} else if (filetype == FileType.ANT || filetype == FileType.MAVEN) {
-				return new XmlCommentReader(stream);
+				return new XmlCommentReader(stream, errors, streamLimit);
 			}
-			return createReader(filetype, CharStreams.fromStream(stream));
+			return createReader(filetype, createLargeStream(stream), COPY_TEXT_FACTORY, errors);
 		} catch (IOException e) {
-			e.printStackTrace();
+			ErrorCollector.report(errors, e);
 			return null;
 		}
 	}
 
 	/**
-	 * This method creates a CommentReader for a file 
+	 * This method creates a CommentReader for a file.
+	 * A file without comment-start sequences is not lexed (see CommentPrefilter). 
 	 * @param filetype specifies the file type
 	 * @param buf specifies the content of the file
 	 * @return a CommentReader instance.
 	 * This may return null if an error occured during the process. 
 	 */
 	public static CommentReader createCommentReader(FileType filetype, byte[] buf) {
+		return createCommentReader(filetype, buf, null);
+	}
+
+	/**
+	 * This method creates a CommentReader for a file.
+	 * @param filetype specifies the file type
+	 * @param buf specifies the content of the file
+	 * @param errors receives diagnostic messages of the file.
+	 * If null, messages are printed to System.err.
+	 * @return a CommentReader instance.
+	 * An EmptyCommentReader is returned if the file is skipped by CommentPrefilter.
+	 * This may return null if an error occured during the process. 
+	 */
+	public static CommentReader createCommentReader(FileType filetype, byte[] buf, ErrorCollector errors) {
 		try {
+			if (!CommentPrefilter.mayIncludeComments(filetype, buf)) {
+				return new EmptyCommentReader();
+			}
+			if (scannerEnabled) {
+				// A scanner is unavailable for a non-UTF-8 content
+				CommentReader reader = CommentScanner.createCommentReader(filetype, buf);
+				if (reader != null) return reader;
+			}
 			if (filetype == FileType.RUBY) {
-				return new RubyCommentReader(buf);
+				return new RubyCommentReader(buf, errors);
 			} else if (filetype == FileType.ANT || filetype == FileType.MAVEN) {
-				return new XmlCommentReader(new ByteArrayInputStream(buf));
+				return new XmlCommentReader(new ByteArrayInputStream(buf), errors, Integer.MAX_VALUE);
+			} else if (buf.length > STREAM_FILE_SIZE) {
+				// A large file is lexed as a stream to avoid a copy of the entire content 
+				return createReader(filetype, createLargeStream(new ByteArrayInputStream(buf)), COPY_TEXT_FACTORY, errors);
 			} else {
-				return createReader(filetype, createStream(buf));
+				return createReader(filetype, createStream(buf), CommonTokenFactory.DEFAULT, errors);
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
+			ErrorCollector.report(errors, e);
 			return null;
 		}
 	}
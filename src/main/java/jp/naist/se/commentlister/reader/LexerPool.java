@@ -0,0 +1,87 @@
+package jp.naist.se.commentlister.reader;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.antlr.v4.runtime.Lexer;
+
+/**
+ * A per-thread pool of ANTLR lexers.
+ * A lexer is taken from the pool for a file
+ * and returned to the pool when the reader reaches the end of the file.
+ * A lexer is reset by setInputStream for the next file.
+ * A lexer that is not returned (e.g. a reader is discarded before EOF) is simply garbage collected.
+ */
+public class LexerPool {
+
+	/**
+	 * Idle lexers of the current thread.  The index is the ordinal of a FileType.
+	 */
+	private static final ThreadLocal<Lexer[]> idle = new ThreadLocal<Lexer[]>() {
+		@Override
+		protected Lexer[] initialValue() {
+			return new Lexer[FileType.values().length];
+		}
+	};
+
+	private static boolean enabled = true;
+	private static final AtomicLong created = new AtomicLong();
+	private static final AtomicLong reused = new AtomicLong();
+
+	/**
+	 * @param enabled specifies whether lexers are reused or not.
+	 * Disabling the pool is intended to compare performance.
+	 */
+	public static void setEnabled(boolean enabled) {
+		LexerPool.enabled = enabled;
+	}
+
+	/**
+	 * @return an idle lexer for the file type, or null if no lexer is available.
+	 * The lexer is removed from the pool until it is released.
+	 */
+	static Lexer take(FileType filetype) {
+		if (!enabled) return null;
+		Lexer[] lexers = idle.get();
+		Lexer lexer = lexers[filetype.ordinal()];
+		if (lexer != null) {
+			lexers[filetype.ordinal()] = null;
+			reused.incrementAndGet();
+		}
+		return lexer;
+	}
+
+	/**
+	 * Record that a new lexer is created since the pool is empty.
+	 */
+	static void countCreated() {
+		created.incrementAndGet();
+	}
+
+	/**
+	 * Return a lexer to the pool of the current thread.
+	 * The lexer must not be used by the caller after this call.
+	 * The input and the error listener are detached so that an idle lexer
+	 * does not keep the content and the error log of a file in a pool thread.
+	 */
+	static void release(FileType filetype, Lexer lexer) {
+		if (!enabled) return;
+		lexer.setInputStream(null);
+		lexer.removeErrorListeners();
+		idle.get()[filetype.ordinal()] = lexer;
+	}
+
+	/**
+	 * @return the number of lexer instances created.
+	 */
+	public static long getCreatedCount() {
+		return created.get();
+	}
+
+	/**
+	 * @return the number of files processed by reused lexers.
+	 */
+	public static long getReusedCount() {
+		return reused.get();
+	}
+
+}
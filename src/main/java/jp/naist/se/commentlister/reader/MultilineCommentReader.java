@@ -0,0 +1,190 @@
+package jp.naist.se.commentlister.reader;
+
+import java.util.Arrays;
+
+/**
+ * Read multiple single-line comments in consecutive lines 
+ * as a single multi-line comment. 
+ */
+public class MultilineCommentReader implements CommentReader {
+
+	private static class Comment {
+		private CharSequence first;
+		private StringBuilder builder;
+		private String text;
+		private int line;
+		private int lastLine;
+		private int endLine;
+		private int charPositionInLine;
+		private int startOffset;
+		private int endOffset;
+		
+		/**
+		 * The positions of appended comments (text index, line, charPositionInLine)
+		 */
+		private int[] merged;
+		private int mergedLength;
+		
+		/**
+		 * Create a comment from the current comment of a reader.
+		 */
+		public Comment(CommentReader r) {
+			this.first = r.getTextSequence();
+			this.line = r.getLine();
+			this.lastLine = line;
+			this.endLine = r.getEndLine();
+			this.charPositionInLine = r.getCharPositionInLine();
+			this.startOffset = r.getStartOffset();
+			this.endOffset = r.getEndOffset();
+		}
+		
+		/**
+		 * A line comment is linked to the previous line comment 
+		 * if they are consecutive lines and start the same character position.
+		 * @param l
+		 * @param charpos
+		 * @return
+		 */
+		public boolean isContinue(int l, int charpos) {
+			return (this.lastLine == l) || (this.lastLine + 1 == l && this.charPositionInLine == charpos);
+		}
+		
+		/**
+		 * Text is accumulated in a builder, so that a long run of line comments is merged in linear time.
+		 */
+		public void append(CommentReader r) {
+			if (builder == null) {
+				builder = new StringBuilder(first);
+				first = null;
+			}
+			int l = r.getLine();
+			if (this.lastLine == l) {
+				builder.append(' ');
+			} else {
+				builder.append('\n');
+				this.lastLine = l;
+			}
+			if (merged == null) {
+				merged = new int[3 * 4];
+			} else if (mergedLength == merged.length) {
+				merged = Arrays.copyOf(merged, merged.length * 2);
+			}
+			merged[mergedLength++] = builder.length();
+			merged[mergedLength++] = l;
+			merged[mergedLength++] = r.getCharPositionInLine();
+			builder.append(r.getTextSequence());
+			this.endLine = r.getEndLine();
+			this.endOffset = r.getEndOffset();
+			text = null;
+		}
+		
+		public String getText() {
+			if (text == null) {
+				text = builder != null ? builder.toString() : first.toString();
+				builder = null;
+				first = null;
+			}
+			return text;
+		}
+		
+		public CharSequence getTextSequence() {
+			if (text != null) return text;
+			return builder != null ? builder : first;
+		}
+		
+		public int[] getPartPositions() {
+			if (merged != null && merged.length != mergedLength) {
+				merged = Arrays.copyOf(merged, mergedLength);
+			}
+			return merged;
+		}
+		
+		public String toString() {
+			return getText() + " (line=" + line + ", endLine=" + endLine + ", charPos=" + charPositionInLine+ ")"; 
+		}
+	}
+
+	private CommentReader reader;
+	private boolean eof;
+	
+	/**
+	 * The comment returned by the getter methods
+	 */
+	private Comment current;
+	
+	/**
+	 * A comment that may be continued by the next token 
+	 */
+	private Comment pending;
+	
+	/**
+	 * @param reader reads individual comments.
+	 * Comments are read when next() is called, so that comments are not buffered.
+	 */
+	public MultilineCommentReader(CommentReader reader) {
+		this.reader = reader;
+	}
+	
+	@Override
+	public boolean next() {
+		while (!eof) {
+			if (!reader.next()) {
+				eof = true;
+			} else if (pending != null && pending.isContinue(reader.getLine(), reader.getCharPositionInLine())) {
+				pending.append(reader);
+			} else {
+				current = pending;
+				pending = new Comment(reader);
+				if (current != null) return true;
+			}
+		}
+		current = pending;
+		pending = null;
+		return current != null;
+	}
+	
+	@Override
+	public String getText() {
+		return current.getText();
+	}
+	
+	@Override
+	public int getLine() {
+		return current.line;
+	}
+	
+	@Override
+	public int getCharPositionInLine() {
+		return current.charPositionInLine;
+	}
+	
+	@Override
+	public int getEndLine() {
+		return current.endLine;
+	}
+	
+	@Override
+	public int getStartOffset() {
+		return current.startOffset;
+	}
+	
+	@Override
+	public int getEndOffset() {
+		return current.endOffset;
+	}
+	
+	@Override
+	public int[] getPartPositions() {
+		return current.getPartPositions();
+	}
+	
+	/**
+	 * @return the text of the current comment.
+	 * Merged comments are returned as a builder without creating a String.
+	 */
+	@Override
+	public CharSequence getTextSequence() {
+		return current.getTextSequence();
+	}
+
+}
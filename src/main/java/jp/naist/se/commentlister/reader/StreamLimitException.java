@@ -0,0 +1,14 @@
+package jp.naist.se.commentlister.reader;
+
+/**
+ * This exception is thrown when a file cannot be processed within the memory limit of a stream.
+ */
+public class StreamLimitException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public StreamLimitException(String message) {
+		super(message);
+	}
+
+}
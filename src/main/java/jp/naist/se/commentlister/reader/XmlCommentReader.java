@@ -1,59 +1,426 @@
 package jp.naist.se.commentlister.reader;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import javax.xml.stream.Location;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.io.input.ReaderInputStream;
 
 
 /**
- * This reader extracts comments in an XML file
+ * This reader extracts comments in an XML file.
+ * The reader scans bytes of a stream to find "&lt;!-- ... --&gt;",
+ * skipping CDATA sections, processing instructions, DOCTYPE declarations and attribute values.
+ * Only a buffer and the current comment are kept in memory.
+ * Malformed markup is skipped; a '&lt;' in a tag starts new markup.
+ * The text of a comment excludes the delimiters, as StAX reports it.
+ * A content that is not encoded in UTF-8 is converted to UTF-8 according to
+ * its byte order mark or the encoding in the XML declaration.
+ * A comment longer than a limit results in StreamLimitException,
+ * as a token of a large file read by an ANTLR lexer.
  */
 public class XmlCommentReader implements CommentReader {
 
-	private ArrayList<String> text;
-	private ArrayList<Location> locations;
-	private int index = -1;
+	/**
+	 * The size of the head of a stream to detect the encoding
+	 */
+	private static final int HEAD_SIZE = 1024;
+
+	private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._:-]+)[\"']");
+
+	private InputStream in;
+	private byte[] buf = new byte[64 * 1024];
+	private int pos;
+	private int length;
+
+	private int line = 1;
+	private int column = 0;
+	private boolean afterCR;
+
+	/**
+	 * The number of characters read
+	 */
+	private int offset = 0;
+
+	private byte[] text = new byte[256];
+	private int textLength;
+
+	/**
+	 * The maximum number of bytes of a comment kept in memory
+	 */
+	private int limit;
+	private String currentText;
+	private int currentLine;
+	private int currentColumn;
+	private int currentEndLine;
+	private int currentStartOffset;
+	private int currentEndOffset;
+
+	private ErrorCollector errors;
 
 	public XmlCommentReader(InputStream stream) {
-		text = new ArrayList<>();
-		locations = new ArrayList<>();
+		this(stream, null, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param stream is the content of a file.
+	 * @param errors receives warnings and errors.  If null, messages are printed to System.err.
+	 * @param limit is the maximum number of bytes of a comment.
+	 */
+	public XmlCommentReader(InputStream stream, ErrorCollector errors, int limit) {
+		this.errors = errors;
+		this.limit = limit;
 		try {
-			XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(stream); 
-			while (reader.hasNext()) {
-				int type = reader.next();
-				if (type == XMLStreamReader.COMMENT) {
-					text.add(reader.getText());
-					locations.add(reader.getLocation());
-				}
+			this.in = decode(stream);
+		} catch (IOException e) {
+			ErrorCollector.report(errors, e);
+		}
+	}
+
+	/**
+	 * Detect the encoding of a stream and convert the content to UTF-8 if necessary.
+	 * @return a stream of UTF-8 bytes.
+	 */
+	private InputStream decode(InputStream stream) throws IOException {
+		BufferedInputStream s = new BufferedInputStream(stream);
+		s.mark(HEAD_SIZE);
+		byte[] head = new byte[HEAD_SIZE];
+		int n = 0;
+		while (n < HEAD_SIZE) {
+			int r = s.read(head, n, HEAD_SIZE - n);
+			if (r < 0) break;
+			n += r;
+		}
+		s.reset();
+
+		if (n >= 3 && head[0] == (byte)0xEF && head[1] == (byte)0xBB && head[2] == (byte)0xBF) {
+			s.skip(3);
+			return s;
+		} else if (n >= 2 && head[0] == (byte)0xFE && head[1] == (byte)0xFF) {
+			s.skip(2);
+			return toUTF8(s, StandardCharsets.UTF_16BE);
+		} else if (n >= 2 && head[0] == (byte)0xFF && head[1] == (byte)0xFE) {
+			s.skip(2);
+			return toUTF8(s, StandardCharsets.UTF_16LE);
+		} else if (n >= 4 && head[0] == '<' && head[1] == 0 && head[2] == '?' && head[3] == 0) {
+			return toUTF8(s, StandardCharsets.UTF_16LE);
+		} else if (n >= 4 && head[0] == 0 && head[1] == '<' && head[2] == 0 && head[3] == '?') {
+			return toUTF8(s, StandardCharsets.UTF_16BE);
+		}
+
+		Charset charset = getDeclaredEncoding(head, n);
+		if (charset == null || charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)) {
+			return s;
+		} else {
+			return toUTF8(s, charset);
+		}
+	}
+
+	/**
+	 * @return a charset specified in the XML declaration.  null if not specified or not supported.
+	 */
+	private Charset getDeclaredEncoding(byte[] head, int n) {
+		String s = new String(head, 0, n, StandardCharsets.ISO_8859_1);
+		if (!s.startsWith("<?xml")) return null;
+		int end = s.indexOf("?>");
+		if (end < 0) return null;
+		Matcher m = ENCODING.matcher(s.substring(0, end));
+		if (m.find()) {
+			try {
+				return Charset.forName(m.group(1));
+			} catch (IllegalArgumentException e) {
+				ErrorCollector.report(errors, "Warning: unsupported encoding " + m.group(1) + " is read as UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private static InputStream toUTF8(InputStream s, Charset charset) throws IOException {
+		return ReaderInputStream.builder().setReader(new InputStreamReader(s, charset)).setCharset(StandardCharsets.UTF_8).get();
+	}
+
+	/**
+	 * @return the next byte without consuming it.  -1 at the end of the stream.
+	 */
+	private int peek() throws IOException {
+		if (pos >= length) {
+			if (in == null) return -1;
+			length = in.read(buf, 0, buf.length);
+			pos = 0;
+			if (length <= 0) {
+				length = 0;
+				return -1;
+			}
+		}
+		return buf[pos] & 0xFF;
+	}
+
+	/**
+	 * Consume the next byte and update the line and column.
+	 * "\r\n" and a single "\r" are regarded as a line break.
+	 * @return the consumed byte.  -1 at the end of the stream.
+	 */
+	private int read() throws IOException {
+		int b = peek();
+		if (b < 0) return b;
+		pos++;
+		if ((b & 0xC0) != 0x80) offset++;
+		if (b == '\r') {
+			line++;
+			column = 0;
+			afterCR = true;
+		} else if (b == '\n') {
+			if (!afterCR) {
+				line++;
+				column = 0;
+			}
+			afterCR = false;
+		} else {
+			// Count characters in UTF-8
+			if ((b & 0xC0) != 0x80) column++;
+			afterCR = false;
+		}
+		return b;
+	}
+
+	/**
+	 * Consume bytes if they match a string.
+	 * @return true if the whole string is consumed.
+	 * If false, matched bytes are consumed but the first mismatched byte is not.
+	 */
+	private boolean consume(String s) throws IOException {
+		for (int i=0; i<s.length(); i++) {
+			if (peek() != s.charAt(i)) return false;
+			read();
+		}
+		return true;
+	}
+
+	/**
+	 * Skip bytes until a string of two or three characters ("?>", "]]>" or "-->") appears.
+	 */
+	private void skipUntil(String end) throws IOException {
+		int last = end.charAt(end.length() - 1);
+		int prev1 = -1;
+		int prev2 = -1;
+		int b;
+		while ((b = read()) >= 0) {
+			if (b == last && prev1 == end.charAt(end.length() - 2) &&
+				(end.length() == 2 || prev2 == end.charAt(0))) {
+				return;
 			}
-			reader.close();
-		} catch (XMLStreamException e) {
+			prev2 = prev1;
+			prev1 = b;
 		}
-		assert text.size() == locations.size();
 	}
 
+	@Override
 	public boolean next() {
-		index++;
-		return index < text.size();
+		try {
+			int b;
+			while ((b = peek()) >= 0) {
+				if (b == '<') {
+					if (readMarkup()) return true;
+				} else {
+					read();
+				}
+			}
+		} catch (IOException e) {
+			ErrorCollector.report(errors, e);
+		}
+		currentText = null;
+		return false;
+	}
+
+	/**
+	 * Read markup starting with '&lt;'.
+	 * @return true if a comment is read.
+	 */
+	private boolean readMarkup() throws IOException {
+		int startLine = line;
+		int startColumn = column;
+		int startOffset = offset;
+		read(); // '<'
+		int b = peek();
+		if (b == '!') {
+			read();
+			if (peek() == '-') {
+				if (consume("--")) {
+					if (readComment()) {
+						currentLine = startLine;
+						currentColumn = startColumn;
+						currentStartOffset = startOffset;
+						currentEndLine = line;
+						currentEndOffset = offset;
+						return true;
+					}
+				}
+			} else if (peek() == '[') {
+				if (consume("[CDATA[")) {
+					skipUntil("]]>");
+				}
+			} else {
+				skipDeclaration();
+			}
+		} else if (b == '?') {
+			read();
+			skipUntil("?>");
+		} else {
+			skipTag();
+		}
+		return false;
+	}
+
+	/**
+	 * Read a comment after "&lt;!--".
+	 * Line breaks in the text are normalized to "\n".
+	 * @return true if the comment is terminated by "--&gt;".
+	 * @throws StreamLimitException if the comment is longer than the limit.
+	 */
+	private boolean readComment() throws IOException {
+		textLength = 0;
+		boolean cr = false;
+		int b;
+		while ((b = read()) >= 0) {
+			if (b == '\n' && cr) {
+				cr = false;
+				continue;
+			}
+			cr = (b == '\r');
+			append(cr ? '\n' : b);
+			if (b == '>' && textLength >= 3 && text[textLength-2] == '-' && text[textLength-3] == '-') {
+				currentText = new String(text, 0, textLength - 3, StandardCharsets.UTF_8);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void append(int b) {
+		if (textLength >= limit) {
+			throw new StreamLimitException("A comment exceeds the limit of " + limit + " bytes at line " + line);
+		}
+		if (textLength == text.length) {
+			text = Arrays.copyOf(text, text.length * 2);
+		}
+		text[textLength++] = (byte)b;
+	}
+
+	/**
+	 * Skip a declaration such as DOCTYPE including its internal subset.
+	 * Comments and processing instructions in the subset are skipped.
+	 */
+	private void skipDeclaration() throws IOException {
+		int depth = 0;
+		int quote = 0;
+		int b;
+		while ((b = peek()) >= 0) {
+			if (quote != 0) {
+				read();
+				if (b == quote) quote = 0;
+			} else if (b == '"' || b == '\'') {
+				read();
+				quote = b;
+			} else if (b == '[') {
+				read();
+				depth++;
+			} else if (b == ']') {
+				read();
+				if (depth > 0) depth--;
+			} else if (b == '>') {
+				read();
+				if (depth == 0) return;
+			} else if (b == '<' && depth > 0) {
+				read();
+				if (consume("!--")) {
+					skipUntil("-->");
+				} else if (peek() == '?') {
+					skipUntil("?>");
+				}
+			} else if (b == '<') {
+				// Malformed; the next markup starts here
+				return;
+			} else {
+				read();
+			}
+		}
+	}
+
+	/**
+	 * Skip a start tag or an end tag including attribute values.
+	 * Since '&lt;' is not allowed in a tag, the tag is regarded as malformed at '&lt;'.
+	 */
+	private void skipTag() throws IOException {
+		int quote = 0;
+		int b;
+		while ((b = peek()) >= 0) {
+			if (b == '<') {
+				return;
+			}
+			read();
+			if (quote != 0) {
+				if (b == quote) quote = 0;
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '>') {
+				return;
+			}
+		}
 	}
-	
+
+	@Override
 	public String getText() {
-		return text.get(index);
+		return currentText;
 	}
-	
+
+	/**
+	 * @return the line of "&lt;!--".
+	 */
+	@Override
 	public int getLine() {
-		return locations.get(index).getLineNumber();
+		return currentLine;
 	}
-	
+
 	/**
-	 * This position points to the end of the comment
-	 * due to the limitation of XML Reader
+	 * @return the position of "&lt;!--" in the line (0-origin, in characters).
 	 */
+	@Override
 	public int getCharPositionInLine() {
-		return locations.get(index).getColumnNumber();
+		return currentColumn;
+	}
+
+	/**
+	 * @return the position of the text after "&lt;!--".
+	 */
+	@Override
+	public int[] getPartPositions() {
+		return new int[] { 0, currentLine, currentColumn + "<!--".length() };
+	}
+
+	/**
+	 * @return the line of "--&gt;".
+	 */
+	@Override
+	public int getEndLine() {
+		return currentEndLine;
+	}
+
+	/**
+	 * Offsets include the delimiters.
+	 */
+	@Override
+	public int getStartOffset() {
+		return currentStartOffset;
+	}
+
+	@Override
+	public int getEndOffset() {
+		return currentEndOffset;
 	}
 }
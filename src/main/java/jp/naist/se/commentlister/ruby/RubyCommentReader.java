@@ -2,11 +2,12 @@ package jp.naist.se.commentlister.ruby;
 
 import java.io.InputStreamReader;
 
-import org.jruby.embed.EmbedEvalUnit;
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.LocalVariableBehavior;
 import org.jruby.embed.ScriptingContainer;
-import org.jruby.runtime.builtin.IRubyObject;
 
 import jp.naist.se.commentlister.reader.CommentReader;
+import jp.naist.se.commentlister.reader.ErrorCollector;
 
 /**
  * This class extracts comments from a ruby file using JRuby and a Ruby script with Ripper.
@@ -30,30 +31,69 @@ public class RubyCommentReader implements CommentReader {
 		}
 	}
 
+	/**
+	 * A single runtime shared by all threads.
+	 * CONCURRENT scope keeps local variables per thread,
+	 * and the script does not use them; each call creates its own Ripper instance.
+	 */
+	private static ScriptingContainer container;
+	
+	/**
+	 * The CommentScanner class defined by the script.
+	 * null if the script is not loaded yet or failed to load.
+	 */
+	private static volatile Object scanner;
+
 	private Comment[] comments;
 	private int index = -1;
 	
 	/**
-	 * Read comments from a Ruby source file
+	 * Load the script once and return the receiver of "extract".
+	 * @return the receiver.  null if the script is unavailable.
+	 */
+	private static Object getScanner() {
+		Object s = scanner;
+		return s != null ? s : loadScanner();
+	}
+	
+	private static synchronized Object loadScanner() {
+		if (scanner == null) {
+			if (container == null) {
+				container = new ScriptingContainer(LocalContextScope.CONCURRENT, LocalVariableBehavior.TRANSIENT);
+			}
+			try (InputStreamReader f = new InputStreamReader(RubyCommentReader.class.getResourceAsStream("comment.rb"))) {
+				scanner = container.runScriptlet(f, "comment.rb");
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+		}
+		return scanner;
+	}
+	
+	/**
+	 * Read comments from a Ruby source file.
+	 * This constructor can be called from multiple threads at the same time.
 	 * @param source is the content of the source file
 	 */
 	public RubyCommentReader(byte[] source) {
-		ScriptingContainer container = new ScriptingContainer();
-		
-    	try (InputStreamReader f = new InputStreamReader(RubyCommentReader.class.getResourceAsStream("comment.rb"))) {
-    		container.put("value", new String(source));
-    		EmbedEvalUnit unit = container.parse(f, "comment.rb");
-    		IRubyObject ret = unit.run();
-    		if (ret != null && !ret.isNil()) {
-        		comments = (Comment[])ret.toJava(Comment[].class);
-    		} else {
-        		comments = new Comment[0];
-    		}
-    	} catch(Throwable e) { 
-    		e.printStackTrace();
-    		comments = new Comment[0];
-    	}
-    }
+		this(source, null);
+	}
+	
+	/**
+	 * Read comments from a Ruby source file.
+	 * @param source is the content of the source file
+	 * @param errors receives an error of the extraction.  If null, the error is printed to System.err.
+	 */
+	public RubyCommentReader(byte[] source, ErrorCollector errors) {
+		try {
+			Object receiver = getScanner();
+			Comment[] ret = receiver != null ? container.callMethod(receiver, "extract", new String(source), Comment[].class) : null;
+			comments = ret != null ? ret : new Comment[0];
+		} catch (Throwable e) {
+			ErrorCollector.report(errors, e);
+			comments = new Comment[0];
+		}
+	}
 	
 	@Override
 	public boolean next() {
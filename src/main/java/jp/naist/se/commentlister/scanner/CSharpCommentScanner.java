@@ -0,0 +1,529 @@
+package jp.naist.se.commentlister.scanner;
+
+import java.util.ArrayDeque;
+
+/**
+ * A scanner following the CSharpLexer grammar.
+ * The scanner simulates the lexer modes for interpolated strings and directives.
+ * The grammar has no rule for an unexpected character;
+ * the lexer drops the characters of an invalid token including the character
+ * where the token is failed, and so does this scanner.
+ * Non-ASCII identifier characters are classified by java.lang.Character
+ * instead of the Unicode tables in the grammar.
+ */
+public class CSharpCommentScanner extends CommentScanner {
+
+	private static final int DEFAULT_MODE = 0;
+	private static final int INTERPOLATION_STRING = 1;
+	private static final int INTERPOLATION_FORMAT = 2;
+	private static final int DIRECTIVE_MODE = 3;
+	private static final int DIRECTIVE_TEXT = 4;
+
+	private static final int NEXT_LINE = 0x0085;
+	private static final int LINE_SEPARATOR = 0x2028;
+	private static final int PARAGRAPH_SEPARATOR = 0x2029;
+
+	private int mode;
+	private ArrayDeque<Integer> modeStack;
+
+	private int interpolatedStringLevel;
+	private ArrayDeque<Boolean> interpolatedVerbatiums;
+	private ArrayDeque<Integer> curlyLevels;
+	private boolean verbatium;
+
+	public CSharpCommentScanner(byte[] buf, int start) {
+		super(buf, start);
+		this.mode = DEFAULT_MODE;
+		this.modeStack = new ArrayDeque<>();
+		this.interpolatedVerbatiums = new ArrayDeque<>();
+		this.curlyLevels = new ArrayDeque<>();
+	}
+
+	@Override
+	protected boolean findComment() {
+		while (pos < end) {
+			switch (mode) {
+			case DEFAULT_MODE:
+				if (buf[pos] == '/' && isAt(pos+1, '/')) {
+					return found(pos, findInputCharactersEnd(pos+2));
+				} else if (buf[pos] == '/' && isAt(pos+1, '*')) {
+					int commentEnd = findBlockCommentEnd(pos+2);
+					if (commentEnd >= 0) {
+						return found(pos, commentEnd);
+					}
+					pos++;
+				} else {
+					pos = recover(scanDefaultToken(pos));
+				}
+				break;
+			case INTERPOLATION_STRING:
+				pos = recover(scanInterpolationStringToken(pos));
+				break;
+			case INTERPOLATION_FORMAT:
+				pos = scanInterpolationFormatToken(pos);
+				break;
+			case DIRECTIVE_MODE:
+				if (buf[pos] == '/' && isAt(pos+1, '/')) {
+					return found(pos, findInputCharactersEnd(pos+2));
+				}
+				pos = recover(scanDirectiveToken(pos));
+				break;
+			case DIRECTIVE_TEXT:
+				int newline = skipNewLine(pos);
+				if (newline > pos) {
+					pos = newline;
+					mode = DEFAULT_MODE;
+				} else {
+					pos = findInputCharactersEnd(pos);
+				}
+				break;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Methods scanning a token return the next position of the token,
+	 * or the bitwise complement of the position where the token is failed.
+	 * @return the position to continue scanning.
+	 * A failed token is skipped including the character at the failed position.
+	 */
+	private int recover(int result) {
+		if (result >= 0) return result;
+		int failed = ~result;
+		return failed < end ? nextCodePoint(failed) : end;
+	}
+
+	private int scanDefaultToken(int start) {
+		byte b = buf[start];
+		switch (b) {
+		case '\'':
+			return skipCharacterLiteral(start);
+		case '"':
+			return skipRegularString(start);
+		case '@':
+			if (isAt(start+1, '"')) {
+				return skipVerbatimString(start+1);
+			}
+			return start + 1 < end && skipIdentifierStart(start+1) >= 0 ? skipIdentifier(start+1) : ~(start+1);
+		case '$':
+			if (isAt(start+1, '"')) {
+				startInterpolatedString(false);
+				return start + 2;
+			} else if (isAt(start+1, '@')) {
+				if (isAt(start+2, '"')) {
+					startInterpolatedString(true);
+					return start + 3;
+				}
+				return ~(start+2);
+			}
+			return ~(start+1);
+		case '#':
+			mode = DIRECTIVE_MODE;
+			return start + 1;
+		case '{':
+			if (interpolatedStringLevel > 0 && !curlyLevels.isEmpty()) {
+				curlyLevels.push(curlyLevels.pop() + 1);
+			}
+			return start + 1;
+		case '}':
+			if (interpolatedStringLevel > 0 && !curlyLevels.isEmpty()) {
+				curlyLevels.push(curlyLevels.pop() - 1);
+				if (curlyLevels.peek() == 0) {
+					curlyLevels.pop();
+					popMode();
+				}
+			}
+			return start + 1;
+		case ':':
+			if (interpolatedStringLevel > 0 && isFormatStringAhead(start+1)) {
+				mode = INTERPOLATION_FORMAT;
+			}
+			return start + 1;
+		case '\\':
+			return skipIdentifierStart(start) >= 0 ? skipIdentifier(start) : skipUnicodeEscape(start);
+		default:
+			if (b >= 0) {
+				// Identifiers, numbers, operators and white space do not include comments.
+				// A control character not allowed in the grammar is dropped.
+				return start + 1;
+			}
+			int c = codePointAt(start);
+			int next = skipIdentifier(start);
+			if (next > start) {
+				return next;
+			} else if (isWhitespace(c) || c == NEXT_LINE || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+				return nextCodePoint(start);
+			} else {
+				return ~start;
+			}
+		}
+	}
+
+	private void startInterpolatedString(boolean verbatim) {
+		interpolatedStringLevel++;
+		interpolatedVerbatiums.push(verbatim);
+		verbatium = verbatim;
+		pushMode(INTERPOLATION_STRING);
+	}
+
+	/**
+	 * The action of COLON checks whether a format string follows the colon.
+	 */
+	private boolean isFormatStringAhead(int from) {
+		for (int i=from; i<end; i++) {
+			byte b = buf[i];
+			if (b == '}') return true;
+			if (b == ':' || b == ')') return false;
+		}
+		return false;
+	}
+
+	private int scanInterpolationStringToken(int start) {
+		byte b = buf[start];
+		if (b == '{') {
+			if (isAt(start+1, '{')) {
+				return start + 2;
+			}
+			curlyLevels.push(1);
+			pushMode(DEFAULT_MODE);
+			return start + 1;
+		} else if (b == '"') {
+			if (verbatium && isAt(start+1, '"')) {
+				return start + 2;
+			}
+			interpolatedStringLevel--;
+			interpolatedVerbatiums.pop();
+			verbatium = interpolatedVerbatiums.isEmpty() ? false : interpolatedVerbatiums.peek();
+			popMode();
+			return start + 1;
+		} else if (b == '\\' && !verbatium) {
+			if (start + 1 >= end) return ~end;
+			return isSimpleEscape(buf[start+1]) ? start + 2 : ~(start+1);
+		} else {
+			int i = start + 1;
+			while (i < end && buf[i] != '{' && buf[i] != '"' && (verbatium || buf[i] != '\\')) i++;
+			return i;
+		}
+	}
+
+	private int scanInterpolationFormatToken(int start) {
+		if (buf[start] == '}') {
+			if (isAt(start+1, '}')) {
+				return start + 2;
+			}
+			if (!curlyLevels.isEmpty()) curlyLevels.pop();
+			popMode();
+			return start + 1;
+		} else {
+			int i = start + 1;
+			while (i < end && buf[i] != '}') i++;
+			return i;
+		}
+	}
+
+	private int scanDirectiveToken(int start) {
+		int newline = skipNewLine(start);
+		if (newline > start) {
+			mode = DEFAULT_MODE;
+			return newline;
+		}
+		byte b = buf[start];
+		switch (b) {
+		case '(':
+		case ')':
+			return start + 1;
+		case '!':
+			return isAt(start+1, '=') ? start + 2 : start + 1;
+		case '=':
+		case '&':
+		case '|':
+			return isAt(start+1, (char)b) ? start + 2 : ~(start+1);
+		case '/':
+			return ~(start+1);
+		case '"':
+			for (int i=start+1; i<end; i++) {
+				if (buf[i] == '"') return i + 1;
+				if (skipNewLine(i) > i) return ~i;
+			}
+			return ~end;
+		default:
+			if (isDigit(b)) {
+				int i = start + 1;
+				while (i < end && isDigit(buf[i])) i++;
+				return i;
+			} else if (isWhitespaceAt(start)) {
+				return skipWhitespace(start);
+			} else if (skipIdentifierStart(start) >= 0) {
+				int wordEnd = skipIdentifier(start);
+				String word = new String(buf, start, wordEnd - start);
+				if (word.equals("region") || word.equals("endregion")) {
+					mode = DIRECTIVE_TEXT;
+					return skipWhitespace(wordEnd);
+				} else if (word.equals("error") || word.equals("warning") || word.equals("pragma")) {
+					int textStart = skipWhitespace(wordEnd);
+					if (textStart > wordEnd) {
+						mode = DIRECTIVE_TEXT;
+						return textStart;
+					}
+				}
+				return wordEnd;
+			} else if (b == '\\') {
+				return skipUnicodeEscape(start);
+			}
+			return ~start;
+		}
+	}
+
+	private void pushMode(int m) {
+		modeStack.push(mode);
+		mode = m;
+	}
+
+	private void popMode() {
+		if (!modeStack.isEmpty()) {
+			mode = modeStack.pop();
+		}
+	}
+
+	/**
+	 * @return the position of the first new line character from a position.
+	 */
+	private int findInputCharactersEnd(int from) {
+		int i = from;
+		while (i < end) {
+			if (skipNewLine(i) > i) return i;
+			i++;
+		}
+		return end;
+	}
+
+	/**
+	 * @return the next position of NewLine.  The position itself if it is not a new line.
+	 */
+	private int skipNewLine(int i) {
+		byte b = buf[i];
+		if (b == '\r') {
+			return isAt(i+1, '\n') ? i + 2 : i + 1;
+		} else if (b == '\n') {
+			return i + 1;
+		} else if (b < 0) {
+			int c = codePointAt(i);
+			if (c == NEXT_LINE || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+				return nextCodePoint(i);
+			}
+		}
+		return i;
+	}
+
+	private boolean isNewLineCharacter(int i) {
+		return skipNewLine(i) > i;
+	}
+
+	private int skipWhitespace(int from) {
+		int i = from;
+		while (i < end && isWhitespaceAt(i)) {
+			i = nextCodePoint(i);
+		}
+		return i;
+	}
+
+	private boolean isWhitespaceAt(int i) {
+		return isWhitespace(codePointAt(i));
+	}
+
+	/**
+	 * @return true for Whitespace in the grammar (Unicode class Zs, tab, vertical tab and form feed).
+	 */
+	private static boolean isWhitespace(int c) {
+		switch (c) {
+		case ' ':
+		case '\t':
+		case 0x0B:
+		case 0x0C:
+		case 0x00A0:
+		case 0x1680:
+		case 0x180E:
+		case 0x2008:
+		case 0x2009:
+		case 0x200A:
+		case 0x202F:
+		case 0x3000:
+		case 0x205F:
+			return true;
+		default:
+			return c >= 0x2000 && c <= 0x2006;
+		}
+	}
+
+	private int skipCharacterLiteral(int quote) {
+		int i = quote + 1;
+		if (i >= end) return ~end;
+		byte b = buf[i];
+		if (b == '\\') {
+			i = skipCommonCharacter(i);
+			if (i < 0) return i;
+		} else if (b == '\'' || isNewLineCharacter(i)) {
+			return ~i;
+		} else {
+			i = nextCodePoint(i);
+		}
+		if (i >= end) return ~end;
+		return buf[i] == '\'' ? i + 1 : ~i;
+	}
+
+	private int skipRegularString(int quote) {
+		int i = quote + 1;
+		while (i < end) {
+			byte b = buf[i];
+			if (b == '"') {
+				return i + 1;
+			} else if (b == '\\') {
+				i = skipCommonCharacter(i);
+				if (i < 0) return i;
+			} else if (isNewLineCharacter(i)) {
+				return ~i;
+			} else {
+				i++;
+			}
+		}
+		return ~end;
+	}
+
+	/**
+	 * @param quote is the position of '"' after '@'.
+	 */
+	private int skipVerbatimString(int quote) {
+		int i = quote + 1;
+		while (i < end) {
+			if (buf[i] == '"') {
+				if (!isAt(i+1, '"')) return i + 1;
+				i += 2;
+			} else {
+				i++;
+			}
+		}
+		return ~end;
+	}
+
+	/**
+	 * @param i is the position of a backslash.
+	 * @return the next position of CommonCharacter (an escape sequence),
+	 * or the complement of the failed position.
+	 * Hexadecimal escapes are regarded as their longest match.
+	 */
+	private int skipCommonCharacter(int i) {
+		if (i + 1 >= end) return ~end;
+		byte b = buf[i+1];
+		if (isSimpleEscape(b)) {
+			return i + 2;
+		} else if (b == 'x') {
+			int j = i + 2;
+			while (j < end && j < i + 6 && isHexDigit(buf[j])) j++;
+			if (j == i + 2) return ~Math.min(j, end);
+			return j;
+		} else if (b == 'u' || b == 'U') {
+			return skipUnicodeEscape(i);
+		}
+		return ~(i+1);
+	}
+
+	private static boolean isSimpleEscape(byte b) {
+		switch (b) {
+		case '\'':
+		case '"':
+		case '\\':
+		case '0':
+		case 'a':
+		case 'b':
+		case 'f':
+		case 'n':
+		case 'r':
+		case 't':
+		case 'v':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * @param i is the position of a backslash.
+	 * @return the next position of UnicodeEscapeSequence, or the complement of the failed position.
+	 */
+	private int skipUnicodeEscape(int i) {
+		if (i + 1 >= end) return ~end;
+		int digits;
+		if (buf[i+1] == 'u') {
+			digits = 4;
+		} else if (buf[i+1] == 'U') {
+			digits = 8;
+		} else {
+			return ~(i+1);
+		}
+		for (int j=i+2; j<i+2+digits; j++) {
+			if (j >= end || !isHexDigit(buf[j])) return ~Math.min(j, end);
+		}
+		return i + 2 + digits;
+	}
+
+	/**
+	 * @return the next position of IdentifierStartCharacter.  -1 if not matched.
+	 */
+	private int skipIdentifierStart(int i) {
+		byte b = buf[i];
+		if (isAsciiLetter(b) || b == '_') {
+			return i + 1;
+		} else if (b == '\\') {
+			int next = skipUnicodeEscape(i);
+			return next >= 0 ? next : -1;
+		} else if (b < 0) {
+			switch (Character.getType(codePointAt(i))) {
+			case Character.UPPERCASE_LETTER:
+			case Character.LOWERCASE_LETTER:
+			case Character.TITLECASE_LETTER:
+			case Character.MODIFIER_LETTER:
+			case Character.OTHER_LETTER:
+			case Character.LETTER_NUMBER:
+				return nextCodePoint(i);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the next position of IdentifierPartCharacter.  -1 if not matched.
+	 */
+	private int skipIdentifierPart(int i) {
+		byte b = buf[i];
+		if (isDigit(b)) {
+			return i + 1;
+		} else if (b < 0) {
+			switch (Character.getType(codePointAt(i))) {
+			case Character.DECIMAL_DIGIT_NUMBER:
+			case Character.CONNECTOR_PUNCTUATION:
+			case Character.NON_SPACING_MARK:
+			case Character.COMBINING_SPACING_MARK:
+			case Character.FORMAT:
+				return nextCodePoint(i);
+			}
+		}
+		return skipIdentifierStart(i);
+	}
+
+	/**
+	 * @return the next position of an identifier.
+	 * The start position is returned if an identifier does not start at the position.
+	 */
+	private int skipIdentifier(int start) {
+		int i = skipIdentifierStart(start);
+		if (i < 0) return start;
+		while (i < end) {
+			int next = skipIdentifierPart(i);
+			if (next < 0) break;
+			i = next;
+		}
+		return i;
+	}
+
+}
@@ -0,0 +1,378 @@
+package jp.naist.se.commentlister.scanner;
+
+import java.nio.charset.StandardCharsets;
+
+import jp.naist.se.commentlister.reader.AsciiCharSequence;
+import jp.naist.se.commentlister.reader.CommentReader;
+import jp.naist.se.commentlister.reader.FileType;
+import jp.naist.se.commentlister.reader.MultilineCommentReader;
+
+/**
+ * A base class of hand-written scanners reading comments from UTF-8 bytes without ANTLR.
+ * A scanner recognizes only tokens that may include comment-like sequences
+ * (e.g. string and character literals) following the ANTLR grammar of the language,
+ * so that it reports the same comments as the lexer.
+ * Each call of next() returns a single comment token;
+ * createCommentReader merges line comments in the same way as AntlrMultilineCommentReader.
+ */
+public abstract class CommentScanner implements CommentReader {
+
+	protected final byte[] buf;
+	protected final int end;
+
+	/**
+	 * The current position of the scanner
+	 */
+	protected int pos;
+
+	private int commentStart;
+	private int commentEnd;
+	private String text;
+	private int line;
+	private int charPositionInLine;
+	private int startOffset;
+
+	/**
+	 * Properties of the current comment computed by measure()
+	 */
+	private boolean measured;
+	private boolean ascii;
+	private int endLine;
+	private int endOffset;
+
+	/**
+	 * Line numbers are computed for bytes before this position
+	 */
+	private int countedPos;
+	private int currentLine;
+	private int currentLineStart;
+
+	/**
+	 * The number of characters before countedPos
+	 */
+	private int currentOffset;
+
+	/**
+	 * The number of characters from the line start to columnPos
+	 */
+	private int columnPos;
+	private int column;
+
+	/**
+	 * @param buf is the content of a file.
+	 * @param start is the position of the first character (i.e. the next of BOM).
+	 */
+	protected CommentScanner(byte[] buf, int start) {
+		this.buf = buf;
+		this.end = buf.length;
+		this.pos = start;
+		this.countedPos = start;
+		this.currentLine = 1;
+		this.currentLineStart = start;
+		this.columnPos = start;
+	}
+
+	/**
+	 * Create a reader using a scanner for a file type.
+	 * @param t is a file type.
+	 * @param buf is the content of a file.
+	 * @return a CommentReader.
+	 * null if no scanner supports the file type, or the content is not UTF-8.
+	 */
+	public static CommentReader createCommentReader(FileType t, byte[] buf) {
+		int start = 0;
+		if (buf.length >= 3 &&
+			buf[0] == (byte)0xEF && buf[1] == (byte)0xBB && buf[2] == (byte)0xBF) {
+			start = 3;
+		}
+		if (!isSupported(t) || !isValidUTF8(buf, start)) return null;
+
+		switch (t) {
+		case JAVA:
+			return new MultilineCommentReader(new JavaCommentScanner(buf, start));
+		case CPP:
+		case CMAKESOURCE:
+			return new MultilineCommentReader(new CppCommentScanner(buf, start));
+		case ECMASCRIPT:
+			return new MultilineCommentReader(new EcmaScriptCommentScanner(buf, start));
+		case CSHARP:
+			return new MultilineCommentReader(new CSharpCommentScanner(buf, start));
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if a scanner is available for the file type.
+	 */
+	public static boolean isSupported(FileType t) {
+		switch (t) {
+		case JAVA:
+		case CPP:
+		case CMAKESOURCE:
+		case ECMASCRIPT:
+		case CSHARP:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Check the encoding of a content.
+	 * Lines and character positions of an invalid sequence depend on the decoder of ANTLR,
+	 * so that such a file should be processed by the lexer.
+	 * @return true if the bytes are a valid UTF-8 sequence.
+	 */
+	public static boolean isValidUTF8(byte[] buf, int start) {
+		int i = start;
+		while (i < buf.length) {
+			int b = buf[i] & 0xFF;
+			if (b < 0x80) {
+				i++;
+				continue;
+			}
+			int length;
+			int min;
+			if (b >= 0xC2 && b <= 0xDF) {
+				length = 2;
+				min = 0x80;
+			} else if (b >= 0xE0 && b <= 0xEF) {
+				length = 3;
+				min = 0x800;
+			} else if (b >= 0xF0 && b <= 0xF4) {
+				length = 4;
+				min = 0x10000;
+			} else {
+				return false;
+			}
+			if (i + length > buf.length) return false;
+			int c = b & (0x7F >> length);
+			for (int j=1; j<length; j++) {
+				int next = buf[i+j] & 0xFF;
+				if ((next & 0xC0) != 0x80) return false;
+				c = (c << 6) | (next & 0x3F);
+			}
+			if (c < min || c > 0x10FFFF || (c >= 0xD800 && c <= 0xDFFF)) return false;
+			i += length;
+		}
+		return true;
+	}
+
+	/**
+	 * Proceed to the next comment token.
+	 * Implementation should call found() for a comment token.
+	 * @return false if the scanner reached the end of the content.
+	 */
+	protected abstract boolean findComment();
+
+	/**
+	 * Record a comment token.
+	 * @param start is the first byte of the token.
+	 * @param tokenEnd is the next of the last byte of the token.
+	 * @return true
+	 */
+	protected boolean found(int start, int tokenEnd) {
+		this.commentStart = start;
+		this.commentEnd = tokenEnd;
+		this.pos = tokenEnd;
+		return true;
+	}
+
+	@Override
+	public boolean next() {
+		text = null;
+		measured = false;
+		if (pos < end && findComment()) {
+			locate(commentStart);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Compute the line, the character position and the offset of a token.
+	 * Lines are separated by '\n' as ANTLR, and characters are code points.
+	 */
+	private void locate(int start) {
+		for (int i=countedPos; i<start; i++) {
+			byte b = buf[i];
+			if (b == '\n') {
+				currentLine++;
+				currentLineStart = i + 1;
+			}
+			if ((b & 0xC0) != 0x80) currentOffset++;
+		}
+		countedPos = start;
+		startOffset = currentOffset;
+		if (columnPos < currentLineStart) {
+			columnPos = currentLineStart;
+			column = 0;
+		}
+		for (int i=columnPos; i<start; i++) {
+			if ((buf[i] & 0xC0) != 0x80) column++;
+		}
+		columnPos = start;
+		line = currentLine;
+		charPositionInLine = column;
+	}
+
+	@Override
+	public String getText() {
+		if (text == null) {
+			text = new String(buf, commentStart, commentEnd - commentStart, StandardCharsets.UTF_8);
+		}
+		return text;
+	}
+
+	@Override
+	public int getLine() {
+		return line;
+	}
+
+	@Override
+	public int getCharPositionInLine() {
+		return charPositionInLine;
+	}
+
+	/**
+	 * Compute the end line, the end offset and the encoding of the current comment.
+	 */
+	private void measure() {
+		if (measured) return;
+		int lines = 0;
+		int chars = 0;
+		boolean nonAscii = false;
+		for (int i=commentStart; i<commentEnd; i++) {
+			byte b = buf[i];
+			if (b == '\n') lines++;
+			if ((b & 0xC0) != 0x80) chars++;
+			if (b < 0) nonAscii = true;
+		}
+		// A line break at the end of a token belongs to the line
+		if (commentEnd > commentStart && buf[commentEnd - 1] == '\n') lines--;
+		endLine = line + lines;
+		endOffset = startOffset + chars;
+		ascii = !nonAscii;
+		measured = true;
+	}
+
+	@Override
+	public int getEndLine() {
+		measure();
+		return endLine;
+	}
+
+	@Override
+	public int getStartOffset() {
+		return startOffset;
+	}
+
+	@Override
+	public int getEndOffset() {
+		measure();
+		return endOffset;
+	}
+
+	/**
+	 * @return a view of the buffer if the comment includes only ASCII characters.
+	 */
+	@Override
+	public CharSequence getTextSequence() {
+		if (text != null) return text;
+		measure();
+		if (ascii) {
+			return new AsciiCharSequence(buf, commentStart, commentEnd);
+		} else {
+			return getText();
+		}
+	}
+
+	/**
+	 * @return the position of the first '\r' or '\n' from a position.
+	 * The end of the content is returned if not found.
+	 */
+	protected int findLineEnd(int from) {
+		for (int i=from; i<end; i++) {
+			byte b = buf[i];
+			if (b == '\n' || b == '\r') return i;
+		}
+		return end;
+	}
+
+	/**
+	 * @return the position of the first '\n' from a position.
+	 * The end of the content is returned if not found.
+	 */
+	protected int findNewLine(int from) {
+		for (int i=from; i<end; i++) {
+			if (buf[i] == '\n') return i;
+		}
+		return end;
+	}
+
+	/**
+	 * @param from is the next position of "/*".
+	 * @return the next position of "*&#47;".  -1 if not found.
+	 */
+	protected int findBlockCommentEnd(int from) {
+		for (int i=from; i+1<end; i++) {
+			if (buf[i] == '*' && buf[i+1] == '/') return i + 2;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the code point at a position.
+	 */
+	protected int codePointAt(int i) {
+		int b = buf[i] & 0xFF;
+		if (b < 0x80) return b;
+		int length = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+		int c = b & (0x7F >> length);
+		for (int j=1; j<length; j++) {
+			c = (c << 6) | (buf[i+j] & 0x3F);
+		}
+		return c;
+	}
+
+	/**
+	 * @return the position of the next code point.
+	 */
+	protected int nextCodePoint(int i) {
+		int b = buf[i] & 0xFF;
+		if (b < 0x80) return i + 1;
+		return i + (b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2);
+	}
+
+	protected boolean isAt(int i, char c) {
+		return i < end && buf[i] == c;
+	}
+
+	protected static boolean isDigit(int c) {
+		return '0' <= c && c <= '9';
+	}
+
+	protected static boolean isOctalDigit(int c) {
+		return '0' <= c && c <= '7';
+	}
+
+	protected static boolean isHexDigit(int c) {
+		return ('0' <= c && c <= '9') || ('a' <= c && c <= 'f') || ('A' <= c && c <= 'F');
+	}
+
+	protected static boolean isAsciiLetter(int c) {
+		return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
+	}
+
+	/**
+	 * @return the position after hex digits.  -1 if the digits are not available.
+	 */
+	protected int skipHexDigits(int i, int count) {
+		for (int j=0; j<count; j++) {
+			if (i + j >= end || !isHexDigit(buf[i + j])) return -1;
+		}
+		return i + count;
+	}
+
+}
@@ -0,0 +1,347 @@
+package jp.naist.se.commentlister.scanner;
+
+/**
+ * A scanner following the CPP14 grammar.
+ * In addition to literals and comments, the scanner recognizes
+ * identifiers (for encoding prefixes of literals), numbers (for digit separators)
+ * and preprocessing directives, which are skipped including comments in them.
+ * An identifier immediately following a literal is a user-defined suffix of the literal,
+ * so that it is never an encoding prefix of the next literal.
+ */
+public class CppCommentScanner extends CommentScanner {
+
+	/**
+	 * The result of the last call of findSuffixedQuote, since raw strings may search the same range
+	 */
+	private int suffixedQuoteFrom = -1;
+	private int suffixedQuote = -1;
+
+	public CppCommentScanner(byte[] buf, int start) {
+		super(buf, start);
+	}
+
+	@Override
+	protected boolean findComment() {
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b == '/') {
+				if (isAt(pos+1, '/')) {
+					return found(pos, findLineEnd(pos+2));
+				} else if (isAt(pos+1, '*')) {
+					int commentEnd = findBlockCommentEnd(pos+2);
+					if (commentEnd >= 0) {
+						return found(pos, commentEnd);
+					}
+				}
+				pos++;
+			} else if (b == '"' || b == '\'') {
+				int next = skipQuotedLiteral(pos);
+				pos = next >= 0 ? skipSuffix(next) : pos + 1;
+			} else if (b == '#') {
+				pos = skipDirective(pos);
+			} else if (isDigit(b) || (b == '.' && pos + 1 < end && isDigit(buf[pos+1]))) {
+				pos = skipNumber(pos);
+			} else if (isAsciiLetter(b) || b == '_' || (b == '\\' && skipUniversalCharacterName(pos) >= 0)) {
+				pos = skipIdentifierOrLiteral(pos);
+			} else {
+				pos++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * An identifier may be an encoding prefix of a literal.
+	 * @return the next position of the identifier or the literal.
+	 */
+	private int skipIdentifierOrLiteral(int start) {
+		int i = skipIdentifierCharacters(start);
+		if (i < end && i - start <= 3) {
+			int literalEnd = -1;
+			if (buf[i] == '"') {
+				if (isWord(start, i, "u8") || isWord(start, i, "u") || isWord(start, i, "U") || isWord(start, i, "L")) {
+					literalEnd = skipQuotedLiteral(i);
+				} else if (isWord(start, i, "R") || isWord(start, i, "u8R") || isWord(start, i, "uR") || isWord(start, i, "UR") || isWord(start, i, "LR")) {
+					literalEnd = skipRawString(i);
+				}
+			} else if (buf[i] == '\'') {
+				if (isWord(start, i, "u") || isWord(start, i, "U") || isWord(start, i, "L")) {
+					literalEnd = skipQuotedLiteral(i);
+				}
+			}
+			if (literalEnd >= 0) return skipSuffix(literalEnd);
+		}
+		return i;
+	}
+
+	/**
+	 * @return the next position of letters, digits, underscores and universal character names.
+	 */
+	private int skipIdentifierCharacters(int start) {
+		int i = start;
+		while (i < end) {
+			byte b = buf[i];
+			if (isAsciiLetter(b) || isDigit(b) || b == '_') {
+				i++;
+			} else if (b == '\\' && skipUniversalCharacterName(i) >= 0) {
+				i = skipUniversalCharacterName(i);
+			} else {
+				break;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * A user-defined suffix is an identifier following a literal.
+	 * @param literalEnd is the next position of a literal.
+	 * @return the next position of the suffix, or literalEnd if no suffix follows.
+	 */
+	private int skipSuffix(int literalEnd) {
+		if (literalEnd >= end) return literalEnd;
+		byte b = buf[literalEnd];
+		if (isAsciiLetter(b) || b == '_' || (b == '\\' && skipUniversalCharacterName(literalEnd) >= 0)) {
+			return skipIdentifierCharacters(literalEnd);
+		}
+		return literalEnd;
+	}
+
+	/**
+	 * @return true if the bytes between start and wordEnd are the same as a word.
+	 */
+	private boolean isWord(int start, int wordEnd, String word) {
+		if (wordEnd - start != word.length()) return false;
+		for (int i=0; i<word.length(); i++) {
+			if (buf[start + i] != word.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param quote is the position of a quote character of a string or character literal.
+	 * @return the next position of the literal.  -1 if the literal is invalid.
+	 */
+	private int skipQuotedLiteral(int quote) {
+		byte q = buf[quote];
+		int i = quote + 1;
+		while (i < end) {
+			byte b = buf[i];
+			if (b == q) {
+				// A character literal must include at least one character
+				if (q == '\'' && i == quote + 1) return -1;
+				return i + 1;
+			} else if (b == '\r' || b == '\n') {
+				return -1;
+			} else if (b == '\\') {
+				i = skipEscapeSequence(i);
+				if (i < 0) return -1;
+			} else {
+				i++;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The grammar defines a raw string as '"' .*? '(' .*? ')' .*? '"'.
+	 * The lexer prefers the longest token, so that a raw string
+	 * extends to a later quote followed by a user-defined suffix if the file has such a quote.
+	 * @param quote is the position of the first quote.
+	 * @return the next position of the raw string.  -1 if the string is invalid.
+	 */
+	private int skipRawString(int quote) {
+		int i = quote + 1;
+		while (i < end && buf[i] != '(') i++;
+		i++;
+		while (i < end && buf[i] != ')') i++;
+		i++;
+		while (i < end && buf[i] != '"') i++;
+		if (i >= end) return -1;
+		int suffixed = findSuffixedQuote(i);
+		return suffixed < end ? suffixed + 1 : i + 1;
+	}
+
+	/**
+	 * @return the position of the first quote followed by an identifier after a position.
+	 * end if no such quote exists.
+	 */
+	private int findSuffixedQuote(int from) {
+		if (from < suffixedQuoteFrom || suffixedQuote < from) {
+			suffixedQuoteFrom = from;
+			suffixedQuote = from;
+			while (suffixedQuote < end && !(buf[suffixedQuote] == '"' && skipSuffix(suffixedQuote + 1) > suffixedQuote + 1)) {
+				suffixedQuote++;
+			}
+		}
+		return suffixedQuote;
+	}
+
+	/**
+	 * @param i is the position of a backslash.
+	 * @return the next position of an escape sequence or a universal character name.
+	 * Octal and hexadecimal escapes are regarded as a single digit.
+	 * -1 if the sequence is invalid.
+	 */
+	private int skipEscapeSequence(int i) {
+		if (i + 1 >= end) return -1;
+		byte b = buf[i+1];
+		switch (b) {
+		case '\'':
+		case '"':
+		case '?':
+		case '\\':
+		case 'a':
+		case 'b':
+		case 'f':
+		case 'n':
+		case 'r':
+		case 't':
+		case 'v':
+			return i + 2;
+		case 'x':
+			return skipHexDigits(i+2, 1);
+		case 'u':
+		case 'U':
+			return skipUniversalCharacterName(i);
+		default:
+			return isOctalDigit(b) ? i + 2 : -1;
+		}
+	}
+
+	/**
+	 * @param i is the position of a backslash.
+	 * @return the next position of "\\u" Hexquad or "\\U" Hexquad Hexquad.  -1 if not matched.
+	 */
+	private int skipUniversalCharacterName(int i) {
+		if (isAt(i+1, 'u')) {
+			return skipHexDigits(i+2, 4);
+		} else if (isAt(i+1, 'U')) {
+			return skipHexDigits(i+2, 8);
+		}
+		return -1;
+	}
+
+	/**
+	 * A number is the longest integer or floating literal of the grammar followed by an optional suffix.
+	 * A quote is a digit separator only between two digits of a digit sequence;
+	 * for example, "0'9" is an octal literal "0" followed by a quote.
+	 * @return the next position of a number.
+	 */
+	private int skipNumber(int start) {
+		int integerEnd = skipSuffix(skipIntegerLiteral(start));
+		int floatingEnd = skipFloatingLiteral(start);
+		if (floatingEnd >= 0) floatingEnd = skipSuffix(floatingEnd);
+		return Math.max(integerEnd, floatingEnd);
+	}
+
+	/**
+	 * @return the next position of an integer literal without a suffix.
+	 * start if the number starts with a period.
+	 */
+	private int skipIntegerLiteral(int start) {
+		byte b = buf[start];
+		if (b == '0' && start + 2 < end) {
+			byte prefix = buf[start+1];
+			if ((prefix == 'x' || prefix == 'X') && isHexDigit(buf[start+2])) {
+				return skipDigitSequence(start + 3, 16);
+			} else if ((prefix == 'b' || prefix == 'B') && isDigit(buf[start+2], 2)) {
+				return skipDigitSequence(start + 3, 2);
+			}
+		}
+		if (b == '0') {
+			return skipDigitSequence(start + 1, 8);
+		} else if (isDigit(b)) {
+			return skipDigitSequence(start + 1, 10);
+		}
+		return start;
+	}
+
+	/**
+	 * @return the next position of a floating literal without a suffix.
+	 * -1 if the number is not a floating literal.
+	 */
+	private int skipFloatingLiteral(int start) {
+		int i = start;
+		if (isDigit(buf[i])) {
+			i = skipDigitSequence(i + 1, 10);
+		}
+		boolean fraction = false;
+		if (i < end && buf[i] == '.') {
+			if (i + 1 < end && isDigit(buf[i+1])) {
+				i = skipDigitSequence(i + 2, 10);
+				fraction = true;
+			} else if (i > start) {
+				i++;
+				fraction = true;
+			}
+		}
+		if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+			int j = i + 1;
+			if (j < end && (buf[j] == '+' || buf[j] == '-')) j++;
+			if (j < end && isDigit(buf[j])) {
+				return skipDigitSequence(j + 1, 10);
+			}
+		}
+		return fraction ? i : -1;
+	}
+
+	/**
+	 * A digit sequence may include a quote between two digits.
+	 * @param i is the next position of the first digit.
+	 * @return the next position of the sequence.
+	 */
+	private int skipDigitSequence(int i, int radix) {
+		while (i < end) {
+			if (isDigit(buf[i], radix)) {
+				i++;
+			} else if (buf[i] == '\'' && i + 1 < end && isDigit(buf[i+1], radix)) {
+				i += 2;
+			} else {
+				break;
+			}
+		}
+		return i;
+	}
+
+	private static boolean isDigit(byte b, int radix) {
+		switch (radix) {
+		case 16:
+			return isHexDigit(b);
+		case 8:
+			return isOctalDigit(b);
+		case 2:
+			return b == '0' || b == '1';
+		default:
+			return isDigit(b);
+		}
+	}
+
+	/**
+	 * A directive is skipped including comments.
+	 * Lines ending with a backslash are continued to the next line,
+	 * if the next line is not empty.
+	 * @return the position of '\n' at the end of the directive.
+	 */
+	private int skipDirective(int start) {
+		int lineEnd = findNewLine(start);
+		int directiveEnd = lineEnd;
+		while (lineEnd < end && endsWithBackslash(lineEnd)) {
+			int nextLineEnd = findNewLine(lineEnd + 1);
+			if (nextLineEnd == lineEnd + 1) break;
+			directiveEnd = nextLineEnd;
+			lineEnd = nextLineEnd;
+		}
+		return directiveEnd;
+	}
+
+	/**
+	 * @param newline is the position of '\n'.
+	 * @return true if the line ends with '\\' or "\\\r".
+	 */
+	private boolean endsWithBackslash(int newline) {
+		int i = newline - 1;
+		if (i >= 0 && buf[i] == '\r') i--;
+		return i >= 0 && buf[i] == '\\';
+	}
+
+}
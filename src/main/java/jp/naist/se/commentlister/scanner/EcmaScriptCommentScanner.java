@@ -0,0 +1,320 @@
+package jp.naist.se.commentlister.scanner;
+
+/**
+ * A scanner following the ECMAScript grammar.
+ * A slash starts a regular expression literal if the previous token
+ * on the default channel allows it (isRegexPossible in the grammar),
+ * so that the scanner classifies identifiers, keywords, numbers and punctuators.
+ * Non-ASCII identifier characters are classified by java.lang.Character
+ * instead of the Unicode tables in the grammar.
+ */
+public class EcmaScriptCommentScanner extends CommentScanner {
+
+	/**
+	 * Keywords after which a regular expression may follow.
+	 * The grammar runs in the strict mode.
+	 */
+	private static final String[] KEYWORDS = {
+			"break", "do", "instanceof", "typeof", "case", "else", "new", "var",
+			"catch", "finally", "return", "void", "continue", "for", "switch", "while",
+			"debugger", "function", "with", "default", "if", "throw", "delete", "in", "try",
+			"class", "enum", "extends", "super", "const", "export", "import",
+			"implements", "let", "private", "public", "interface", "package", "protected", "static", "yield"
+	};
+
+	private static final int LINE_SEPARATOR = 0x2028;
+	private static final int PARAGRAPH_SEPARATOR = 0x2029;
+	private static final int NO_BREAK_SPACE = 0x00A0;
+	private static final int ZWNJ = 0x200C;
+	private static final int ZWJ = 0x200D;
+
+	/**
+	 * True if the previous token allows a regular expression literal
+	 */
+	private boolean regexPossible;
+
+	public EcmaScriptCommentScanner(byte[] buf, int start) {
+		super(buf, start);
+		this.regexPossible = true;
+	}
+
+	@Override
+	protected boolean findComment() {
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b == '/') {
+				if (isAt(pos+1, '/')) {
+					return found(pos, findLineTerminator(pos+2));
+				} else if (isAt(pos+1, '*')) {
+					int commentEnd = findBlockCommentEnd(pos+2);
+					if (commentEnd >= 0) {
+						return found(pos, commentEnd);
+					}
+				}
+				int next = regexPossible ? skipRegularExpression(pos) : -1;
+				if (next >= 0) {
+					pos = next;
+				} else {
+					pos += isAt(pos+1, '=') ? 2 : 1;
+				}
+				regexPossible = true;
+			} else if (b == '"' || b == '\'') {
+				int next = skipStringLiteral(pos);
+				if (next >= 0) {
+					pos = next;
+					regexPossible = false;
+				} else {
+					pos++;
+					regexPossible = true;
+				}
+			} else if (b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == 0x0B || b == 0x0C) {
+				// Hidden tokens do not change the state
+				pos++;
+			} else if (isDigit(b) || (b == '.' && pos + 1 < end && isDigit(buf[pos+1]))) {
+				pos = skipNumber(pos);
+				regexPossible = false;
+			} else if (b == ')' || b == ']') {
+				pos++;
+				regexPossible = false;
+			} else if ((b == '+' || b == '-') && isAt(pos+1, (char)b)) {
+				pos += 2;
+				regexPossible = false;
+			} else if (b >= 0 && b != '$' && b != '_' && b != '\\' && !isAsciiLetter(b)) {
+				// Other punctuators
+				pos++;
+				regexPossible = true;
+			} else {
+				int c = codePointAt(pos);
+				int next = skipIdentifier(pos);
+				if (next > pos) {
+					regexPossible = isKeyword(pos, next);
+					pos = next;
+				} else {
+					// Line terminators and white space are hidden
+					if (c != LINE_SEPARATOR && c != PARAGRAPH_SEPARATOR && c != NO_BREAK_SPACE) {
+						regexPossible = true;
+					}
+					pos = nextCodePoint(pos);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the position of the first line terminator from a position.
+	 */
+	private int findLineTerminator(int from) {
+		int i = from;
+		while (i < end) {
+			byte b = buf[i];
+			if (b == '\n' || b == '\r') return i;
+			if (b == (byte)0xE2 && isLineSeparator(i)) return i;
+			i++;
+		}
+		return end;
+	}
+
+	/**
+	 * @return true if a position is U+2028 or U+2029.
+	 */
+	private boolean isLineSeparator(int i) {
+		return i + 2 < end && buf[i] == (byte)0xE2 && buf[i+1] == (byte)0x80 &&
+				(buf[i+2] == (byte)0xA8 || buf[i+2] == (byte)0xA9);
+	}
+
+	private boolean isLineTerminator(int i) {
+		return buf[i] == '\r' || buf[i] == '\n' || isLineSeparator(i);
+	}
+
+	/**
+	 * @param quote is the position of a quote.
+	 * @return the next position of a string literal.  -1 if the literal is invalid.
+	 */
+	private int skipStringLiteral(int quote) {
+		byte q = buf[quote];
+		int i = quote + 1;
+		while (i < end) {
+			byte b = buf[i];
+			if (b == q) {
+				return i + 1;
+			} else if (b == '\r' || b == '\n') {
+				return -1;
+			} else if (b == '\\') {
+				i = skipEscapeSequence(i);
+				if (i < 0) return -1;
+			} else {
+				i++;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param i is the position of a backslash.
+	 * @return the next position of an escape sequence or a line continuation.
+	 * -1 if the sequence is invalid.
+	 */
+	private int skipEscapeSequence(int i) {
+		if (i + 1 >= end) return -1;
+		byte b = buf[i+1];
+		if (b == '\r') {
+			return isAt(i+2, '\n') ? i + 3 : i + 2;
+		} else if (b == '\n') {
+			return i + 2;
+		} else if (b == 'x') {
+			return skipHexDigits(i+2, 2);
+		} else if (b == 'u') {
+			return skipHexDigits(i+2, 4);
+		} else if (b == '0') {
+			return i + 2;
+		} else if (isDigit(b)) {
+			return -1;
+		}
+		return nextCodePoint(i+1);
+	}
+
+	/**
+	 * @param slash is the position of the first slash.
+	 * @return the next position of a regular expression literal including flags.
+	 * -1 if the literal is invalid.
+	 */
+	private int skipRegularExpression(int slash) {
+		int i = slash + 1;
+		boolean first = true;
+		while (i < end) {
+			byte b = buf[i];
+			if (b == '/') {
+				if (first) return -1;
+				int flagsEnd = i + 1;
+				while (flagsEnd < end) {
+					int next = skipIdentifierPart(flagsEnd);
+					if (next < 0) break;
+					flagsEnd = next;
+				}
+				return flagsEnd;
+			} else if (isLineTerminator(i) || (first && b == '*')) {
+				return -1;
+			} else if (b == '\\') {
+				if (i + 1 >= end || isLineTerminator(i+1)) return -1;
+				i = nextCodePoint(i+1);
+			} else if (b == '[') {
+				i++;
+				while (i < end && buf[i] != ']') {
+					if (isLineTerminator(i)) return -1;
+					if (buf[i] == '\\') {
+						if (i + 1 >= end || isLineTerminator(i+1)) return -1;
+						i++;
+					}
+					i = nextCodePoint(i);
+				}
+				if (i >= end) return -1;
+				i++;
+			} else {
+				i = nextCodePoint(i);
+			}
+			first = false;
+		}
+		return -1;
+	}
+
+	/**
+	 * DecimalLiteral, HexIntegerLiteral (OctalIntegerLiteral is disabled in the strict mode).
+	 * @return the next position of a number.
+	 */
+	private int skipNumber(int start) {
+		int i = start;
+		if (buf[i] == '0' && i + 2 < end && (buf[i+1] == 'x' || buf[i+1] == 'X') && isHexDigit(buf[i+2])) {
+			i += 2;
+			while (i < end && isHexDigit(buf[i])) i++;
+			return i;
+		}
+		if (buf[i] == '0') {
+			i++;
+		} else {
+			while (i < end && isDigit(buf[i])) i++;
+		}
+		if (isAt(i, '.')) {
+			i++;
+			while (i < end && isDigit(buf[i])) i++;
+		}
+		if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+			int j = i + 1;
+			if (j < end && (buf[j] == '+' || buf[j] == '-')) j++;
+			if (j < end && isDigit(buf[j])) {
+				while (j < end && isDigit(buf[j])) j++;
+				i = j;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * @return the next position of an identifier.
+	 * The start position is returned if an identifier does not start at the position.
+	 */
+	private int skipIdentifier(int start) {
+		int i = skipIdentifierStart(start);
+		if (i < 0) return start;
+		while (i < end) {
+			int next = skipIdentifierPart(i);
+			if (next < 0) break;
+			i = next;
+		}
+		return i;
+	}
+
+	/**
+	 * @return the next position of IdentifierStart.  -1 if not matched.
+	 */
+	private int skipIdentifierStart(int i) {
+		byte b = buf[i];
+		if (isAsciiLetter(b) || b == '$' || b == '_') {
+			return i + 1;
+		} else if (b == '\\') {
+			return isAt(i+1, 'u') ? skipHexDigits(i+2, 4) : -1;
+		} else if (b < 0) {
+			return Character.isLetter(codePointAt(i)) ? nextCodePoint(i) : -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the next position of IdentifierPart.  -1 if not matched.
+	 */
+	private int skipIdentifierPart(int i) {
+		byte b = buf[i];
+		if (b < 0) {
+			int c = codePointAt(i);
+			switch (Character.getType(c)) {
+			case Character.NON_SPACING_MARK:
+			case Character.COMBINING_SPACING_MARK:
+			case Character.DECIMAL_DIGIT_NUMBER:
+			case Character.CONNECTOR_PUNCTUATION:
+				return nextCodePoint(i);
+			}
+			if (c == ZWNJ || c == ZWJ) return nextCodePoint(i);
+		} else if (isDigit(b)) {
+			return i + 1;
+		}
+		return skipIdentifierStart(i);
+	}
+
+	/**
+	 * @return true if the word is a keyword allowing a regular expression after it.
+	 */
+	private boolean isKeyword(int start, int wordEnd) {
+		int length = wordEnd - start;
+		for (String k: KEYWORDS) {
+			if (k.length() == length && buf[start] == k.charAt(0)) {
+				boolean match = true;
+				for (int i=1; i<length && match; i++) {
+					match = buf[start + i] == k.charAt(i);
+				}
+				if (match) return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,126 @@
+package jp.naist.se.commentlister.scanner;
+
+/**
+ * A scanner following the Java8 grammar.
+ * Only string literals, character literals and comments are recognized.
+ * A quote that does not start a valid literal is a single character token
+ * (ERROR_CHARACTER in the grammar).
+ */
+public class JavaCommentScanner extends CommentScanner {
+
+	public JavaCommentScanner(byte[] buf, int start) {
+		super(buf, start);
+	}
+
+	@Override
+	protected boolean findComment() {
+		while (pos < end) {
+			byte b = buf[pos];
+			if (b == '/') {
+				if (isAt(pos+1, '/')) {
+					return found(pos, findLineEnd(pos+2));
+				} else if (isAt(pos+1, '*')) {
+					int commentEnd = findBlockCommentEnd(pos+2);
+					if (commentEnd >= 0) {
+						return found(pos, commentEnd);
+					}
+				}
+				pos++;
+			} else if (b == '"') {
+				pos = skipStringLiteral(pos);
+			} else if (b == '\'') {
+				pos = skipCharacterLiteral(pos);
+			} else {
+				pos++;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the next position of a string literal.
+	 * The next of the quote is returned if the literal is invalid.
+	 */
+	private int skipStringLiteral(int quote) {
+		int i = quote + 1;
+		while (i < end) {
+			byte b = buf[i];
+			if (b == '"') {
+				return i + 1;
+			} else if (b == '\r' || b == '\n') {
+				break;
+			} else if (b == '\\') {
+				i = skipEscapeSequence(i);
+				if (i < 0) break;
+			} else {
+				i++;
+			}
+		}
+		return quote + 1;
+	}
+
+	/**
+	 * @return the next position of a character literal.
+	 * The next of the quote is returned if the literal is invalid.
+	 */
+	private int skipCharacterLiteral(int quote) {
+		int i = quote + 1;
+		if (i < end) {
+			byte b = buf[i];
+			if (b == '\\') {
+				// An octal escape may have one to three digits
+				if (i + 1 < end && isOctalDigit(buf[i+1])) {
+					int maxDigits = buf[i+1] <= '3' ? 3 : 2;
+					for (int digits=1; digits<=maxDigits; digits++) {
+						int next = i + 1 + digits;
+						if (isAt(next, '\'')) return next + 1;
+						if (next >= end || !isOctalDigit(buf[next])) break;
+					}
+				} else {
+					int next = skipEscapeSequence(i);
+					if (next >= 0 && isAt(next, '\'')) return next + 1;
+				}
+			} else if (b != '\'' && b != '\r' && b != '\n') {
+				int next = nextCodePoint(i);
+				if (isAt(next, '\'')) return next + 1;
+			}
+		}
+		return quote + 1;
+	}
+
+	/**
+	 * @param i is the position of a backslash.
+	 * @return the next position of an escape sequence.
+	 * An octal escape is regarded as a single digit.
+	 * -1 if the sequence is invalid.
+	 */
+	private int skipEscapeSequence(int i) {
+		if (i + 1 >= end) return -1;
+		switch (buf[i+1]) {
+		case 'b':
+		case 't':
+		case 'n':
+		case 'f':
+		case 'r':
+		case '"':
+		case '\'':
+		case '\\':
+		case '0':
+		case '1':
+		case '2':
+		case '3':
+		case '4':
+		case '5':
+		case '6':
+		case '7':
+			return i + 2;
+		case 'u':
+			int u = i + 1;
+			while (isAt(u, 'u')) u++;
+			return skipHexDigits(u, 4);
+		default:
+			return -1;
+		}
+	}
+
+}
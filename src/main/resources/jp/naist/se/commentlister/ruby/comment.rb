@@ -45,14 +45,17 @@ class CommentScanner < Ripper::Filter
 		@comments
 	end
 	
+	# Extract comments from a source string.
+	# This method is called by RubyCommentReader for each file.
+	def self.extract(src)
+		scanner = CommentScanner.new(src)
+		scanner.parse('')
+		scanner.comments.map { |c|
+			Java::jp.naist.se.commentlister.ruby.RubyCommentReader::Comment.new(c[0], c[1], c[3])
+		}
+	end
+	
 end
 
-def parse(src)
-	scanner = CommentScanner.new(src)
-	scanner.parse('')
-	scanner.comments.map { |c|
-		Java::jp.naist.se.commentlister.ruby.RubyCommentReader::Comment.new(c[0], c[1], c[3])
-	}
-end
-
-parse(value)
+# The class is returned to RubyCommentReader as the receiver of extract
+CommentScanner
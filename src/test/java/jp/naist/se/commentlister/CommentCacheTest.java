@@ -0,0 +1,149 @@
+package jp.naist.se.commentlister;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import jp.naist.se.commentlister.reader.FileType;
+
+public class CommentCacheTest {
+
+	private static ObjectId id(int i) {
+		return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, Integer.toString(i).getBytes());
+	}
+
+	private static FileComments comments(String text) {
+		FileComments c = new FileComments();
+		c.add(text, 1, 0);
+		return c;
+	}
+
+	@Test
+	public void testRecordFile() throws Exception {
+		File dir = Files.createTempDirectory("cache").toFile();
+		try {
+			try (CommentCache cache = new CommentCache(dir, 1024 * 1024)) {
+				Assert.assertNull(cache.get(id(1), FileType.JAVA));
+				cache.put(id(1), FileType.JAVA, comments("// 1"));
+				cache.put(id(2), FileType.JAVA, FileComments.failure("CommentReadFail"));
+				Assert.assertEquals("// 1", cache.get(id(1), FileType.JAVA).getText(0));
+				Assert.assertNull(cache.get(id(1), FileType.CPP));
+			}
+			// An incomplete record of an aborted process is ignored
+			File records = new File(dir, "comments.cache");
+			try (RandomAccessFile f = new RandomAccessFile(records, "rw")) {
+				f.seek(f.length());
+				f.write(new byte[] { 1, 2, 3 });
+			}
+			try (CommentCache cache = new CommentCache(dir, 1024 * 1024)) {
+				Assert.assertEquals("// 1", cache.get(id(1), FileType.JAVA).getText(0));
+				Assert.assertEquals("CommentReadFail", cache.get(id(2), FileType.JAVA).getError());
+				cache.put(id(3), FileType.JAVA, comments("// 3"));
+			}
+			try (CommentCache cache = new CommentCache(dir, 1024 * 1024)) {
+				Assert.assertEquals("// 3", cache.get(id(3), FileType.JAVA).getText(0));
+				Assert.assertNotNull(cache.get(id(1), FileType.JAVA));
+				Assert.assertEquals(2, cache.getHitCount());
+			}
+		} finally {
+			TestRepository.delete(dir);
+		}
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		File dir = Files.createTempDirectory("cache").toFile();
+		try {
+			String text = String.join("", Collections.nCopies(100, "x"));
+			try (CommentCache cache = new CommentCache(dir, 2000)) {
+				for (int i=0; i<100; i++) {
+					cache.put(id(i), FileType.JAVA, comments(text));
+					// The first entry is used repeatedly
+					Assert.assertNotNull(cache.get(id(0), FileType.JAVA));
+					Assert.assertTrue(cache.getTotalBytes() <= 2000);
+				}
+				Assert.assertNull(cache.get(id(1), FileType.JAVA));
+				Assert.assertNotNull(cache.get(id(99), FileType.JAVA));
+			}
+			// Evicted records are removed from the file
+			Assert.assertTrue(new File(dir, "comments.cache").length() <= 2000);
+			try (CommentCache cache = new CommentCache(dir, 2000)) {
+				Assert.assertNotNull(cache.get(id(0), FileType.JAVA));
+				Assert.assertNotNull(cache.get(id(99), FileType.JAVA));
+			}
+		} finally {
+			TestRepository.delete(dir);
+		}
+	}
+
+	@Test
+	public void testSharedDirectory() throws Exception {
+		File dir = Files.createTempDirectory("cache").toFile();
+		try {
+			String text = String.join("", Collections.nCopies(100, "x"));
+			try (CommentCache first = new CommentCache(dir, 2000); CommentCache second = new CommentCache(dir, 2000)) {
+				second.put(id(0), FileType.JAVA, comments("// 0"));
+				// The first cache replaces the file by compaction
+				for (int i=1; i<100; i++) {
+					first.put(id(i), FileType.JAVA, comments(text));
+				}
+				// The second cache reloads the new file before it appends a record
+				second.put(id(100), FileType.JAVA, comments("// 100"));
+				Assert.assertNotNull(second.get(id(99), FileType.JAVA));
+				Assert.assertNull(second.get(id(1), FileType.JAVA));
+				// The first cache reads the record of the second cache before it appends a record
+				first.put(id(101), FileType.JAVA, comments("// 101"));
+				Assert.assertEquals("// 100", first.get(id(100), FileType.JAVA).getText(0));
+			}
+			// The generation of the record file is recorded in the lock file
+			Assert.assertEquals(8, new File(dir, "comments.lock").length());
+		} finally {
+			TestRepository.delete(dir);
+		}
+	}
+
+	@Test
+	public void testGitAnalyzer() throws Exception {
+		File dir = Files.createTempDirectory("cache").toFile();
+		try (TestRepository r = new TestRepository()) {
+			HashMap<String, String> files = new HashMap<>();
+			files.put("A.java", "// a\nclass A {}");
+			files.put("B.java", "/* b */ class B {}");
+			r.commit("master", "c1", files);
+			String expected = analyze(r, null);
+			try (CommentCache cache = new CommentCache(dir, 1024 * 1024)) {
+				Assert.assertEquals(expected, analyze(r, cache));
+				Assert.assertEquals(0, cache.getHitCount());
+			}
+			try (CommentCache cache = new CommentCache(dir, 1024 * 1024)) {
+				Assert.assertEquals(expected, analyze(r, cache));
+				Assert.assertEquals(2, cache.getHitCount());
+			}
+		} finally {
+			TestRepository.delete(dir);
+		}
+	}
+
+	/**
+	 * @return the NDJSON output of GitAnalyzer without the summary.
+	 */
+	static String analyze(TestRepository r, CommentCache cache) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GitAnalyzer analyzer = new GitAnalyzer(null, 1, OutputFormat.NDJSON, out)) {
+			analyzer.setCache(cache);
+			Assert.assertTrue(analyzer.parseGitRepository(r.getGitDir(), Collections.singletonList("HEAD"), FileType.getAllTypes()));
+		}
+		String s = new String(out.toByteArray(), StandardCharsets.UTF_8);
+		return s.substring(0, s.indexOf("{\"Record\":\"Summary\""));
+	}
+}
@@ -1,11 +1,22 @@
 package jp.naist.se.commentlister;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import jp.naist.se.commentlister.reader.CommentPrefilter;
 import jp.naist.se.commentlister.reader.CommentReader;
+import jp.naist.se.commentlister.reader.ErrorCollector;
 import jp.naist.se.commentlister.reader.FileType;
+import jp.naist.se.commentlister.reader.LexerPool;
+import jp.naist.se.commentlister.reader.XmlCommentReader;
+import jp.naist.se.commentlister.scanner.CommentScanner;
 
 public class CommentReaderTest {
 
@@ -55,5 +66,187 @@ public class CommentReaderTest {
 		Assert.assertEquals(2, countComments(FileType.RUBY, "=begin\n 1st comment \n=end\n=begin\n 2nd comment \n=end"));
 		Assert.assertEquals(1, countComments(FileType.RUBY, "if x then \n puts \"a\" # a \n end"));
 		Assert.assertEquals(1, countComments(FileType.RUBY, "if x then \n  puts \"a\" # 1st \n  puts \"b\" # 2nd \n end"));
+		
+		// Ruby files are processed by a shared runtime from multiple threads
+		String heredoc = "puts <<EOS\n# not a comment\nEOS\n# comment\n";
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			ArrayList<Future<Integer>> results = new ArrayList<>();
+			for (int i=0; i<8; i++) {
+				results.add(executor.submit(() -> countComments(FileType.RUBY, heredoc)));
+			}
+			for (Future<Integer> r: results) {
+				Assert.assertEquals(1, r.get().intValue());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testPrefilter() {
+		Assert.assertFalse(CommentPrefilter.mayIncludeComments(FileType.JAVA, "int x = a / b * c;".getBytes()));
+		Assert.assertTrue(CommentPrefilter.mayIncludeComments(FileType.JAVA, "String s = \"//\";".getBytes()));
+		Assert.assertFalse(CommentPrefilter.mayIncludeComments(FileType.PYTHON, "s = '\"\"'".getBytes()));
+		Assert.assertTrue(CommentPrefilter.mayIncludeComments(FileType.MAVEN, "<a><!-- c --></a>".getBytes()));
+		Assert.assertTrue(CommentPrefilter.mayIncludeComments(FileType.JAVA, "i\0n\0t\0".getBytes()));
+		Assert.assertEquals(0, countComments(FileType.CPP, "int x = 0;"));
+		Assert.assertEquals(1, countComments(FileType.PHP, "<?php # comment ?>"));
+	}
+	
+	@Test
+	public void testStream() {
+		String s = "/* 1st */\nint x = 0; // 2nd\n           // 3rd\n\"// string\" /* 4th */";
+		CommentReader r = FileType.createCommentReader(FileType.JAVA, new ByteArrayInputStream(s.getBytes()));
+		FileComments c = FileComments.read(r);
+		Assert.assertTrue(c.isSuccess());
+		Assert.assertEquals(3, c.size());
+		Assert.assertEquals("// 2nd\n// 3rd", c.getText(1));
+		Assert.assertEquals(2, c.getLine(1));
+		Assert.assertEquals(11, c.getCharPositionInLine(1));
+		Assert.assertEquals("/* 4th */", c.getText(2));
+	}
+	
+	@Test
+	public void testStreamLimit() {
+		try {
+			FileType.setStreamLimit(16);
+			String s = "// short\n/* a comment longer than the limit */";
+			FileComments c = FileComments.read(FileType.createCommentReader(FileType.JAVA, new ByteArrayInputStream(s.getBytes())));
+			Assert.assertEquals("StreamLimitExceeded", c.getError());
+			// An unterminated XML comment is not buffered beyond the limit
+			String xml = "<project><!-- short --><!-- an unterminated comment longer than the limit";
+			c = FileComments.read(FileType.createCommentReader(FileType.MAVEN, new ByteArrayInputStream(xml.getBytes())));
+			Assert.assertEquals("StreamLimitExceeded", c.getError());
+			// A Ruby file is read up to the limit
+			String ruby = "# a comment\nputs \"a file longer than the limit\"\n";
+			c = FileComments.read(FileType.createCommentReader(FileType.RUBY, new ByteArrayInputStream(ruby.getBytes())));
+			Assert.assertEquals("StreamLimitExceeded", c.getError());
+			c = FileComments.read(FileType.createCommentReader(FileType.RUBY, new ByteArrayInputStream("# short\n".getBytes())));
+			Assert.assertTrue(c.isSuccess());
+			Assert.assertEquals(1, c.size());
+		} finally {
+			FileType.setStreamLimit(FileType.DEFAULT_STREAM_LIMIT);
+		}
+	}
+
+	@Test
+	public void testScanner() {
+		String[][] cases = {
+				{ "JAVA", "char c = '\\''; // a\nString s = \"/* \\\" */\"; /* b */ /** c\n */" },
+				{ "CPP", "#define X /* skipped */ \\\n  1\nauto s = R\"x(// )x\"; int n = 1'000; // a\n// b" },
+				{ "ECMASCRIPT", "x = a / b; // a\nr = /[/]\\//g; /* b */ y = c\n/d/ 1 // c" },
+				{ "CSHARP", "var s = $\"{x /* no */}\"; // a\n#region // no\n#if DEBUG // b\nvar v = @\"//\"\"\";" }
+		};
+		for (String[] c: cases) {
+			assertSameComments(FileType.valueOf(c[0]), c[1], 2);
+		}
+	}
+
+	@Test
+	public void testCppScanner() {
+		String[] cases = {
+				// A raw string, a digit separator and a string including a line continuation
+				"auto a = u8R\"(x // r\n)\"; int n = 0x1'2; // c\nauto s = \"s\\\n// not\"; // t\n",
+				// Identifiers following literals are user-defined suffixes, not encoding prefixes
+				"auto c = '\\n'u8R\"(// r)\"; // a\nauto n = 1u8R\"(// r)\"; // b\n",
+				// A quote after a non-digit is not a digit separator
+				"int a = 1'200x1'2; // a\nint b = 0'9'; // b\nfloat f = 1.5e+3'0; // c\n",
+				// A raw string extends to a later quote followed by a suffix
+				"auto r = R\"(a)\" // x\n \"b\"s; // y\n",
+				"#define M(a) \\\n  /* in directive */ a\nint x; /* a */ /* b */\n"
+		};
+		for (String s: cases) {
+			assertSameComments(FileType.CPP, s, 1);
+		}
+	}
+
+	/**
+	 * Compare comments extracted by a lexer and a hand-written scanner.
+	 */
+	private static void assertSameComments(FileType t, String s, int minComments) {
+		byte[] content = s.getBytes();
+		FileComments expected = FileComments.read(FileType.createCommentReader(t, content));
+		FileComments actual = FileComments.read(CommentScanner.createCommentReader(t, content));
+		Assert.assertTrue(s, expected.size() >= minComments);
+		Assert.assertEquals(s, expected.size(), actual.size());
+		for (int i=0; i<expected.size(); i++) {
+			Assert.assertEquals(s, expected.getText(i), actual.getText(i));
+			Assert.assertEquals(s, expected.getLine(i), actual.getLine(i));
+			Assert.assertEquals(s, expected.getCharPositionInLine(i), actual.getCharPositionInLine(i));
+		}
+	}
+
+	@Test
+	public void testLexerPool() {
+		// Lexers having their own state (e.g. indentation in Python) are reused for the next file
+		String s = "def f():\n  if x:\n    # 1st\n    pass\n# 2nd";
+		long reused = LexerPool.getReusedCount();
+		for (int i=0; i<3; i++) {
+			FileComments c = FileComments.read(FileType.createCommentReader(FileType.PYTHON, s.getBytes()));
+			Assert.assertEquals(2, c.size());
+			Assert.assertEquals(3, c.getLine(0));
+			Assert.assertEquals("# 2nd", c.getText(1));
+		}
+		Assert.assertTrue(LexerPool.getReusedCount() >= reused + 2);
+	}
+
+	@Test
+	public void testErrorCollector() {
+		// Lexer errors are recorded per file, also by a lexer reused from the pool
+		String s = "// c\nint a = @;\n";
+		for (int i=0; i<2; i++) {
+			ErrorCollector errors = new ErrorCollector();
+			FileComments c = FileComments.read(FileType.createCommentReader(FileType.CSHARP, s.getBytes(), errors), errors);
+			Assert.assertEquals(1, c.size());
+			Assert.assertEquals("line 2:8 token recognition error at: '@;'\n", c.getErrorlog());
+			Assert.assertEquals(1, c.getErrorCount());
+		}
+		ErrorCollector errors = new ErrorCollector();
+		FileComments c = FileComments.read(FileType.createCommentReader(FileType.CSHARP, "// c\n".getBytes(), errors), errors);
+		Assert.assertNull(c.getErrorlog());
+		Assert.assertEquals(0, c.getErrorCount());
+	}
+
+	@Test
+	public void testXml() {
+		String s = "<?xml version=\"1.0\"?>\n<!DOCTYPE p [ <!-- in DTD --> ]>\n<p a=\"x > y\">\n" +
+				"  <![CDATA[ <!-- cdata --> ]]><?pi <!-- pi --> ?>\n  <!-- 1st\r\n comment -->\n" + 
+				"<b x=\"1\" <!-- 2nd --></p>";
+		FileComments c = FileComments.read(new XmlCommentReader(new ByteArrayInputStream(s.getBytes())));
+		Assert.assertEquals(2, c.size());
+		Assert.assertEquals(" 1st\n comment ", c.getText(0));
+		Assert.assertEquals(5, c.getLine(0));
+		Assert.assertEquals(2, c.getCharPositionInLine(0));
+		Assert.assertEquals(" 2nd ", c.getText(1));
+		Assert.assertEquals(7, c.getLine(1));
+		Assert.assertEquals(9, c.getCharPositionInLine(1));
+
+		String u = "<?xml version=\"1.0\" encoding=\"UTF-16\"?>\n<p>\u00e9<!-- \u00e9 --></p>";
+		c = FileComments.read(new XmlCommentReader(new ByteArrayInputStream(u.getBytes(StandardCharsets.UTF_16))));
+		Assert.assertEquals(" \u00e9 ", c.getText(0));
+		Assert.assertEquals(4, c.getCharPositionInLine(0));
+		String latin = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><!-- \u00e9 -->";
+		c = FileComments.read(new XmlCommentReader(new ByteArrayInputStream(latin.getBytes(StandardCharsets.ISO_8859_1))));
+		Assert.assertEquals(" \u00e9 ", c.getText(0));
+	}
+
+	@Test
+	public void testOffsets() {
+		String s = "int x; /* a\n b */\n// c\n// d\n";
+		CommentReader r = FileType.createCommentReader(FileType.JAVA, s.getBytes());
+		Assert.assertTrue(r.next());
+		Assert.assertEquals(1, r.getLine());
+		Assert.assertEquals(2, r.getEndLine());
+		Assert.assertEquals(7, r.getStartOffset());
+		Assert.assertEquals(17, r.getEndOffset());
+		Assert.assertEquals("/* a\n b */", r.getTextSequence().toString());
+		Assert.assertTrue(r.next());
+		Assert.assertEquals(3, r.getLine());
+		Assert.assertEquals(4, r.getEndLine());
+		Assert.assertEquals(18, r.getStartOffset());
+		Assert.assertEquals(27, r.getEndOffset());
+		Assert.assertEquals("// c\n// d", r.getTextSequence().toString());
+		Assert.assertFalse(r.next());
 	}
 }
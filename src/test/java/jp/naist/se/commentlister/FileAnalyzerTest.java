@@ -0,0 +1,136 @@
+package jp.naist.se.commentlister;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+public class FileAnalyzerTest {
+
+	/**
+	 * Create source files of various sizes and types.
+	 */
+	static File createFiles(int count) throws Exception {
+		File dir = Files.createTempDirectory("files").toFile();
+		for (int i=0; i<count; i++) {
+			File d = new File(dir, "d" + (i % 7));
+			d.mkdirs();
+			StringBuilder b = new StringBuilder();
+			for (int j=0; j<(i * 31) % 50; j++) {
+				b.append("int x").append(j).append("; // comment ").append(j).append(" of file ").append(i).append('\n');
+			}
+			String ext = i % 3 == 0 ? ".java" : i % 3 == 1 ? ".c" : ".py";
+			if (ext.equals(".py")) {
+				b.append("# python ").append(i).append('\n');
+			}
+			Files.write(new File(d, "F" + i + ext).toPath(), b.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		return dir;
+	}
+
+	/**
+	 * @return the output of FileAnalyzer for files in a directory.
+	 */
+	static String analyze(File dir, OutputFormat format, ExecutorService executor, int maxPendingFiles) throws Exception {
+		return analyze(dir, format, executor, maxPendingFiles, null);
+	}
+
+	/**
+	 * @param manifest is committed after the analysis.  It may be null.
+	 */
+	static String analyze(File dir, OutputFormat format, ExecutorService executor, int maxPendingFiles, FileManifest manifest) throws Exception {
+		if (manifest != null) {
+			manifest.open();
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonGenerator gen = format.createGenerator(out)) {
+			if (format == OutputFormat.JSON) {
+				gen.writeStartObject();
+			}
+			FileAnalyzer.processFiles(gen, format, FileAnalyzer.listFiles(dir.toPath()), executor, maxPendingFiles, manifest);
+			if (format == OutputFormat.JSON) {
+				gen.writeEndObject();
+			}
+		}
+		if (manifest != null) {
+			manifest.commit();
+			manifest.close();
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testParallel() throws Exception {
+		File dir = createFiles(100);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (OutputFormat format: new OutputFormat[] { OutputFormat.JSON, OutputFormat.NDJSON }) {
+				String expected = analyze(dir, format, null, 1);
+				Assert.assertTrue(expected.contains("of file 97"));
+				// Files are written in the order of their paths regardless of the completion order
+				Assert.assertEquals(expected, analyze(dir, format, executor, 8));
+				Assert.assertEquals(expected, analyze(dir, format, executor, 1000));
+			}
+		} finally {
+			executor.shutdownNow();
+			TestRepository.delete(dir);
+		}
+	}
+
+	@Test
+	public void testManifest() throws Exception {
+		File dir = createFiles(30);
+		File manifestFile = File.createTempFile("manifest", ".bin");
+		manifestFile.delete();
+		try {
+			// Files modified before the previous run are trusted by their metadata
+			FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 3600 * 1000);
+			for (Path p: FileAnalyzer.listFiles(dir.toPath())) {
+				Files.setLastModifiedTime(p, old);
+			}
+			String expected = analyze(dir, OutputFormat.JSON, null, 1);
+
+			FileManifest first = new FileManifest(manifestFile);
+			Assert.assertEquals(expected, analyze(dir, OutputFormat.JSON, null, 1, first));
+			Assert.assertEquals(0, first.getReusedCount());
+			Assert.assertEquals(30, first.getExtractedCount());
+
+			FileManifest second = new FileManifest(manifestFile);
+			Assert.assertEquals(expected, analyze(dir, OutputFormat.JSON, null, 1, second));
+			Assert.assertEquals(30, second.getReusedCount());
+			Assert.assertEquals(0, second.getExtractedCount());
+
+			// A modified file and a new file are extracted; a touched file is reused by its content hash
+			Files.write(new File(dir, "d0/F0.java").toPath(), "// modified\n".getBytes(StandardCharsets.UTF_8));
+			Files.setLastModifiedTime(new File(dir, "d1/F1.c").toPath(), FileTime.fromMillis(System.currentTimeMillis()));
+			Files.delete(new File(dir, "d2/F2.py").toPath());
+			Files.write(new File(dir, "d2/New.java").toPath(), "// new\n".getBytes(StandardCharsets.UTF_8));
+			expected = analyze(dir, OutputFormat.NDJSON, null, 1);
+			FileManifest third = new FileManifest(manifestFile);
+			Assert.assertEquals(expected, analyze(dir, OutputFormat.NDJSON, null, 1, third));
+			Assert.assertTrue(expected.contains("// modified") && expected.contains("// new"));
+			Assert.assertEquals(28, third.getReusedCount());
+			Assert.assertEquals(2, third.getExtractedCount());
+
+			// A broken manifest is ignored
+			Files.write(manifestFile.toPath(), new byte[] { 1, 2, 3 });
+			FileManifest broken = new FileManifest(manifestFile);
+			Assert.assertEquals(expected, analyze(dir, OutputFormat.NDJSON, null, 1, broken));
+			Assert.assertEquals(0, broken.getReusedCount());
+			Assert.assertEquals(30, broken.getExtractedCount());
+		} finally {
+			manifestFile.delete();
+			TestRepository.delete(dir);
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+package jp.naist.se.commentlister;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jp.naist.se.commentlister.reader.FileType;
+
+public class GitAnalyzerTest {
+
+	/**
+	 * @return the NDJSON output of GitAnalyzer.
+	 * @param cache counts the extractions by lookups.
+	 */
+	private static String analyze(TestRepository r, CommentCache cache, List<String> targets) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GitAnalyzer analyzer = new GitAnalyzer(null, 1, OutputFormat.NDJSON, out)) {
+			analyzer.setCache(cache);
+			Assert.assertTrue(analyzer.parseGitRepository(r.getGitDir(), targets, FileType.getAllTypes()));
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the NDJSON output of GitAnalyzer without summaries.
+	 */
+	private static String analyze(TestRepository r, ExecutorService executor, int threads) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GitAnalyzer analyzer = new GitAnalyzer(executor, threads, OutputFormat.NDJSON, out)) {
+			Assert.assertTrue(analyzer.parseGitRepository(r.getGitDir(), Arrays.asList("HEAD"), FileType.getAllTypes()));
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8).replaceAll("\\{\"Record\":\"Summary\".*\n", "");
+	}
+
+	@Test
+	public void testNdjson() throws Exception {
+		try (TestRepository r = new TestRepository()) {
+			HashMap<String, String> files = new HashMap<>();
+			files.put("A.java", "// a1\nclass A {} /* a2 */");
+			files.put("B.java", "class B {}");
+			r.tag("v1", r.commit("master", "c1", files));
+			files.put("C.c", "/* c\n */ int c;");
+			r.tag("v2", r.commit("master", "c2", files));
+			List<String> targets = Arrays.asList("v1", "v2");
+
+			ByteArrayOutputStream json = new ByteArrayOutputStream();
+			try (GitAnalyzer analyzer = new GitAnalyzer(null, 1, OutputFormat.JSON, json)) {
+				Assert.assertTrue(analyzer.parseGitRepository(r.getGitDir(), targets, FileType.getAllTypes()));
+			}
+			ObjectMapper mapper = new ObjectMapper();
+			Iterator<JsonNode> revisions = mapper.readerFor(JsonNode.class).readValues(json.toByteArray());
+
+			// A record per line: files of a revision followed by its summary
+			String[] lines = analyze(r, null, targets).split("\n");
+			Assert.assertEquals(2 + 3 + 2, lines.length);
+			int index = 0;
+			for (String target: targets) {
+				JsonNode expected = revisions.next();
+				int count = expected.get("Files").size();
+				for (int i=0; i<count; i++) {
+					JsonNode record = mapper.readTree(lines[index++]);
+					Assert.assertEquals("File", record.get("Record").asText());
+					Assert.assertEquals(target, record.get("Revision").asText());
+					JsonNode file = expected.get("Files").get(record.get("Path").asText());
+					Assert.assertEquals(file.get("ObjectId"), record.get("ObjectId"));
+					Assert.assertEquals(file.get("CommentCount"), record.get("CommentCount"));
+					JsonNode comments = record.get("Comments");
+					Assert.assertEquals(file.get("CommentCount").asInt(), comments.size());
+					for (int c=0; c<comments.size(); c++) {
+						Assert.assertEquals(file.get(Integer.toString(c)), comments.get(c));
+					}
+				}
+				JsonNode summary = mapper.readTree(lines[index++]);
+				Assert.assertEquals("Summary", summary.get("Record").asText());
+				Assert.assertEquals(target, summary.get("Revision").asText());
+				Assert.assertEquals(expected.get("ObjectId"), summary.get("ObjectId"));
+				Assert.assertEquals(expected.get("FileTypes"), summary.get("FileTypes"));
+			}
+			Assert.assertFalse(revisions.hasNext());
+		}
+	}
+
+	@Test
+	public void testSharedExecutor() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int n=1; n<=3; n++) {
+				try (TestRepository r = new TestRepository()) {
+					HashMap<String, String> files = new HashMap<>();
+					for (int i=0; i<50; i++) {
+						files.put("src/F" + i + ".java", "// file " + i + " of repository " + n + "\nclass F" + i + " {}");
+					}
+					r.commit("master", "c1", files);
+					String expected = analyze(r, null, 1);
+					Assert.assertTrue(expected.contains("of repository " + n));
+					// Worker threads read files of a repository after another repository is closed and deleted
+					Assert.assertEquals(expected, analyze(r, executor, 4));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSkippedFileCount() throws Exception {
+		try (TestRepository r = new TestRepository()) {
+			HashMap<String, String> files = new HashMap<>();
+			files.put("A.java", "// a\nclass A {}");
+			files.put("B.java", "class B { int x = 1 / 2; }");
+			r.commit("master", "c1", files);
+			// Each run counts its own files
+			for (int i=0; i<2; i++) {
+				try (GitAnalyzer analyzer = new GitAnalyzer(null, 1, OutputFormat.NDJSON, new ByteArrayOutputStream())) {
+					Assert.assertTrue(analyzer.parseGitRepository(r.getGitDir(), Arrays.asList("HEAD"), FileType.getAllTypes()));
+					Assert.assertEquals(1, analyzer.getSkippedFileCount());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSameBlobInRevision() throws Exception {
+		File dir = Files.createTempDirectory("cache").toFile();
+		try (TestRepository r = new TestRepository()) {
+			HashMap<String, String> files = new HashMap<>();
+			files.put("a/A.java", "// same\nclass A {}");
+			files.put("b/A.java", "// same\nclass A {}");
+			r.commit("master", "c1", files);
+			try (CommentCache cache = new CommentCache(dir, 1024 * 1024)) {
+				String output = analyze(r, cache, Arrays.asList("HEAD"));
+				// The blob is extracted once and written for both paths
+				Assert.assertEquals(1, cache.getHitCount() + cache.getMissCount());
+				Assert.assertTrue(output.contains("\"Path\":\"a/A.java\""));
+				Assert.assertTrue(output.contains("\"Path\":\"b/A.java\""));
+				Assert.assertEquals(2, output.split("// same", -1).length - 1);
+			}
+		} finally {
+			TestRepository.delete(dir);
+		}
+	}
+
+	@Test
+	public void testSameBlobInRevisions() throws Exception {
+		File dir = Files.createTempDirectory("cache").toFile();
+		try (TestRepository r = new TestRepository()) {
+			HashMap<String, String> files = new HashMap<>();
+			files.put("A.java", "// a\nclass A {}");
+			files.put("B.java", "// b\nclass B {}");
+			r.tag("v1", r.commit("master", "c1", files));
+			files.put("B.java", "// b2\nclass B {}");
+			files.put("C.java", "// a\nclass A {}");
+			r.tag("v2", r.commit("master", "c2", files));
+			try (CommentCache cache = new CommentCache(dir, 1024 * 1024)) {
+				String output = analyze(r, cache, Arrays.asList("v1", "v2"));
+				// Three distinct blobs
+				Assert.assertEquals(3, cache.getHitCount() + cache.getMissCount());
+				Assert.assertEquals(3, output.split("// a", -1).length - 1);
+			}
+		} finally {
+			TestRepository.delete(dir);
+		}
+	}
+}
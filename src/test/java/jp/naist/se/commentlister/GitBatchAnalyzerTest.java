@@ -0,0 +1,126 @@
+package jp.naist.se.commentlister;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Assert;
+import org.junit.Test;
+
+import jp.naist.se.commentlister.reader.FileType;
+
+public class GitBatchAnalyzerTest {
+
+	/**
+	 * @return the NDJSON output of a single GitAnalyzer run.
+	 */
+	private static String analyze(TestRepository r) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GitAnalyzer analyzer = new GitAnalyzer(null, 1, OutputFormat.NDJSON, out)) {
+			Assert.assertTrue(analyzer.parseGitRepository(r.getGitDir(), Collections.singletonList("HEAD"), FileType.getAllTypes()));
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String readOutput(File outputDir, TestRepository r) throws Exception {
+		File f = new File(outputDir, URLEncoder.encode(r.getDirectory().getPath(), "UTF-8") + ".ndjson");
+		return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testBatch() throws Exception {
+		File outputDir = Files.createTempDirectory("batch").toFile();
+		ArrayList<TestRepository> repositories = new ArrayList<>();
+		try {
+			StringBuilder list = new StringBuilder("# repositories\n");
+			for (int n=0; n<4; n++) {
+				TestRepository r = new TestRepository();
+				repositories.add(r);
+				HashMap<String, String> files = new HashMap<>();
+				for (int i=0; i<20 * (n + 1); i++) {
+					files.put("src/F" + i + ".cs", "// file " + i + " of repository " + n + "\nclass F" + i + " { int a = @; }");
+				}
+				files.put("a.py", "# python " + n);
+				r.commit("master", "c1", files);
+				list.append(r.getDirectory().getPath()).append('\n');
+			}
+			File listFile = new File(outputDir, "repositories.txt");
+			Files.write(listFile.toPath(), list.toString().getBytes(StandardCharsets.UTF_8));
+			String[] args = { listFile.getPath(), "-output=" + outputDir.getPath(), "-threads=3", "-format=ndjson" };
+			GitBatchAnalyzer.main(args);
+
+			// Each output is the same as a single run, including error logs written by pooled lexers
+			for (TestRepository r: repositories) {
+				String expected = analyze(r);
+				Assert.assertTrue(expected.contains("\"Errorlog\""));
+				Assert.assertEquals(GitDiffAnalyzerTest.removeElapsedTime(expected), GitDiffAnalyzerTest.removeElapsedTime(readOutput(outputDir, r)));
+			}
+
+			// A restarted batch skips finished repositories
+			File output = new File(outputDir, URLEncoder.encode(repositories.get(0).getDirectory().getPath(), "UTF-8") + ".ndjson");
+			Assert.assertTrue(output.delete());
+			GitBatchAnalyzer.main(args);
+			Assert.assertFalse(output.exists());
+		} finally {
+			for (TestRepository r: repositories) {
+				r.close();
+			}
+			TestRepository.delete(outputDir);
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		File outputDir = Files.createTempDirectory("batch").toFile();
+		ArrayList<TestRepository> repositories = new ArrayList<>();
+		try {
+			StringBuilder list = new StringBuilder();
+			for (int n=0; n<3; n++) {
+				TestRepository r = new TestRepository();
+				repositories.add(r);
+				RevCommit c = r.commit("master", "c1", Collections.singletonMap("A.java", "// a " + n));
+				if (n != 1) {
+					r.tag("v1", c);
+				}
+				if (n == 2) {
+					// The tree of the revision cannot be read
+					String tree = c.getTree().name();
+					Assert.assertTrue(new File(r.getGitDir(), "objects/" + tree.substring(0, 2) + "/" + tree.substring(2)).delete());
+				}
+				list.append(r.getDirectory().getPath()).append('\n');
+			}
+			File listFile = new File(outputDir, "repositories.txt");
+			Files.write(listFile.toPath(), list.toString().getBytes(StandardCharsets.UTF_8));
+			String[] args = { listFile.getPath(), "-output=" + outputDir.getPath(), "-format=ndjson", "-target=v1" };
+			GitBatchAnalyzer.main(args);
+
+			// An unresolved target and an unreadable revision are recorded as failures without outputs
+			String[] expected = { "Done", "Failed", "Failed" };
+			File checkpoint = new File(outputDir, "checkpoint.log");
+			String log = new String(Files.readAllBytes(checkpoint.toPath()), StandardCharsets.UTF_8);
+			for (int n=0; n<3; n++) {
+				String path = repositories.get(n).getDirectory().getPath();
+				Assert.assertTrue(log.contains(path + "\t" + expected[n] + "\n"));
+				File output = new File(outputDir, URLEncoder.encode(path, "UTF-8") + ".ndjson");
+				Assert.assertEquals(n == 0, output.exists());
+			}
+
+			// A restarted batch analyzes the failed repositories again
+			GitBatchAnalyzer.main(args);
+			log = new String(Files.readAllBytes(checkpoint.toPath()), StandardCharsets.UTF_8);
+			Assert.assertEquals(5, log.split("\n").length);
+		} finally {
+			for (TestRepository r: repositories) {
+				r.close();
+			}
+			TestRepository.delete(outputDir);
+		}
+	}
+
+}
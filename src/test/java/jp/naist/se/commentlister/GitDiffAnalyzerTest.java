@@ -0,0 +1,186 @@
+package jp.naist.se.commentlister;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GitDiffAnalyzerTest {
+
+	/**
+	 * Create a history in which URLs in comments are added, modified and removed.
+	 * @return the last commit.
+	 */
+	static RevCommit createHistory(TestRepository r, int count) throws Exception {
+		HashMap<String, String> files = new HashMap<>();
+		files.put("A.java", "class A {\n}\n");
+		files.put("B.java", "// See http://example.com/b\nclass B {\n}\n");
+		RevCommit c = r.commit("master", "initial", files);
+		for (int i=1; i<count; i++) {
+			String path = (i % 3 == 0) ? "B.java" : "A.java";
+			StringBuilder content = new StringBuilder();
+			for (int line=0; line<i; line++) {
+				if (line % 4 == 0) {
+					content.append("// http://example.com/" + path + "/" + (line * i % 7) + "\n");
+				} else {
+					content.append("int x" + line + ";\n");
+				}
+			}
+			files.put(path, "class X {\n" + content + "}\n");
+			c = r.commit("master", "c" + i, files, c);
+		}
+		return c;
+	}
+
+	/**
+	 * @return the output of GitDiffAnalyzer for revisions.
+	 */
+	static String analyze(TestRepository r, int threads, OutputFormat format, String... revisions) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CommitRange range = new CommitRange();
+		for (String rev: revisions) {
+			range.parse(rev);
+		}
+		try (GitDiffAnalyzer analyzer = new GitDiffAnalyzer("java", threads, format, out)) {
+			analyzer.parseGitRepository(r.getGitDir(), range);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testParallel() throws Exception {
+		try (TestRepository r = new TestRepository()) {
+			createHistory(r, 40);
+			String expected = analyze(r, 1, OutputFormat.JSON, "HEAD");
+			Assert.assertTrue(expected.contains("http://example.com/B.java/"));
+			Assert.assertTrue(expected.contains("\"REPLACED\""));
+			// The results of worker threads are written in the order of commits
+			Assert.assertEquals(expected, analyze(r, 4, OutputFormat.JSON, "HEAD"));
+			String records = analyze(r, 1, OutputFormat.NDJSON, "HEAD");
+			Assert.assertEquals(removeElapsedTime(records), removeElapsedTime(analyze(r, 4, OutputFormat.NDJSON, "HEAD")));
+		}
+	}
+
+	@Test
+	public void testBlobReadOnce() throws Exception {
+		try (TestRepository r = new TestRepository()) {
+			createHistory(r, 20);
+			String expected = analyze(r, 1, OutputFormat.JSON, "HEAD");
+			try (GitDiffAnalyzer analyzer = createAnalyzer(0)) {
+				Assert.assertEquals(expected, analyze(r, analyzer));
+				// Two added files, and the old and new versions of a modified file for each commit
+				Assert.assertEquals(2 + 2 * 19, analyzer.getBlobReadCount());
+			}
+		}
+	}
+
+	@Test
+	public void testURLCache() throws Exception {
+		try (TestRepository r = new TestRepository()) {
+			createHistory(r, 20);
+			String expected;
+			try (GitDiffAnalyzer analyzer = createAnalyzer(0)) {
+				expected = analyze(r, analyzer);
+			}
+			try (GitDiffAnalyzer analyzer = createAnalyzer(1024 * 1024)) {
+				Assert.assertEquals(expected, analyze(r, analyzer));
+				// The old version of a file is the new version of a previous commit
+				Assert.assertTrue(analyzer.getURLCacheHitCount() > 0);
+				// The history includes 21 blobs
+				Assert.assertTrue(analyzer.getURLCacheMissCount() <= 21);
+			}
+			try (GitDiffAnalyzer analyzer = createAnalyzer(1)) {
+				// Every entry is evicted
+				Assert.assertEquals(expected, analyze(r, analyzer));
+				Assert.assertEquals(0, analyzer.getURLCacheHitCount());
+			}
+		}
+	}
+
+	/**
+	 * @return the messages of commits enumerated for revisions.  null if the range is invalid.
+	 */
+	private static List<String> enumerate(TestRepository r, String... revisions) throws Exception {
+		CommitRange range = new CommitRange();
+		for (String rev: revisions) {
+			range.parse(rev);
+		}
+		try (RevWalk walk = new RevWalk(r.getRepository()); CommitRange commits = range) {
+			if (!commits.start(r.getRepository(), walk)) return null;
+			ArrayList<String> messages = new ArrayList<>();
+			for (RevCommit c = commits.next(); c != null; c = commits.next()) {
+				messages.add(c.getShortMessage());
+			}
+			messages.sort(null);
+			return messages;
+		}
+	}
+
+	@Test
+	public void testRange() throws Exception {
+		try (TestRepository r = new TestRepository()) {
+			LastModifiedFinderTest.createHistory(r);
+			Assert.assertEquals(Arrays.asList("c3", "c4", "merge"), enumerate(r, "topic..master"));
+			Assert.assertEquals(Arrays.asList("c3", "c4", "merge"), enumerate(r, "^topic", "master"));
+			Assert.assertEquals(Arrays.asList("t1"), enumerate(r, "master~2..topic"));
+			// t1 is merged into master
+			Assert.assertEquals(Arrays.asList(), enumerate(r, "master..topic"));
+			// Commits on either side of the fork point
+			Assert.assertEquals(Arrays.asList("c3", "t1"), enumerate(r, "topic...master~2"));
+			Assert.assertEquals(Arrays.asList("c3", "t1"), enumerate(r, "master~2...topic"));
+			Assert.assertEquals(Arrays.asList("c3", "c4", "merge"), enumerate(r, "topic...master"));
+
+			// An unresolvable endpoint is an error rather than an unbounded walk
+			Assert.assertNull(enumerate(r, "typo..master"));
+			Assert.assertNull(enumerate(r, "topic...typo"));
+			Assert.assertNull(enumerate(r, "^typo", "master"));
+			// A filter with a malformed value is also an error
+			CommitRange filter = new CommitRange();
+			Assert.assertTrue(filter.parse("--min-parents=two"));
+			Assert.assertTrue(filter.parse("--max-parents="));
+			Assert.assertFalse(filter.isValid());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			CommitRange range = new CommitRange();
+			range.parse("typo..master");
+			try (GitDiffAnalyzer analyzer = new GitDiffAnalyzer("java", 1, OutputFormat.JSON, out)) {
+				Assert.assertFalse(analyzer.parseGitRepository(r.getGitDir(), range));
+			}
+			Assert.assertEquals(0, out.size());
+		}
+	}
+
+	private ByteArrayOutputStream buffer;
+
+	private GitDiffAnalyzer createAnalyzer(long urlCacheSize) throws Exception {
+		buffer = new ByteArrayOutputStream();
+		GitDiffAnalyzer analyzer = new GitDiffAnalyzer("java", 1, OutputFormat.JSON, buffer);
+		analyzer.setURLCacheSize(urlCacheSize);
+		return analyzer;
+	}
+
+	/**
+	 * @return the output of an analyzer created by createAnalyzer for HEAD.
+	 * The analyzer is closed to flush the output.
+	 */
+	private String analyze(TestRepository r, GitDiffAnalyzer analyzer) throws Exception {
+		CommitRange range = new CommitRange();
+		range.parse("HEAD");
+		analyzer.parseGitRepository(r.getGitDir(), range);
+		analyzer.close();
+		return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the output without an elapsed time.
+	 */
+	static String removeElapsedTime(String output) {
+		return output.replaceAll("\"ElapsedTime\":[0-9]+", "");
+	}
+}
@@ -0,0 +1,114 @@
+package jp.naist.se.commentlister;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import jp.naist.se.commentlister.reader.FileType;
+
+public class KeywordMatcherTest {
+
+	/**
+	 * @return matches written as "keyword@start".
+	 */
+	private static String find(KeywordMatcher matcher, String text) {
+		StringBuilder b = new StringBuilder();
+		for (KeywordMatcher.Match m: matcher.find(text)) {
+			if (b.length() > 0) b.append(' ');
+			b.append(matcher.getKeyword(m.getKeyword())).append('@').append(m.getStart());
+		}
+		return b.toString();
+	}
+
+	@Test
+	public void testOverlap() {
+		KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("he", "she", "his", "hers", "", "he"), false);
+		Assert.assertEquals(4, matcher.getKeywordCount());
+		// Matches ending at the same position are ordered from the longest one
+		Assert.assertEquals("she@1 he@2 hers@2", find(matcher, "ushers"));
+		Assert.assertEquals("his@0 she@2 he@3", find(matcher, "hishe"));
+		Assert.assertEquals("", find(matcher, "hi s"));
+
+		List<KeywordMatcher.Match> matches = matcher.find("a\nb she");
+		Assert.assertEquals(1, matches.get(0).getLine());
+		Assert.assertEquals(2, matches.get(0).getColumn());
+	}
+
+	@Test
+	public void testCase() {
+		KeywordMatcher exact = new KeywordMatcher(Arrays.asList("TODO", "Élan"), false);
+		Assert.assertEquals("TODO@3", find(exact, "// TODO todo ToDo"));
+		Assert.assertEquals("", find(exact, "élan"));
+
+		KeywordMatcher ignoreCase = new KeywordMatcher(Arrays.asList("TODO", "Élan", "k"), true);
+		// A keyword is reported as written in the list
+		Assert.assertEquals("TODO@3 TODO@8 TODO@13", find(ignoreCase, "// TODO todo ToDo"));
+		Assert.assertEquals("Élan@0 Élan@5", find(ignoreCase, "élan ÉLAN"));
+		// The Kelvin sign is not folded into an ASCII letter
+		Assert.assertEquals("k@1", find(ignoreCase, "\u212AK"));
+
+		KeywordMatcher ascii = new KeywordMatcher(Arrays.asList("todo", "k"), true);
+		Assert.assertTrue(ascii.isFoundIn("x = 1; // ToDo".getBytes(StandardCharsets.UTF_8), 0, 14));
+		Assert.assertFalse(ascii.isFoundIn("x = 1; // ToDo".getBytes(StandardCharsets.UTF_8), 0, 13));
+		Assert.assertFalse(ascii.isFoundIn("// \u212A".getBytes(StandardCharsets.UTF_8), 0, 6));
+	}
+
+	@Test
+	public void testCommentPositions() throws Exception {
+		String source = "class A {\n" +
+				"\tint x; /* TODO 1 */    // FIXME 2\n" +
+				"\t// first TODO\n" +
+				"\t// second TODO\n" +
+				"\tint y;\n" +
+				"\t/* third\n" +
+				"\t   TODO */\n" +
+				"}\n";
+		FileComments comments = FileComments.read(FileType.createCommentReader(FileType.JAVA, source.getBytes(StandardCharsets.UTF_8)));
+		Assert.assertEquals(3, comments.size());
+		comments.findKeywords(new KeywordMatcher(Arrays.asList("TODO", "FIXME"), false));
+		assertPositions(comments, new int[][] {
+			// Comments merged in the same line keep their own positions regardless of the gap
+			{ 2, 11, 2, 27 },
+			// Line comments merged in consecutive lines
+			{ 3, 10, 4, 11 },
+			// A single multi-line comment
+			{ 7, 4 }
+		});
+
+		// Positions of merged comments are serialized
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		comments.writeTo(new DataOutputStream(buf));
+		FileComments restored = FileComments.readFrom(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+		restored.findKeywords(new KeywordMatcher(Arrays.asList("TODO", "FIXME"), false));
+		Assert.assertEquals(comments.getText(0), restored.getText(0));
+		assertPositions(restored, new int[][] { { 2, 11, 2, 27 }, { 3, 10, 4, 11 }, { 7, 4 } });
+
+		// The text of an XML comment does not include "<!--"
+		String xml = "<project>\n  <!-- TODO 1 -->\n  <!--\n  TODO 2 -->\n</project>\n";
+		FileComments xmlComments = FileComments.read(FileType.createCommentReader(FileType.MAVEN, xml.getBytes(StandardCharsets.UTF_8)));
+		xmlComments.findKeywords(new KeywordMatcher(Arrays.asList("TODO"), false));
+		assertPositions(xmlComments, new int[][] { { 2, 7 }, { 4, 2 } });
+	}
+
+	/**
+	 * @param expected is pairs of a line and a character position of keywords for each comment.
+	 */
+	private static void assertPositions(FileComments comments, int[][] expected) {
+		for (int i=0; i<expected.length; i++) {
+			List<KeywordMatcher.Match> matches = comments.getKeywordMatches(i);
+			Assert.assertEquals(expected[i].length / 2, matches.size());
+			for (int j=0; j<matches.size(); j++) {
+				int start = matches.get(j).getStart();
+				Assert.assertEquals(expected[i][j * 2], comments.getLine(i, start));
+				Assert.assertEquals(expected[i][j * 2 + 1], comments.getCharPositionInLine(i, start));
+			}
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package jp.naist.se.commentlister;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
+import org.eclipse.jgit.internal.storage.commitgraph.GraphCommits;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LastModifiedFinderTest {
+
+	/**
+	 * Create a history including a merge.
+	 * @return the last commit.
+	 */
+	static RevCommit createHistory(TestRepository r) throws Exception {
+		HashMap<String, String> files = new HashMap<>();
+		files.put("A.java", "// a1");
+		files.put("B.java", "// b1");
+		files.put("C.java", "// c1");
+		RevCommit c1 = r.commit("master", "c1", files);
+		files.put("A.java", "// a2");
+		RevCommit c2 = r.commit("master", "c2", files, c1);
+		HashMap<String, String> topic = new HashMap<>(files);
+		topic.put("B.java", "// b2");
+		RevCommit t1 = r.commit("topic", "t1", topic, c2);
+		files.put("C.java", "// c2");
+		RevCommit c3 = r.commit("master", "c3", files, c2);
+		files.put("B.java", "// b2");
+		RevCommit m = r.commit("master", "merge", files, c3, t1);
+		files.put("D.java", "// d1");
+		return r.commit("master", "c4", files, m);
+	}
+
+	@Test
+	public void testSingleWalk() throws Exception {
+		try (TestRepository r = new TestRepository()) {
+			RevCommit head = createHistory(r);
+			HashMap<String, Integer> result = new LastModifiedFinder(r.getRepository()).find(head, Arrays.asList("A.java", "B.java", "C.java", "D.java"));
+			// The same as a path-limited log of each file
+			try (Git git = Git.wrap(r.getRepository())) {
+				for (String path: result.keySet()) {
+					Iterator<RevCommit> log = git.log().add(head).addPath(path).setMaxCount(1).call().iterator();
+					Assert.assertEquals(path, log.next().getCommitTime(), result.get(path).intValue());
+				}
+			}
+			Assert.assertTrue(result.get("A.java") < result.get("B.java"));
+			Assert.assertTrue(result.get("B.java") < result.get("C.java"));
+			Assert.assertEquals(head.getCommitTime(), result.get("D.java").intValue());
+		}
+	}
+
+	@Test
+	public void testCommitGraphChain() throws Exception {
+		try (TestRepository r = new TestRepository()) {
+			RevCommit head = createHistory(r);
+			// The fallback without commit-graph is reported
+			Assert.assertTrue(getMessages(r).contains("Info: commit-graph is not found"));
+			HashMap<String, Integer> expected = new LastModifiedFinder(r.getRepository()).find(head, Arrays.asList("A.java", "B.java", "C.java", "D.java"));
+
+			// A chain of two layers with changed-path Bloom filters
+			File dir = new File(r.getGitDir(), "objects/info/commit-graphs");
+			dir.mkdirs();
+			writeCommitGraph(r, new File(dir, "graph-1111111111111111111111111111111111111111.graph"), r.getRepository().resolve("master~2"));
+			writeCommitGraph(r, new File(dir, "graph-2222222222222222222222222222222222222222.graph"), head);
+			Files.write(new File(dir, "commit-graph-chain").toPath(), "1111111111111111111111111111111111111111\n2222222222222222222222222222222222222222\n".getBytes(StandardCharsets.US_ASCII));
+			
+			LastModifiedFinder finder = new LastModifiedFinder(r.getRepository());
+			Assert.assertEquals(2, finder.getCommitGraphCount());
+			Assert.assertEquals(expected, finder.find(head, Arrays.asList("A.java", "B.java", "C.java", "D.java")));
+			Assert.assertEquals("", getMessages(r));
+		}
+	}
+
+	/**
+	 * @return messages printed to System.err when a LastModifiedFinder is created.
+	 */
+	private static String getMessages(TestRepository r) {
+		PrintStream err = System.err;
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		System.setErr(new PrintStream(buf, true));
+		try {
+			new LastModifiedFinder(r.getRepository());
+		} finally {
+			System.setErr(err);
+		}
+		return buf.toString();
+	}
+
+	private static void writeCommitGraph(TestRepository r, File f, ObjectId tip) throws Exception {
+		try (RevWalk walk = new RevWalk(r.getRepository())) {
+			GraphCommits commits = GraphCommits.fromWalk(NullProgressMonitor.INSTANCE, Collections.singleton(tip), walk);
+			try (OutputStream out = new FileOutputStream(f)) {
+				new CommitGraphWriter(commits, true).write(NullProgressMonitor.INSTANCE, out);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+package jp.naist.se.commentlister;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+
+/**
+ * A temporary Git repository for tests.
+ * Commits are directly created from snapshots of files,
+ * so that their commit times are deterministic (one minute per commit).
+ */
+class TestRepository implements AutoCloseable {
+
+	private static final long START_TIME = 1500000000L;
+
+	private File dir;
+	private Repository repo;
+	private long time = START_TIME;
+
+	public TestRepository() throws Exception {
+		dir = Files.createTempDirectory("commentlister").toFile();
+		try (Git git = Git.init().setDirectory(dir).call()) {
+			repo = git.getRepository();
+		}
+		repo.updateRef(Constants.HEAD).link("refs/heads/master");
+	}
+
+	public Repository getRepository() {
+		return repo;
+	}
+
+	public File getDirectory() {
+		return dir;
+	}
+
+	public File getGitDir() {
+		return repo.getDirectory();
+	}
+
+	/**
+	 * @return the commit time of the next commit (seconds from epoch).
+	 */
+	public int getNextCommitTime() {
+		return (int)time;
+	}
+
+	/**
+	 * Create a commit and move a branch to the commit.
+	 * @param files is a snapshot of the files (path to content).
+	 */
+	public RevCommit commit(String branch, String message, Map<String, String> files, RevCommit... parents) throws IOException {
+		try (ObjectInserter inserter = repo.newObjectInserter()) {
+			DirCache index = DirCache.newInCore();
+			DirCacheBuilder builder = index.builder();
+			for (Map.Entry<String, String> f: new TreeMap<>(files).entrySet()) {
+				DirCacheEntry e = new DirCacheEntry(f.getKey());
+				e.setFileMode(FileMode.REGULAR_FILE);
+				e.setObjectId(inserter.insert(Constants.OBJ_BLOB, f.getValue().getBytes(StandardCharsets.UTF_8)));
+				builder.add(e);
+			}
+			builder.finish();
+
+			PersonIdent ident = new PersonIdent("tester", "tester@example.com", time * 1000, 0);
+			time += 60;
+			CommitBuilder c = new CommitBuilder();
+			c.setTreeId(index.writeTree(inserter));
+			c.setAuthor(ident);
+			c.setCommitter(ident);
+			c.setMessage(message);
+			c.setParentIds(parents);
+			ObjectId id = inserter.insert(c);
+			inserter.flush();
+			update("refs/heads/" + branch, id);
+			try (RevWalk walk = new RevWalk(repo)) {
+				return walk.parseCommit(id);
+			}
+		}
+	}
+
+	/**
+	 * Create or move a lightweight tag.
+	 */
+	public void tag(String name, ObjectId id) throws IOException {
+		update("refs/tags/" + name, id);
+	}
+
+	private void update(String ref, ObjectId id) throws IOException {
+		RefUpdate u = repo.updateRef(ref);
+		u.setNewObjectId(id);
+		u.forceUpdate();
+	}
+
+	@Override
+	public void close() throws IOException {
+		repo.close();
+		delete(dir);
+	}
+
+	/**
+	 * Remove a directory recursively.
+	 */
+	static void delete(File dir) throws IOException {
+		if (!dir.exists()) return;
+		try (Stream<java.nio.file.Path> paths = Files.walk(dir.toPath())) {
+			paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package jp.naist.se.commentlister.binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import jp.naist.se.commentlister.FileComments;
+import jp.naist.se.commentlister.reader.ErrorCollector;
+
+public class BinaryWriterTest {
+
+	private static FileComments comments(String... texts) {
+		FileComments c = new FileComments();
+		for (int i=0; i<texts.length; i++) {
+			c.add(texts[i], i + 1, i);
+		}
+		return c;
+	}
+
+	/**
+	 * Write two revisions sharing a path and a comment.
+	 */
+	private static void write(BinaryWriter writer, File file) throws Exception {
+		ErrorCollector errors = new ErrorCollector();
+		errors.add("line 1:0 token recognition error");
+		writer.startRevision("repo/.git", "v1", "1111", "2020-01-01T00:00:00Z");
+		writer.addFile("src/A.java", "aaaa", "2020-01-01T00:00:00Z", "JAVA", comments("// same", "/* é 😀 */"));
+		writer.addFile("B.c", "bbbb", "2020-01-01T00:00:00Z", "CPP", FileComments.read(null, errors));
+		writer.endRevision(Collections.singletonMap("JAVA", 1), Collections.singletonMap("CPP", 1), 10);
+		writer.startRevision("repo/.git", "v2", "2222", "2020-01-02T00:00:00Z");
+		writer.addFile("src/A.java", "cccc", "2020-01-02T00:00:00Z", "JAVA", comments("// same"));
+		writer.endRevision(Collections.singletonMap("JAVA", 1), Collections.emptyMap(), 20);
+		try (OutputStream out = new FileOutputStream(file)) {
+			writer.writeTo(out);
+		}
+	}
+
+	private static String toJSON(File file) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryConverter.toJSON(new BinaryReader(file), out);
+		return out.toString("UTF-8");
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		File dir = Files.createTempDirectory("binary").toFile();
+		try {
+			File file = new File(dir, "comments.bin");
+			try (BinaryWriter writer = new BinaryWriter()) {
+				write(writer, file);
+			}
+			BinaryReader reader = new BinaryReader(file);
+			Assert.assertEquals(2, reader.getRevisionCount());
+			Assert.assertEquals(3, reader.getFileCount());
+			Assert.assertEquals(3, reader.getCommentCount());
+			Assert.assertArrayEquals(new int[] { 0, 2 }, reader.findFiles("src/A.java"));
+			Assert.assertEquals(1, reader.findFile(0, "B.c"));
+			Assert.assertEquals(-1, reader.findFile(1, "B.c"));
+			Assert.assertEquals("/* é 😀 */", reader.getText(reader.getFirstComment(0) + 1));
+			Assert.assertEquals("CommentReadFail", reader.getError(1));
+			Assert.assertEquals("line 1:0 token recognition error\n", reader.getErrorlog(1));
+			Assert.assertEquals(0, reader.getCommentCount(1));
+			Assert.assertEquals(20, reader.getElapsedTime(1));
+			// A repeated comment is stored once
+			Assert.assertEquals("cccc", reader.getString(reader.getStringCount() - 1));
+
+			// JSON converted from the binary file is converted to the same binary file
+			String json = toJSON(file);
+			File jsonFile = new File(dir, "comments.json");
+			Files.write(jsonFile.toPath(), json.getBytes("UTF-8"));
+			File converted = new File(dir, "converted.bin");
+			try (OutputStream out = new FileOutputStream(converted)) {
+				BinaryConverter.toBinary(jsonFile, out);
+			}
+			Assert.assertArrayEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(converted.toPath()));
+
+			// Strings evicted from a small dictionary are stored again
+			File small = new File(dir, "small.bin");
+			try (BinaryWriter writer = new BinaryWriter(8)) {
+				write(writer, small);
+			}
+			Assert.assertTrue(new BinaryReader(small).getStringCount() > reader.getStringCount());
+			Assert.assertEquals(json, toJSON(small));
+		} finally {
+			for (File f: dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+	@Test
+	public void testCorruptInput() throws Exception {
+		File dir = Files.createTempDirectory("binary").toFile();
+		try {
+			File file = new File(dir, "comments.bin");
+			try (BinaryWriter writer = new BinaryWriter()) {
+				write(writer, file);
+			}
+			// A truncated file is rejected when it is opened
+			byte[] content = Files.readAllBytes(file.toPath());
+			File truncated = new File(dir, "truncated.bin");
+			Files.write(truncated.toPath(), Arrays.copyOf(content, content.length - 4));
+			try {
+				new BinaryReader(truncated);
+				Assert.fail();
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage().contains("corrupt"));
+			}
+
+			// A revision object without files is rejected
+			File json = new File(dir, "noFiles.json");
+			Files.write(json.toPath(), "{ \"Repository\" : \"repo/.git\", \"Revision\" : \"v1\", \"ElapsedTime\" : 1 }".getBytes("UTF-8"));
+			try (OutputStream out = new ByteArrayOutputStream()) {
+				BinaryConverter.toBinary(json, out);
+				Assert.fail();
+			} catch (IOException e) {
+				Assert.assertTrue(e.getMessage().contains("without Files"));
+			}
+		} finally {
+			for (File f: dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+}